@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.benchmarks;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapServiceCredentials;
+import org.intalio.cloudfoundry.vcapservices.impl.CredentialsBinder;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServices;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Binding credentials onto a POJO: the generated binder versus reflection.
+ * @author hmalphettes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BindingBenchmark {
+
+	private static final String SERVICES = "{\"rabbitmq\":[{\"name\":\"mq\",\"credentials\":{"
+			+ "\"uri\":\"amqp://u:p@mq.local:5672/vh\",\"vhost\":\"vh\",\"hostname\":\"mq.local\","
+			+ "\"port\":5672,\"ssl\":true,\"user\":\"u\",\"password\":\"p\",\"jdbcUrl\":\"jdbc:x\"}}]}";
+
+	public static class Credentials {
+		private String _uri;
+		private String _vhost;
+		private String _hostname;
+		private int _port;
+		private boolean _ssl;
+		private String _user;
+		private String _password;
+		private String _jdbcUrl;
+
+		public void setUri(String uri) { _uri = uri; }
+		public void setVhost(String vhost) { _vhost = vhost; }
+		public void setHostname(String hostname) { _hostname = hostname; }
+		public void setPort(int port) { _port = port; }
+		public void setSsl(boolean ssl) { _ssl = ssl; }
+		public void setUser(String user) { _user = user; }
+		public void setPassword(String password) { _password = password; }
+		public void setJdbcUrl(String jdbcUrl) { _jdbcUrl = jdbcUrl; }
+	}
+
+	private IVCapServiceCredentials _credentials;
+	private CredentialsBinder<Credentials> _binder;
+	/** The setter of each key. */
+	private HashMap<String, Method> _setters;
+
+	@Setup
+	public void setUp() throws Exception {
+		_credentials = new VCapServices(SERVICES, false).getVCapServiceCredentialsByName("mq");
+		_binder = CredentialsBinder.of(Credentials.class);
+		_setters = setters();
+	}
+
+	private static HashMap<String, Method> setters() {
+		HashMap<String, Method> res = new HashMap<String, Method>();
+		for (Method method : Credentials.class.getMethods()) {
+			if (method.getName().startsWith("set") && method.getParameterTypes().length == 1) {
+				res.put(method.getName().substring(3).toLowerCase(Locale.ENGLISH), method);
+			}
+		}
+		return res;
+	}
+
+	@Benchmark
+	public Credentials binder() {
+		return _binder.bind(_credentials);
+	}
+
+	/**
+	 * The setters are looked up once; invoked reflectively.
+	 */
+	@Benchmark
+	public Credentials reflectionCached() throws Exception {
+		return bind(_setters);
+	}
+
+	/**
+	 * The setters are looked up on each bind.
+	 */
+	@Benchmark
+	public Credentials reflectionUncached() throws Exception {
+		return bind(setters());
+	}
+
+	private Credentials bind(HashMap<String, Method> setters) throws Exception {
+		Credentials res = Credentials.class.getConstructor().newInstance();
+		for (String key : _credentials.getKeys()) {
+			Method setter = setters.get(key.toLowerCase(Locale.ENGLISH));
+			if (setter != null) {
+				String value = _credentials.getString(key);
+				Class<?> type = setter.getParameterTypes()[0];
+				setter.invoke(res, type == int.class ? Integer.valueOf(value)
+						: type == boolean.class ? Boolean.valueOf(value) : value);
+			}
+		}
+		return res;
+	}
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.benchmarks;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.intalio.cloudfoundry.vcapservices.ConnectionRequest;
+import org.intalio.cloudfoundry.vcapservices.ConnectionResolution;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServices;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The connections of an application at startup: 30 requests with regexp selectors
+ * against freshly parsed services; one getConnectionAsURI per request or a single bulk resolution.
+ * <p>
+ * Each iteration is a single call on services parsed before the iteration:
+ * the parsing is not timed and nothing is memoized by the previous calls.
+ * The allocations reported include the parsing.
+ * </p>
+ * @author hmalphettes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 500)
+@Measurement(iterations = 1000)
+@Fork(1)
+public class BulkResolutionBenchmark {
+
+	private static final int REQUESTS = 30;
+
+	@Param({ "100", "1000" })
+	public int services;
+
+	private String _payload;
+	private List<ConnectionRequest> _requests;
+	private VCapServices _services;
+
+	@Setup
+	public void setUp() throws Exception {
+		_payload = Fixtures.generate(services);
+		System.setProperty("VCAP_SERVICES", _payload);
+		_requests = new ArrayList<ConnectionRequest>();
+		for (int i = 0; i < REQUESTS; i++) {
+			int service = (i * 37) % services;
+			_requests.add(new ConnectionRequest("DATABASE_URL", "postgresql",
+					"/type-[0-9]/", "/service-0*" + service + "/"));
+		}
+	}
+
+	/**
+	 * Fresh services: nothing is memoized by the index nor cached.
+	 */
+	@Setup(Level.Iteration)
+	public void parse() throws Exception {
+		_services = new VCapServices(_payload, false, false);
+	}
+
+	@TearDown
+	public void tearDown() {
+		System.clearProperty("VCAP_SERVICES");
+	}
+
+	@Benchmark
+	public URI[] perRequest() throws Exception {
+		URI[] res = new URI[REQUESTS];
+		for (int i = 0; i < REQUESTS; i++) {
+			ConnectionRequest request = _requests.get(i);
+			res[i] = _services.getConnectionAsURI(request.getDefaultURIOrSysPropertyForIt(), request.getScheme(),
+					request.getServiceTypeRegexpOrString(), request.getNameOfServiceSelector());
+		}
+		return res;
+	}
+
+	@Benchmark
+	public ConnectionResolution bulk() {
+		return _services.resolveConnections(_requests);
+	}
+
+}
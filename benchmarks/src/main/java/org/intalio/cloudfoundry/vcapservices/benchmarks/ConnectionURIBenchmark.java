@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.benchmarks;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServices;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Construction of the connection URIs.
+ * <p>
+ * getConnectionAsURI only looks at the services when VCAP_SERVICES is set:
+ * it is set as a system property for the duration of the benchmark.
+ * </p>
+ * @author hmalphettes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionURIBenchmark {
+
+	@Param({ "example4.json", "generated-100" })
+	public String fixture;
+
+	private VCapServices _services;
+	private String _serviceType;
+	private String _serviceName;
+
+	@Setup
+	public void setUp() throws Exception {
+		String payload = Fixtures.get(fixture);
+		System.setProperty("VCAP_SERVICES", payload);
+		_services = new VCapServices(payload, false);
+		if (fixture.startsWith(Fixtures.GENERATED)) {
+			_serviceType = "/^type-.*/";
+			_serviceName = "/service-4.*/";
+		} else {
+			_serviceType = "/^postgres.*/";
+			_serviceName = "intalio-prodrdb2";
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		System.clearProperty("VCAP_SERVICES");
+	}
+
+	/**
+	 * The URI is computed once then answered from the cache of the services.
+	 */
+	@Benchmark
+	public URI cached() throws Exception {
+		return _services.getConnectionAsURI("DATABASE_URL", "postgresql", _serviceType, _serviceName);
+	}
+
+	/**
+	 * The cache is cleared before each call: the URI is computed every time.
+	 */
+	@Benchmark
+	public URI computed() throws Exception {
+		_services.clearConnectionCache();
+		return _services.getConnectionAsURI("DATABASE_URL", "postgresql", _serviceType, _serviceName);
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The VCAP_SERVICES payloads used by the benchmarks:
+ * the example*.json fixtures of the unit tests and generated payloads.
+ * @author hmalphettes
+ */
+public final class Fixtures {
+
+	private static final String RESOURCES = "/org/intalio/cloudfoundry/vcapservices/test/";
+
+	/** The prefix of the names of the generated payloads. For example generated-100. */
+	public static final String GENERATED = "generated-";
+
+	private Fixtures() {
+	}
+
+	/**
+	 * @param name example.json, example2.json etc or generated-N for a payload
+	 * with N services.
+	 * @return The payload.
+	 */
+	public static String get(String name) throws IOException {
+		if (name.startsWith(GENERATED)) {
+			return generate(Integer.parseInt(name.substring(GENERATED.length())));
+		}
+		return read(name);
+	}
+
+	/**
+	 * @param name The name of the fixture in the test resources.
+	 * @return The content of the fixture.
+	 */
+	public static String read(String name) throws IOException {
+		InputStream in = Fixtures.class.getResourceAsStream(RESOURCES + name);
+		if (in == null) {
+			throw new IOException("Unable to find the fixture " + name);
+		}
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[4096];
+			int read;
+			while ((read = in.read(buf)) != -1) {
+				out.write(buf, 0, read);
+			}
+			return out.toString("UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Services spread over 10 service types named type-0 .. type-9.
+	 * The services are named service-0 .. service-(N-1);
+	 * their credentials use the ${KEY,default} notation like the example4.json fixture.
+	 * @param services The number of services.
+	 * @return The payload.
+	 */
+	public static String generate(int services) {
+		int types = Math.min(10, services);
+		StringBuilder sb = new StringBuilder(services * 400);
+		sb.append('{');
+		for (int t = 0; t < types; t++) {
+			if (t != 0) {
+				sb.append(',');
+			}
+			sb.append("\n  \"type-").append(t).append("\":[");
+			boolean first = true;
+			for (int i = t; i < services; i += types) {
+				if (!first) {
+					sb.append(',');
+				}
+				first = false;
+				sb.append("\n    {\"name\":\"service-").append(i).append('"')
+					.append(",\"label\":\"type-").append(t).append("-1.0\"")
+					.append(",\"plan\":\"").append(i % 3 == 0 ? "free" : "paid").append('"')
+					.append(",\"tags\":[\"type-").append(t).append("\",\"tag-").append(i % 5).append("\"]")
+					.append(",\"credentials\":{")
+					.append("\"name\":\"db").append(i).append('"')
+					.append(",\"hostname\":\"${service-").append(i).append(".hostname,10.0.0.").append(i % 250).append("}\"")
+					.append(",\"port\":").append(5000 + i)
+					.append(",\"user\":\"u").append(i).append('"')
+					.append(",\"password\":\"p").append(i).append('"')
+					.append("}}");
+			}
+			sb.append("\n  ]");
+		}
+		sb.append("\n}\n");
+		return sb.toString();
+	}
+
+}
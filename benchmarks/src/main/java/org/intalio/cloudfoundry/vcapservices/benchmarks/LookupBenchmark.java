@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.NegatablePattern;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServices;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per lookup cost: selecting services by type and name patterns.
+ * @author hmalphettes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	public int services;
+
+	private VCapServices _services;
+	private Pattern _typePattern;
+	private NegatablePattern _literalType;
+	private NegatablePattern _literalName;
+	private NegatablePattern _prefixName;
+	private NegatablePattern _regexType;
+	private NegatablePattern _regexName;
+
+	@Setup
+	public void setUp() throws Exception {
+		_services = new VCapServices(Fixtures.generate(services), false);
+		_typePattern = Pattern.compile("^type-[5-9]$");
+		_literalType = NegatablePattern.compile("type-3");
+		_literalName = NegatablePattern.compile("service-3");
+		_prefixName = NegatablePattern.compile("/^service-1.*/");
+		_regexType = NegatablePattern.compile("/type-[0-4]/");
+		_regexName = NegatablePattern.compile("/service-\\d*3/");
+	}
+
+	@Benchmark
+	public IVCapService serviceByTypePattern() {
+		return _services.getVCapService(_typePattern, 0);
+	}
+
+	@Benchmark
+	public List<IVCapService> servicesByLiteralPatterns() {
+		return _services.getVCapServices(_literalType, _literalName);
+	}
+
+	@Benchmark
+	public List<IVCapService> servicesByNamePrefix() {
+		return _services.getVCapServices(_regexType, _prefixName);
+	}
+
+	@Benchmark
+	public List<IVCapService> servicesByRegex() {
+		return _services.getVCapServices(_regexType, _regexName);
+	}
+
+	/**
+	 * Compiles the selectors on each call like a caller that does not keep them.
+	 */
+	@Benchmark
+	public List<IVCapService> servicesBySelectorStrings() {
+		return _services.getVCapServices(NegatablePattern.compile("/type-[0-4]/"),
+				NegatablePattern.compile("/service-\\d*3/"));
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.benchmarks;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.NegatablePattern;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapService;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServices;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Overhead of the metrics on the hot paths: disabled versus enabled.
+ * @author hmalphettes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+	@Param({ "false", "true" })
+	public boolean metrics;
+
+	private VCapServices _services;
+	private NegatablePattern _type;
+	private NegatablePattern _name;
+
+	@Setup
+	public void setUp() throws Exception {
+		String payload = Fixtures.generate(100);
+		System.setProperty("VCAP_SERVICES", payload);
+		_services = new VCapServices(payload, false);
+		if (metrics) {
+			_services.enableMetrics();
+		}
+		_type = NegatablePattern.compile("type-3");
+		_name = NegatablePattern.compile("service-3");
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		_services.disableMetrics();
+		System.clearProperty("VCAP_SERVICES");
+	}
+
+	@Benchmark
+	public IVCapService serviceByName() {
+		return _services.getVCapServiceByName("service-42");
+	}
+
+	@Benchmark
+	public List<IVCapService> servicesByPatterns() {
+		return _services.getVCapServices(_type, _name);
+	}
+
+	@Benchmark
+	public URI cachedConnectionURI() throws Exception {
+		return _services.getConnectionAsURI("DATABASE_URL", "postgresql", "/^type-.*/", "/service-4.*/");
+	}
+
+	@Benchmark
+	public String resolvePropertyValue() {
+		return VCapService.resolvePropertyValue("${no.such.key,localhost}:5432");
+	}
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServices;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Startup cost: parsing and indexing a VCAP_SERVICES payload.
+ * Eager parsing compared to the lazy mode when only one service type is read.
+ * @author hmalphettes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+	@Param({ "example.json", "example2.json", "example3.json", "example4.json",
+		"generated-10", "generated-100", "generated-1000" })
+	public String fixture;
+
+	private String _payload;
+
+	@Setup
+	public void setUp() throws Exception {
+		_payload = Fixtures.get(fixture);
+	}
+
+	@Benchmark
+	public VCapServices parse() throws Exception {
+		return new VCapServices(_payload, false);
+	}
+
+	/**
+	 * Scans the payload then reads the first service of the last type:
+	 * the other types are never parsed.
+	 */
+	@Benchmark
+	public IVCapService parseLazyAndReadOneType() throws Exception {
+		VCapServices services = new VCapServices(_payload, false, true);
+		String lastType = null;
+		for (String type : services.getVCapServices().keySet()) {
+			lastType = type;
+		}
+		return services.getVCapService(lastType, 0);
+	}
+
+	@Benchmark
+	public IVCapService parseEagerAndReadOneType() throws Exception {
+		VCapServices services = new VCapServices(_payload, false, false);
+		String lastType = null;
+		for (String type : services.getVCapServices().keySet()) {
+			lastType = type;
+		}
+		return services.getVCapService(lastType, 0);
+	}
+
+}
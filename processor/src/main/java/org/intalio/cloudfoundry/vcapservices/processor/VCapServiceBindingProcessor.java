@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.PatternSyntaxException;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+import org.intalio.cloudfoundry.vcapservices.CredentialsKey;
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.IVCapServiceCredentials;
+import org.intalio.cloudfoundry.vcapservices.NegatablePattern;
+import org.intalio.cloudfoundry.vcapservices.VCapServiceBinding;
+
+/**
+ * Generates the implementation of the interfaces annotated with {@link VCapServiceBinding}.
+ * <p>
+ * The selectors and the accessors are checked at compile time: a malformed regexp,
+ * an accessor with parameters or an unsupported return type is a compilation error.
+ * The generated class selects the service and reads all the values in its constructor;
+ * the accessors return final fields and nothing is looked up by reflection.
+ * </p>
+ * @author hmalphettes
+ */
+public class VCapServiceBindingProcessor extends AbstractProcessor {
+
+	/** Suffix of the name of the generated classes. */
+	public static final String SUFFIX = "Impl";
+
+	private static final String BINDINGS = "org.intalio.cloudfoundry.vcapservices.impl.GeneratedBindings";
+	private static final String PATTERN = NegatablePattern.class.getName();
+
+	public Set<String> getSupportedAnnotationTypes() {
+		return Collections.singleton(VCapServiceBinding.class.getName());
+	}
+
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (Element element : roundEnv.getElementsAnnotatedWith(VCapServiceBinding.class)) {
+			if (element.getKind() != ElementKind.INTERFACE) {
+				error(element, "@VCapServiceBinding must annotate an interface.");
+				continue;
+			}
+			TypeElement type = (TypeElement)element;
+			VCapServiceBinding binding = type.getAnnotation(VCapServiceBinding.class);
+			boolean valid = checkSelector(type, "type", binding.type());
+			valid &= binding.name().length() == 0 || checkSelector(type, "name", binding.name());
+			List<Accessor> accessors = new ArrayList<Accessor>();
+			for (Element member : type.getEnclosedElements()) {
+				if (member.getKind() != ElementKind.METHOD || member.getModifiers().contains(Modifier.STATIC)
+						|| member.getModifiers().contains(Modifier.DEFAULT)) {
+					continue;
+				}
+				Accessor accessor = accessor((ExecutableElement)member);
+				if (accessor == null) {
+					valid = false;
+				} else {
+					accessors.add(accessor);
+				}
+			}
+			if (valid) {
+				try {
+					generate(type, binding, accessors);
+				} catch (IOException e) {
+					error(type, "Unable to generate the implementation: " + e.getMessage());
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return false when the selector is not a valid NegatablePattern.
+	 * The selectors that reference a system property are only checked at runtime.
+	 */
+	private boolean checkSelector(TypeElement type, String attribute, String selector) {
+		if (selector.length() == 0) {
+			error(type, "The " + attribute + " selector of @VCapServiceBinding must not be empty.");
+			return false;
+		}
+		if (selector.indexOf("${") != -1) {
+			return true;
+		}
+		try {
+			new NegatablePattern(selector);
+			return true;
+		} catch (PatternSyntaxException e) {
+			error(type, "Invalid " + attribute + " selector '" + selector + "': " + e.getDescription()
+					+ " near index " + e.getIndex() + ".");
+			return false;
+		}
+	}
+
+	/**
+	 * @return The accessor or null after reporting an error.
+	 */
+	private Accessor accessor(ExecutableElement method) {
+		if (!method.getParameters().isEmpty() || !method.getTypeParameters().isEmpty()) {
+			error(method, "The accessors of a @VCapServiceBinding interface take no parameters.");
+			return null;
+		}
+		Accessor res = new Accessor();
+		res._method = method.getSimpleName().toString();
+		res._returnType = method.getReturnType();
+		res._kind = kind(res._returnType);
+		if (res._kind == null) {
+			error(method, "Unsupported return type " + res._returnType + ": expected String, char[], int, long, double,"
+					+ " boolean, their wrappers, java.net.URI, IVCapService or IVCapServiceCredentials.");
+			return null;
+		}
+		CredentialsKey key = method.getAnnotation(CredentialsKey.class);
+		if (key != null) {
+			res._keys = Collections.singletonList(key.value());
+		} else {
+			res._keys = keys(propertyName(res._method));
+		}
+		return res;
+	}
+
+	/**
+	 * @return The name of the conversion method of GeneratedBindings,
+	 * the empty string for a String, the type name for the services and credentials;
+	 * null when the type is not supported.
+	 */
+	private static String kind(TypeMirror type) {
+		switch (type.getKind()) {
+		case INT:
+			return "toInt";
+		case LONG:
+			return "toLong";
+		case DOUBLE:
+			return "toDouble";
+		case BOOLEAN:
+			return "toBoolean";
+		case ARRAY:
+			return type.toString().equals("char[]") ? "toChars" : null;
+		case DECLARED:
+			String name = type.toString();
+			if (name.equals(String.class.getName())) {
+				return "";
+			} else if (name.equals("java.net.URI")) {
+				return "toURI";
+			} else if (name.equals(Integer.class.getName())) {
+				return "Integer";
+			} else if (name.equals(Long.class.getName())) {
+				return "Long";
+			} else if (name.equals(Double.class.getName())) {
+				return "Double";
+			} else if (name.equals(Boolean.class.getName())) {
+				return "Boolean";
+			} else if (name.equals(IVCapService.class.getName()) || name.equals(IVCapServiceCredentials.class.getName())) {
+				return name;
+			}
+			return null;
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * @return The name of the accessor without its 'get' or 'is' prefix.
+	 */
+	static String propertyName(String method) {
+		for (String prefix : new String[] { "get", "is" }) {
+			if (method.length() > prefix.length() && method.startsWith(prefix)
+					&& Character.isUpperCase(method.charAt(prefix.length()))) {
+				return Character.toLowerCase(method.charAt(prefix.length())) + method.substring(prefix.length() + 1);
+			}
+		}
+		return method;
+	}
+
+	/**
+	 * @return The property name followed by its snake_case and kebab-case forms.
+	 */
+	static List<String> keys(String property) {
+		StringBuilder snake = new StringBuilder();
+		for (int i = 0; i < property.length(); i++) {
+			char c = property.charAt(i);
+			if (Character.isUpperCase(c)) {
+				if (i != 0) {
+					snake.append('_');
+				}
+				snake.append(Character.toLowerCase(c));
+			} else {
+				snake.append(c);
+			}
+		}
+		LinkedHashSet<String> res = new LinkedHashSet<String>();
+		res.add(property);
+		res.add(snake.toString());
+		res.add(snake.toString().replace('_', '-'));
+		return new ArrayList<String>(res);
+	}
+
+	private void generate(TypeElement type, VCapServiceBinding binding, List<Accessor> accessors) throws IOException {
+		String pkg = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+		String simpleName = implName(type);
+		String qualifiedName = pkg.length() == 0 ? simpleName : pkg + "." + simpleName;
+		String typeSelector = binding.type();
+		String nameSelector = binding.name().length() == 0 ? null : binding.name();
+		boolean literal = isLiteral(typeSelector) && (nameSelector == null || isLiteral(nameSelector));
+		boolean resolved = typeSelector.indexOf("${") == -1 && (nameSelector == null || nameSelector.indexOf("${") == -1);
+
+		StringBuilder out = new StringBuilder();
+		if (pkg.length() != 0) {
+			out.append("package ").append(pkg).append(";\n\n");
+		}
+		out.append("/**\n * Generated by ").append(getClass().getName()).append(" from {@link ")
+				.append(type.getQualifiedName()).append("}: do not edit.\n */\n");
+		out.append("public final class ").append(simpleName).append(" implements ")
+				.append(type.getQualifiedName()).append(" {\n\n");
+		if (!literal && resolved) {
+			out.append("\tprivate static final ").append(PATTERN).append(" TYPE = ").append(PATTERN)
+					.append(".compile(").append(quote(typeSelector)).append(");\n");
+			out.append("\tprivate static final ").append(PATTERN).append(" NAME = ").append(PATTERN)
+					.append(".compile(").append(quote(nameSelector != null ? nameSelector : "/.*/")).append(");\n\n");
+		}
+		out.append("\tprivate final ").append(IVCapService.class.getName()).append(" _service;\n");
+		for (int i = 0; i < accessors.size(); i++) {
+			out.append("\tprivate final ").append(accessors.get(i)._returnType).append(" _")
+					.append(i).append(";\n");
+		}
+
+		out.append("\n\t/**\n\t * Selects the service and reads its credentials.\n")
+				.append("\t * @throws IllegalArgumentException when the service is not found or a value is invalid.\n\t */\n");
+		out.append("\tpublic ").append(simpleName).append("(").append("org.intalio.cloudfoundry.vcapservices.IVCapServices")
+				.append(" services) {\n");
+		out.append("\t\t_service = ").append(BINDINGS).append(".select(services, ");
+		if (literal) {
+			out.append(quote(typeSelector)).append(", ").append(nameSelector != null ? quote(nameSelector) : "null");
+		} else if (resolved) {
+			out.append("TYPE, NAME");
+		} else {
+			out.append(PATTERN).append(".compile(").append(quote(typeSelector)).append("), ")
+					.append(PATTERN).append(".compile(").append(quote(nameSelector != null ? nameSelector : "/.*/"))
+					.append(")");
+		}
+		out.append(");\n");
+		out.append("\t\t").append(IVCapServiceCredentials.class.getName()).append(" credentials = _service.getCredentials();\n");
+		for (int i = 0; i < accessors.size(); i++) {
+			Accessor accessor = accessors.get(i);
+			out.append("\t\t_").append(i).append(" = ").append(read(accessor)).append(";\n");
+		}
+		out.append("\t}\n");
+
+		for (int i = 0; i < accessors.size(); i++) {
+			Accessor accessor = accessors.get(i);
+			out.append("\n\tpublic ").append(accessor._returnType).append(" ").append(accessor._method)
+					.append("() {\n\t\treturn _").append(i).append(";\n\t}\n");
+		}
+		out.append("\n\tpublic String toString() {\n\t\treturn \"").append(simpleName)
+				.append("[\" + _service.getName() + \"]\";\n\t}\n");
+		out.append("}\n");
+
+		Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter();
+		try {
+			writer.write(out.toString());
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * @return The expression that reads the value of the accessor from the credentials.
+	 */
+	private static String read(Accessor accessor) {
+		if (accessor._kind.equals(IVCapService.class.getName())) {
+			return "_service";
+		} else if (accessor._kind.equals(IVCapServiceCredentials.class.getName())) {
+			return "credentials";
+		}
+		StringBuilder lookup = new StringBuilder(BINDINGS).append(".string(credentials");
+		for (String key : accessor._keys) {
+			lookup.append(", ").append(quote(key));
+		}
+		lookup.append(")");
+		if (accessor._kind.length() == 0) {
+			return lookup.toString();
+		}
+		String key = quote(accessor._keys.get(0));
+		if (accessor._kind.startsWith("to")) {
+			return BINDINGS + "." + accessor._kind + "(" + lookup + ", " + key + ")";
+		}
+		// a wrapper: null when the key is not defined.
+		String primitive = "to" + (accessor._kind.equals("Integer") ? "Int" : accessor._kind);
+		return BINDINGS + "." + primitive + "OrNull(" + lookup + ", " + key + ")";
+	}
+
+	private static String implName(TypeElement type) {
+		StringBuilder res = new StringBuilder(type.getSimpleName());
+		Element enclosing = type.getEnclosingElement();
+		while (!(enclosing instanceof PackageElement)) {
+			res.insert(0, enclosing.getSimpleName() + "_");
+			enclosing = enclosing.getEnclosingElement();
+		}
+		return res.append(SUFFIX).toString();
+	}
+
+	/**
+	 * @return true when the selector is a plain string: the generated class looks it up directly.
+	 */
+	private static boolean isLiteral(String selector) {
+		return !selector.startsWith("!") && !(selector.length() >= 2 && selector.startsWith("/") && selector.endsWith("/"))
+				&& selector.indexOf("${") == -1;
+	}
+
+	private static String quote(String value) {
+		StringBuilder res = new StringBuilder("\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				res.append("\\\"");
+				break;
+			case '\\':
+				res.append("\\\\");
+				break;
+			case '\n':
+				res.append("\\n");
+				break;
+			case '\r':
+				res.append("\\r");
+				break;
+			case '\t':
+				res.append("\\t");
+				break;
+			default:
+				if (c < ' ' || c > '~') {
+					res.append(String.format("\\u%04x", (int)c));
+				} else {
+					res.append(c);
+				}
+			}
+		}
+		return res.append('"').toString();
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+
+	private static final class Accessor {
+		String _method;
+		TypeMirror _returnType;
+		String _kind;
+		List<String> _keys;
+	}
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.processor.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.IVCapServices;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServices;
+import org.intalio.cloudfoundry.vcapservices.processor.VCapServiceBindingProcessor;
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Compiles annotated interfaces with the processor and runs the generated classes.
+ * @author hmalphettes
+ */
+public class TestVCapServiceBindingProcessor {
+
+	private static final String SERVICES = "{\"postgresql-9.1\":[{\"name\":\"orders\",\"credentials\":{"
+			+ "\"hostname\":\"db.local\",\"port\":5432,\"jdbc_url\":\"jdbc:postgresql://db.local/orders\","
+			+ "\"ssl\":true,\"uri\":\"postgres://u:p@db.local:5432/orders\",\"password\":\"s3cret\"}}],"
+			+ "\"rabbitmq-2.4\":[{\"name\":\"mq\",\"credentials\":{\"hostname\":\"mq.local\",\"api-key\":\"k\"}}]}";
+
+	private static final String ORDERS = "package com.acme;\n"
+			+ "import org.intalio.cloudfoundry.vcapservices.*;\n"
+			+ "@VCapServiceBinding(type = \"postgresql-9.1\", name = \"orders\")\n"
+			+ "public interface OrdersDatabase {\n"
+			+ "  String getHostname();\n"
+			+ "  int port();\n"
+			+ "  String jdbcUrl();\n"
+			+ "  boolean isSsl();\n"
+			+ "  java.net.URI uri();\n"
+			+ "  char[] password();\n"
+			+ "  Long missing();\n"
+			+ "  @CredentialsKey(\"hostname\") String host();\n"
+			+ "  IVCapService service();\n"
+			+ "  default String describe() { return getHostname() + ':' + port(); }\n"
+			+ "}\n";
+
+	private static final String RABBIT = "package com.acme;\n"
+			+ "import org.intalio.cloudfoundry.vcapservices.*;\n"
+			+ "public class Messaging {\n"
+			+ "  @VCapServiceBinding(type = \"/^rabbitmq.*/\")\n"
+			+ "  public interface Rabbit {\n"
+			+ "    String hostname();\n"
+			+ "    String apiKey();\n"
+			+ "    IVCapServiceCredentials credentials();\n"
+			+ "  }\n"
+			+ "}\n";
+
+	private static final Pattern TYPE_NAME = Pattern.compile("(?:class|interface) (\\w+)");
+
+	@Test
+	public void testGeneratedBinding() throws Exception {
+		Compilation compilation = compile(ORDERS, RABBIT);
+		Assert.assertTrue(compilation._errors.toString(), compilation._errors.isEmpty());
+		IVCapServices services = new VCapServices(SERVICES, false);
+
+		Object orders = compilation.newInstance("com.acme.OrdersDatabaseImpl", services);
+		Assert.assertEquals("db.local", call(orders, "getHostname"));
+		Assert.assertEquals(5432, call(orders, "port"));
+		Assert.assertEquals("jdbc:postgresql://db.local/orders", call(orders, "jdbcUrl"));
+		Assert.assertEquals(Boolean.TRUE, call(orders, "isSsl"));
+		Assert.assertEquals(new URI("postgres://u:p@db.local:5432/orders"), call(orders, "uri"));
+		Assert.assertEquals("s3cret", new String((char[])call(orders, "password")));
+		Assert.assertNull(call(orders, "missing"));
+		Assert.assertEquals("db.local", call(orders, "host"));
+		Assert.assertEquals("orders", ((IVCapService)call(orders, "service")).getName());
+		Assert.assertEquals("db.local:5432", call(orders, "describe"));
+
+		Object rabbit = compilation.newInstance("com.acme.Messaging_RabbitImpl", services);
+		Assert.assertEquals("mq.local", call(rabbit, "hostname"));
+		Assert.assertEquals("k", call(rabbit, "apiKey"));
+
+		String generated = compilation.source("com/acme/Messaging_RabbitImpl.java");
+		Assert.assertTrue(generated, generated.contains("private static final org.intalio.cloudfoundry.vcapservices.NegatablePattern TYPE"));
+		Assert.assertFalse(generated, generated.contains("java.lang.reflect"));
+	}
+
+	@Test
+	public void testServiceNotFound() throws Exception {
+		Compilation compilation = compile(ORDERS);
+		try {
+			compilation.newInstance("com.acme.OrdersDatabaseImpl", new VCapServices("{}", false));
+			Assert.fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			Assert.assertTrue(e.getMessage(), e.getMessage().contains("service-name=orders"));
+		}
+	}
+
+	@Test
+	public void testCompileErrors() throws Exception {
+		Compilation compilation = compile("package com.acme;\n"
+				+ "import org.intalio.cloudfoundry.vcapservices.*;\n"
+				+ "@VCapServiceBinding(type = \"/^mysql(-5/\")\n"
+				+ "interface Typo { String hostname(); }\n",
+				"package com.acme;\n"
+				+ "import org.intalio.cloudfoundry.vcapservices.*;\n"
+				+ "@VCapServiceBinding(type = \"mysql\")\n"
+				+ "interface Bad { String hostname(String key); java.util.Date created(); }\n",
+				"package com.acme;\n"
+				+ "import org.intalio.cloudfoundry.vcapservices.*;\n"
+				+ "@VCapServiceBinding(type = \"mysql\")\n"
+				+ "class NotAnInterface { }\n");
+		String errors = compilation._errors.toString();
+		Assert.assertEquals(errors, 4, compilation._errors.size());
+		Assert.assertTrue(errors, errors.contains("Invalid type selector '/^mysql(-5/'"));
+		Assert.assertTrue(errors, errors.contains("take no parameters"));
+		Assert.assertTrue(errors, errors.contains("Unsupported return type java.util.Date"));
+		Assert.assertTrue(errors, errors.contains("must annotate an interface"));
+	}
+
+	private static Object call(Object target, String method) throws Exception {
+		for (Class<?> itf : target.getClass().getInterfaces()) {
+			try {
+				return itf.getMethod(method).invoke(target);
+			} catch (NoSuchMethodException e) {
+				// try the next interface.
+			}
+		}
+		throw new NoSuchMethodException(method);
+	}
+
+	private static Compilation compile(String... sources) throws IOException {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		StandardJavaFileManager files = compiler.getStandardFileManager(diagnostics, Locale.ROOT, Charset.forName("UTF-8"));
+		File out = File.createTempFile("vcapservices-processor", "");
+		out.delete();
+		out.mkdirs();
+		files.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singleton(out));
+		files.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singleton(out));
+		files.setLocation(StandardLocation.CLASS_PATH, Arrays.asList(location(IVCapServices.class), location(JSONObject.class)));
+		List<JavaFileObject> units = new ArrayList<JavaFileObject>();
+		for (String source : sources) {
+			String pkg = source.substring("package ".length(), source.indexOf(';'));
+			Matcher name = TYPE_NAME.matcher(source);
+			name.find();
+			units.add(new Source(pkg.replace('.', '/') + "/" + name.group(1) + ".java", source));
+		}
+		JavaCompiler.CompilationTask task = compiler.getTask(new StringWriter(), files, diagnostics,
+				null, null, units);
+		task.setProcessors(Collections.singleton(new VCapServiceBindingProcessor()));
+		task.call();
+		files.close();
+		Compilation res = new Compilation();
+		res._out = out;
+		for (Diagnostic<? extends JavaFileObject> d : diagnostics.getDiagnostics()) {
+			if (d.getKind() == Diagnostic.Kind.ERROR) {
+				res._errors.add(d.getMessage(Locale.ROOT));
+			}
+		}
+		return res;
+	}
+
+	private static File location(Class<?> type) {
+		try {
+			return new File(type.getProtectionDomain().getCodeSource().getLocation().toURI());
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static class Source extends SimpleJavaFileObject {
+		private final String _source;
+		Source(String path, String source) {
+			super(URI.create("string:///" + path), JavaFileObject.Kind.SOURCE);
+			_source = source;
+		}
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return _source;
+		}
+	}
+
+	private static class Compilation {
+		File _out;
+		List<String> _errors = new ArrayList<String>();
+
+		Object newInstance(String className, IVCapServices services) throws Exception {
+			ClassLoader loader = new URLClassLoader(new URL[] { _out.toURI().toURL() },
+					TestVCapServiceBindingProcessor.class.getClassLoader());
+			try {
+				return loader.loadClass(className).getConstructor(IVCapServices.class).newInstance(services);
+			} catch (java.lang.reflect.InvocationTargetException e) {
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException)e.getCause();
+				}
+				throw e;
+			}
+		}
+
+		String source(String path) throws IOException {
+			return new String(java.nio.file.Files.readAllBytes(new File(_out, path).toPath()), "UTF-8");
+		}
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices;
+
+/**
+ * The arguments of one getConnectionAsURI call for a bulk resolution.
+ * @author hmalphettes
+ */
+public final class ConnectionRequest {
+
+	private final String _defaultURIOrSysPropertyForIt;
+	private final String _scheme;
+	private final String _serviceTypeRegexpOrString;
+	private final String _nameOfServiceSelector;
+
+	/**
+	 * @param defaultURIOrSysPropertyForIt Value of the URI to use if
+	 *    VCAP_SERVICES is not present. Or sys property for this default value.
+	 * @param scheme The scheme of the URI; null to only select the credentials.
+	 * @param serviceTypeRegexpOrString name of the service type. Or regexp to select it.
+	 * @param nameOfServiceSelector Name of the service or regexp to select it;
+	 * or null to get the first one.
+	 */
+	public ConnectionRequest(String defaultURIOrSysPropertyForIt, String scheme,
+			String serviceTypeRegexpOrString, String nameOfServiceSelector) {
+		if (serviceTypeRegexpOrString == null) {
+			throw new IllegalArgumentException("The service type selector is required.");
+		}
+		_defaultURIOrSysPropertyForIt = defaultURIOrSysPropertyForIt;
+		_scheme = scheme;
+		_serviceTypeRegexpOrString = serviceTypeRegexpOrString;
+		_nameOfServiceSelector = nameOfServiceSelector;
+	}
+
+	/**
+	 * @param serviceTypeRegexpOrString
+	 * @param nameOfServiceSelector
+	 * @return A request for the credentials of a service only.
+	 */
+	public static ConnectionRequest credentials(String serviceTypeRegexpOrString, String nameOfServiceSelector) {
+		return new ConnectionRequest(null, null, serviceTypeRegexpOrString, nameOfServiceSelector);
+	}
+
+	public String getDefaultURIOrSysPropertyForIt() {
+		return _defaultURIOrSysPropertyForIt;
+	}
+
+	/**
+	 * @return The scheme of the URI or null when only the credentials are requested.
+	 */
+	public String getScheme() {
+		return _scheme;
+	}
+
+	public String getServiceTypeRegexpOrString() {
+		return _serviceTypeRegexpOrString;
+	}
+
+	/**
+	 * @return The name selector or null for the first service of the type.
+	 */
+	public String getNameOfServiceSelector() {
+		return _nameOfServiceSelector;
+	}
+
+	public String toString() {
+		return "(service-type=" + _serviceTypeRegexpOrString
+				+ (_nameOfServiceSelector != null ? "; service-name=" + _nameOfServiceSelector : "")
+				+ (_scheme != null ? "; scheme=" + _scheme : "") + ")";
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The services, credentials and URIs of a bulk resolution of {@link ConnectionRequest}s
+ * in the order of the requests; and the report of the requests that were not resolved.
+ * @author hmalphettes
+ */
+public final class ConnectionResolution {
+
+	private final List<ConnectionRequest> _requests;
+	private final IVCapService[] _services;
+	private final URI[] _uris;
+	private final Exception[] _errors;
+
+	/**
+	 * @param requests
+	 * @param services The selected service of each request or null.
+	 * @param uris The URI of each request or null.
+	 * @param errors The error that getConnectionAsURI would throw for each request or null.
+	 */
+	public ConnectionResolution(List<ConnectionRequest> requests, IVCapService[] services,
+			URI[] uris, Exception[] errors) {
+		_requests = Collections.unmodifiableList(new ArrayList<ConnectionRequest>(requests));
+		_services = services;
+		_uris = uris;
+		_errors = errors;
+	}
+
+	public List<ConnectionRequest> getRequests() {
+		return _requests;
+	}
+
+	/**
+	 * @param index The index of the request.
+	 * @return The selected service or null when there is none or VCAP_SERVICES is not defined.
+	 */
+	public IVCapService getService(int index) {
+		return _services[index];
+	}
+
+	/**
+	 * @param index The index of the request.
+	 * @return The credentials of the selected service or null.
+	 */
+	public IVCapServiceCredentials getCredentials(int index) {
+		IVCapService service = _services[index];
+		return service != null ? service.getCredentials() : null;
+	}
+
+	/**
+	 * @param index The index of the request.
+	 * @return The URI or null when the request has no scheme or it failed.
+	 */
+	public URI getURI(int index) {
+		return _uris[index];
+	}
+
+	/**
+	 * @param index The index of the request.
+	 * @return The error or null.
+	 */
+	public Exception getError(int index) {
+		return _errors[index];
+	}
+
+	/**
+	 * @return The requests that failed: no service matched their selectors,
+	 * their default URI is not defined or their URI is invalid.
+	 */
+	public List<ConnectionRequest> getUnmatched() {
+		ArrayList<ConnectionRequest> res = new ArrayList<ConnectionRequest>();
+		for (int i = 0; i < _errors.length; i++) {
+			if (_errors[i] != null) {
+				res.add(_requests.get(i));
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return true when all the requests were resolved.
+	 */
+	public boolean isComplete() {
+		for (Exception error : _errors) {
+			if (error != null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The report of the requests that failed.
+	 */
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(_requests.size() - getUnmatched().size()).append('/').append(_requests.size())
+			.append(" resolved");
+		for (int i = 0; i < _errors.length; i++) {
+			if (_errors[i] != null) {
+				sb.append("\n  ").append(_requests.get(i)).append(": ").append(_errors[i].getMessage());
+			}
+		}
+		return sb.toString();
+	}
+}
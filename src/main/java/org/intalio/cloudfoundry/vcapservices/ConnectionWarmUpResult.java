@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of warming up the connections of a set of services.
+ * @author hmalphettes
+ */
+public final class ConnectionWarmUpResult {
+
+	/**
+	 * The outcome for one service.
+	 */
+	public static final class ServiceResult {
+
+		private final IVCapService _service;
+		private final int _requested;
+		private final int _opened;
+		private final int _failed;
+		private final long _elapsedNanos;
+		private final Throwable _error;
+
+		/**
+		 * @param service
+		 * @param requested The number of connections to open.
+		 * @param opened The number of connections opened.
+		 * @param failed The number of connections that failed.
+		 * @param elapsedNanos The time from the start of the warm-up until the last
+		 * connection was opened or failed; or until the deadline.
+		 * @param error The first error or null.
+		 */
+		public ServiceResult(IVCapService service, int requested, int opened, int failed,
+				long elapsedNanos, Throwable error) {
+			_service = service;
+			_requested = requested;
+			_opened = opened;
+			_failed = failed;
+			_elapsedNanos = elapsedNanos;
+			_error = error;
+		}
+
+		public IVCapService getService() {
+			return _service;
+		}
+
+		/**
+		 * @return The number of connections to open.
+		 */
+		public int getRequested() {
+			return _requested;
+		}
+
+		/**
+		 * @return The number of connections opened.
+		 */
+		public int getOpened() {
+			return _opened;
+		}
+
+		/**
+		 * @return The number of connections that failed.
+		 */
+		public int getFailed() {
+			return _failed;
+		}
+
+		/**
+		 * @return The number of connections that were still opening at the deadline.
+		 */
+		public int getTimedOut() {
+			return _requested - _opened - _failed;
+		}
+
+		/**
+		 * @return true when all the connections were opened.
+		 */
+		public boolean isSuccessful() {
+			return _opened == _requested;
+		}
+
+		/**
+		 * @return The time it took to warm up the connections of the service.
+		 */
+		public long getElapsed(TimeUnit unit) {
+			return unit.convert(_elapsedNanos, TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * @return The first error or null.
+		 */
+		public Throwable getError() {
+			return _error;
+		}
+
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(_service).append(": ").append(_opened).append('/').append(_requested)
+				.append(" opened in ").append(getElapsed(TimeUnit.MILLISECONDS)).append("ms");
+			if (_failed != 0) {
+				sb.append(", ").append(_failed).append(" failed");
+			}
+			if (getTimedOut() != 0) {
+				sb.append(", ").append(getTimedOut()).append(" timed out");
+			}
+			if (_error != null) {
+				sb.append(" (").append(_error).append(')');
+			}
+			return sb.toString();
+		}
+	}
+
+	private final List<ServiceResult> _services;
+	private final long _elapsedNanos;
+
+	/**
+	 * @param services The outcome for each service.
+	 * @param elapsedNanos The duration of the warm-up.
+	 */
+	public ConnectionWarmUpResult(List<ServiceResult> services, long elapsedNanos) {
+		_services = Collections.unmodifiableList(services);
+		_elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * @return The outcome for each service in the order of the selectors.
+	 */
+	public List<ServiceResult> getServices() {
+		return _services;
+	}
+
+	/**
+	 * @return The duration of the warm-up.
+	 */
+	public long getElapsed(TimeUnit unit) {
+		return unit.convert(_elapsedNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return true when all the connections of all the services were opened.
+	 */
+	public boolean isSuccessful() {
+		for (ServiceResult service : _services) {
+			if (!service.isSuccessful()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param threshold
+	 * @param unit
+	 * @return The services that took longer than the threshold or did not finish
+	 * before the deadline; the slowest first.
+	 */
+	public List<ServiceResult> getSlowServices(long threshold, TimeUnit unit) {
+		long thresholdNanos = unit.toNanos(threshold);
+		ArrayList<ServiceResult> res = new ArrayList<ServiceResult>();
+		for (ServiceResult service : _services) {
+			if (service._elapsedNanos > thresholdNanos || service.getTimedOut() != 0) {
+				res.add(service);
+			}
+		}
+		Collections.sort(res, new Comparator<ServiceResult>() {
+			public int compare(ServiceResult a, ServiceResult b) {
+				return a._elapsedNanos < b._elapsedNanos ? 1 : a._elapsedNanos == b._elapsedNanos ? 0 : -1;
+			}
+		});
+		return res;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Connections warmed up in ").append(getElapsed(TimeUnit.MILLISECONDS)).append("ms");
+		for (ServiceResult service : _services) {
+			sb.append("\n  ").append(service);
+		}
+		return sb.toString();
+	}
+}
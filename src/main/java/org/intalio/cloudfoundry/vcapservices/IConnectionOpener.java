@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Opens and validates one connection to a service.
+ * <p>
+ * Used to warm up the connections of the services at startup.
+ * For example an implementation borrows a connection from the pool of a
+ * data-source: closing it returns it to the pool which keeps it open.
+ * </p>
+ * @author hmalphettes
+ */
+public interface IConnectionOpener {
+
+	/**
+	 * @param service The service to connect to.
+	 * @param timeoutMillis The time left to open and validate the connection.
+	 * @return The open connection. It is closed once the warm-up is over.
+	 * @throws IOException when the connection could not be opened or is not valid.
+	 * @throws InterruptedException when the warm-up is cancelled.
+	 */
+	public Closeable open(IVCapService service, int timeoutMillis) throws IOException, InterruptedException;
+
+}
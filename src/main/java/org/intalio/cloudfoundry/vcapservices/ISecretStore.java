@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Fetches the credentials the bindings refer to instead of carrying them inline.
+ * For example: <code>"credentials":{"credhub-ref":"/c/my-broker/my-db/42/credentials"}</code>
+ * <p>
+ * A store fetches several references in one request.
+ * </p>
+ * @author hmalphettes
+ */
+public interface ISecretStore {
+
+	/**
+	 * @return The key of the credentials that holds a reference to this store.
+	 * For example credhub-ref.
+	 */
+	public String getReferenceKey();
+
+	/**
+	 * @param references Distinct references.
+	 * @return The credentials indexed by reference. The references that are not found are missing.
+	 * @throws IOException when the store cannot be reached.
+	 */
+	public Map<String, IVCapServiceCredentials> fetch(Collection<String> references) throws IOException;
+
+}
@@ -23,6 +23,8 @@
  */
 package org.intalio.cloudfoundry.vcapservices;
 
+import java.util.List;
+
 /**
  * Credentials to connect to a data service. As modeled in VCAP_SERVICES.
  * 
@@ -66,4 +68,16 @@ public interface IVCapServiceCredentials {
 	 */
 	public String getDb();
 	
+	/**
+	 * @param key Any key sent by the broker. For example uri, jdbcUrl or vhost.
+	 * @return The value as a string with the ${key,default} substituted when enabled:
+	 * the JSON text for a nested object or array; null when not defined.
+	 */
+	public String getString(String key);
+	
+	/**
+	 * @return The keys in the order they are defined.
+	 */
+	public List<String> getKeys();
+	
 }
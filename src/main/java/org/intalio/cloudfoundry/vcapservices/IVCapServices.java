@@ -23,8 +23,8 @@
  */
 package org.intalio.cloudfoundry.vcapservices;
 
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 /**
@@ -41,6 +41,10 @@ import java.util.regex.Pattern;
  * This helper class parses JSON and provides the value of those connection
  * parameters.
  * </p>
+ * <p>
+ * The returned maps and lists are unmodifiable and the services are immutable:
+ * they can be shared by concurrent readers without locking or copying.
+ * </p>
  * @author hmalphettes
  */
 public interface IVCapServices {
@@ -50,15 +54,15 @@ public interface IVCapServices {
 	 * VCAP_SERVICES.
 	 * VCAP_SERVICES are an ordered bag of vcap services where the index is the service type
 	 * (for example mongodb-1.8).
-	 * @return
+	 * @return An unmodifiable map of unmodifiable lists.
 	 */
-	public LinkedHashMap<String,ArrayList<IVCapService>> getVCapServices();
+	public Map<String,List<IVCapService>> getVCapServices();
 	
 	/**
 	 * @param serviceType
 	 * @return The services of a given type.
 	 */
-	public ArrayList<IVCapService> getVCapServicesByType(String serviceType);
+	public List<IVCapService> getVCapServicesByType(String serviceType);
 	
 	/**
 	 * Helper method: traverses the vcap services and
@@ -81,11 +85,62 @@ public interface IVCapServices {
 	 */
 	public IVCapService getVCapService(Pattern serviceType, int index);
 	
+	/**
+	 * @param label
+	 * @return The services with this label.
+	 */
+	public List<IVCapService> getVCapServicesByLabel(String label);
+	
+	/**
+	 * @param plan
+	 * @return The services with this plan.
+	 */
+	public List<IVCapService> getVCapServicesByPlan(String plan);
+	
+	/**
+	 * @param tag
+	 * @return The services tagged with this tag.
+	 */
+	public List<IVCapService> getVCapServicesByTag(String tag);
+	
 	/**
 	 * @param serviceTypeFilter regexp filter
 	 * @param serviceNameFilter regexp filter
 	 * @return
 	 */
-	public ArrayList<IVCapService> getVCapServices(NegatablePattern serviceTypeFilter, NegatablePattern serviceNameFilter);
+	public List<IVCapService> getVCapServices(NegatablePattern serviceTypeFilter, NegatablePattern serviceNameFilter);
+	
+	/**
+	 * For example all the services tagged relational and postgres but not readonly:
+	 * <code>getVCapServices(new TagSelector("relational,postgres,!readonly"))</code>
+	 * @param selector The tags and plans of the services.
+	 * @return The selected services in the order they are defined.
+	 */
+	public List<IVCapService> getVCapServices(TagSelector selector);
+	
+	/**
+	 * The product and version are read from the service type, for example postgresql-9.1;
+	 * or from the label when the service type has no version. See {@link ServiceVersion}.
+	 * @param product For example postgresql.
+	 * @return The services of this product, the newest version first.
+	 */
+	public List<IVCapService> getVCapServicesByProduct(String product);
+	
+	/**
+	 * For example the newest postgresql at least 9.0:
+	 * <code>getNewestVCapService("postgresql", "9.0")</code>
+	 * @param product
+	 * @param minVersion The oldest version accepted or null for any version.
+	 * @return The first service of the newest version of the product or null.
+	 */
+	public IVCapService getNewestVCapService(String product, String minVersion);
+	
+	/**
+	 * For example all the mysql 5.x: <code>getVCapServicesByVersion("mysql", "5.x")</code>
+	 * @param product
+	 * @param version The version or the first components of the version.
+	 * @return The services of the product with this version, the newest first.
+	 */
+	public List<IVCapService> getVCapServicesByVersion(String product, String version);
 	
 }
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices;
+
+import java.io.IOException;
+
+/**
+ * A layer of services formatted like VCAP_SERVICES.
+ * For example the environment of the platform, a file of local overrides
+ * or a string built by the application.
+ * @author hmalphettes
+ */
+public interface IVCapServicesSource {
+
+	/**
+	 * @return The services formatted like VCAP_SERVICES
+	 * or null when this source does not define any.
+	 * @throws IOException
+	 */
+	public String getServices() throws IOException;
+
+	/**
+	 * @return true when the values that follow the pattern
+	 * ${sys_prop_key,_default_value} should be substituted.
+	 */
+	public boolean isResolveSysProperty();
+
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * Lock-free histogram of durations with a fixed memory footprint.
+ * <p>
+ * The durations in nanoseconds are counted in log-linear buckets:
+ * 4 buckets per power of 2. A percentile is answered with the upper bound
+ * of its bucket: within 25% of the actual value.
+ * The count, the sum and the maximum are striped: the threads that record
+ * at the same time do not contend on a single word.
+ * </p>
+ * @author hmalphettes
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKETS = 4;
+	private static final int BUCKETS = 64 * SUB_BUCKETS;
+	private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+		public long applyAsLong(long left, long right) {
+			return Math.max(left, right);
+		}
+	};
+
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder _count = new LongAdder();
+	private final LongAdder _sum = new LongAdder();
+	private final LongAccumulator _max = new LongAccumulator(MAX, 0);
+
+	/**
+	 * @param nanos A duration. Negative durations are counted as 0.
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		_counts.incrementAndGet(bucket(nanos));
+		_count.increment();
+		_sum.add(nanos);
+		_max.accumulate(nanos);
+	}
+
+	/**
+	 * @param duration
+	 * @param unit
+	 */
+	public void record(long duration, TimeUnit unit) {
+		record(unit.toNanos(duration));
+	}
+
+	/**
+	 * @return The number of recorded durations.
+	 */
+	public long getCount() {
+		return _count.sum();
+	}
+
+	/**
+	 * @return The longest recorded duration or 0.
+	 */
+	public long getMax(TimeUnit unit) {
+		return unit.convert(_max.get(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return The mean of the recorded durations or 0.
+	 */
+	public long getMean(TimeUnit unit) {
+		long count = _count.sum();
+		return count == 0 ? 0 : unit.convert(_sum.sum() / count, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @param percentile Between 0 and 100. For example 99.9
+	 * @param unit
+	 * @return The duration under which this percentage of the durations were recorded;
+	 * 0 when nothing was recorded.
+	 */
+	public long getPercentile(double percentile, TimeUnit unit) {
+		long count = _count.sum();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long)Math.ceil(count * Math.min(100, Math.max(0, percentile)) / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += _counts.get(i);
+			if (seen >= rank) {
+				return unit.convert(Math.min(upperBound(i), _max.get()), TimeUnit.NANOSECONDS);
+			}
+		}
+		return getMax(unit);
+	}
+
+	/**
+	 * Forgets the recorded durations.
+	 * Not atomic with respect to the concurrent calls to {@link #record(long)}.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			_counts.set(i, 0);
+		}
+		_count.reset();
+		_sum.reset();
+		_max.reset();
+	}
+
+	static int bucket(long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int)nanos;
+		}
+		int exp = 63 - Long.numberOfLeadingZeros(nanos);
+		int sub = (int)(nanos >>> (exp - 2)) & (SUB_BUCKETS - 1);
+		return (exp - 1) * SUB_BUCKETS + sub;
+	}
+
+	static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exp = bucket / SUB_BUCKETS + 1;
+		int sub = bucket % SUB_BUCKETS;
+		long lower = (long)(SUB_BUCKETS + sub) << (exp - 2);
+		return lower + (1L << (exp - 2)) - 1;
+	}
+
+	public String toString() {
+		return "count=" + getCount()
+				+ " mean=" + getMean(TimeUnit.MICROSECONDS) + "us"
+				+ " p50=" + getPercentile(50, TimeUnit.MICROSECONDS) + "us"
+				+ " p99=" + getPercentile(99, TimeUnit.MICROSECONDS) + "us"
+				+ " max=" + getMax(TimeUnit.MICROSECONDS) + "us";
+	}
+}
@@ -23,7 +23,7 @@
  */
 package org.intalio.cloudfoundry.vcapservices;
 
-import java.util.regex.Matcher;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import org.intalio.cloudfoundry.vcapservices.impl.VCapService;
@@ -31,30 +31,63 @@ import org.intalio.cloudfoundry.vcapservices.impl.VCapService;
 /**
  * Simple wrapper class for a regexp pattern to keep track of 
  * whether we want a match or a mismatch
+ * <p>
+ * Literal strings and regexps that are a literal, a literal prefix
+ * (<code>^abc.*</code>) or a literal suffix (<code>.*abc$</code>) are matched
+ * with equals, startsWith and endsWith: no Matcher is allocated.
+ * </p>
  */
 public class NegatablePattern {
 	
-	private final Pattern _pattern;
+	/**
+	 * How the input strings are matched.
+	 */
+	public enum MatchKind {
+		/** equal to the literal */
+		EQUALS,
+		/** starts with the literal */
+		PREFIX,
+		/** ends with the literal */
+		SUFFIX,
+		/** matches the regexp */
+		REGEX
+	}
+	
+	/** The cache is cleared when it grows beyond this size. */
+	private static final int MAX_CACHED_PATTERNS = 512;
+	
+	private static final ConcurrentHashMap<String, NegatablePattern> CACHE =
+			new ConcurrentHashMap<String, NegatablePattern>();
+	
+	private static final String METACHARS = "\\^$.|?*+()[]{}";
+	
+	private final String _regex;
+	private final int _flags;
 	private final boolean _isNegated;
+	private final MatchKind _kind;
+	/** The literal for the EQUALS, PREFIX and SUFFIX match kinds. */
+	private final String _literal;
+	/** Compiled on demand for the literal match kinds. */
+	private volatile Pattern _pattern;
 
 	/**
+	 * Same as the constructor; the patterns are cached by their selector string
+	 * once the system properties are resolved.
 	 * @param stringOrRegexpStr If it starts and ends with '/' then makes this string into a Regexp Pattern;
 	 * Other wrap it into a regexp for an exact match. If it starts with '!' make it a negated pattern.
-	 * @return
+	 * @return The cached or new pattern.
 	 */
-	private static NegatablePattern asRegexp(String stringOrRegexpStr) {
-		stringOrRegexpStr = VCapService.resolvePropertyValue(stringOrRegexpStr);
-		boolean isNegated = false;
-		if (stringOrRegexpStr.startsWith("!")) {
-			isNegated = true;
-			stringOrRegexpStr = stringOrRegexpStr.substring(1);
-		}
-		if (stringOrRegexpStr.startsWith("/") && stringOrRegexpStr.endsWith("/")) {
-			String regex = stringOrRegexpStr.substring(1, stringOrRegexpStr.length() -1);
-			return new NegatablePattern(Pattern.compile(regex), isNegated);
-		} else {
-			return new NegatablePattern(Pattern.compile(Pattern.quote(stringOrRegexpStr)), isNegated);
+	public static NegatablePattern compile(String stringOrRegexpStr) {
+		String resolved = VCapService.resolvePropertyValue(stringOrRegexpStr);
+		NegatablePattern pattern = CACHE.get(resolved);
+		if (pattern == null) {
+			pattern = new NegatablePattern(resolved, true);
+			if (CACHE.size() >= MAX_CACHED_PATTERNS) {
+				CACHE.clear();
+			}
+			CACHE.put(resolved, pattern);
 		}
+		return pattern;
 	}
 
 	/**
@@ -65,33 +98,170 @@ public class NegatablePattern {
 	 * @param stringOrRegexpStr
 	 */
 	public NegatablePattern(String stringOrRegexpStr) {
-		stringOrRegexpStr = VCapService.resolvePropertyValue(stringOrRegexpStr);
+		this(VCapService.resolvePropertyValue(stringOrRegexpStr), true);
+	}
+	
+	/**
+	 * @param stringOrRegexpStr The selector once the system properties are resolved:
+	 * a value that contains ${KEY,default} is not resolved again.
+	 * @param resolved
+	 */
+	private NegatablePattern(String stringOrRegexpStr, boolean resolved) {
 		if (stringOrRegexpStr.startsWith("!")) {
 			_isNegated = true;
 			stringOrRegexpStr = stringOrRegexpStr.substring(1);
 		} else {
 			_isNegated = false;
 		}
-		if (stringOrRegexpStr.startsWith("/") && stringOrRegexpStr.endsWith("/")) {
-			String regex = stringOrRegexpStr.substring(1, stringOrRegexpStr.length() -1);
-			_pattern = Pattern.compile(regex);
+		_flags = 0;
+		if (stringOrRegexpStr.length() >= 2 && stringOrRegexpStr.startsWith("/") && stringOrRegexpStr.endsWith("/")) {
+			_regex = stringOrRegexpStr.substring(1, stringOrRegexpStr.length() -1);
+			String[] literal = new String[1];
+			_kind = analyze(_regex, literal);
+			_literal = literal[0];
+			if (_kind == MatchKind.REGEX) {
+				_pattern = Pattern.compile(_regex);
+			}
 		} else {
-			_pattern = Pattern.compile(Pattern.quote(stringOrRegexpStr));
+			_regex = Pattern.quote(stringOrRegexpStr);
+			_kind = MatchKind.EQUALS;
+			_literal = stringOrRegexpStr;
 		}
 	}
 	
 	public NegatablePattern(Pattern pattern, boolean isNegated) {
 		_pattern = pattern;
+		_regex = pattern.pattern();
+		_flags = pattern.flags();
 		_isNegated = isNegated;
+		if (_flags == 0) {
+			String[] literal = new String[1];
+			_kind = analyze(_regex, literal);
+			_literal = literal[0];
+		} else {
+			_kind = MatchKind.REGEX;
+			_literal = null;
+		}
+	}
+	
+	/**
+	 * @param regex
+	 * @param literal Receives the literal unless the regexp is not a simple literal, prefix or suffix.
+	 * @return The match kind.
+	 */
+	private static MatchKind analyze(String regex, String[] literal) {
+		if (regex.startsWith("\\Q") && regex.endsWith("\\E") && regex.length() >= 4) {
+			String text = regex.substring(2, regex.length() - 2);
+			if (text.indexOf("\\E") != -1) {
+				return MatchKind.REGEX;
+			}
+			literal[0] = text;
+			return MatchKind.EQUALS;
+		}
+		int start = regex.startsWith("^") ? 1 : 0;
+		int end = regex.endsWith("$") && !regex.endsWith("\\$") ? regex.length() - 1 : regex.length();
+		if (end < start) {
+			return MatchKind.REGEX;
+		}
+		MatchKind kind = MatchKind.EQUALS;
+		if (end - start >= 2 && regex.startsWith(".*", end - 2)) {
+			kind = MatchKind.PREFIX;
+			end -= 2;
+		} else if (end - start >= 2 && regex.startsWith(".*", start)) {
+			kind = MatchKind.SUFFIX;
+			start += 2;
+		}
+		for (int i = start; i < end; i++) {
+			if (METACHARS.indexOf(regex.charAt(i)) != -1) {
+				return MatchKind.REGEX;
+			}
+		}
+		literal[0] = regex.substring(start, end);
+		return kind;
+	}
+	
+	/**
+	 * @return The regular expression.
+	 */
+	public Pattern getPattern() {
+		Pattern pattern = _pattern;
+		if (pattern == null) {
+			pattern = Pattern.compile(_regex, _flags);
+			_pattern = pattern;
+		}
+		return pattern;
+	}
+	
+	/**
+	 * @return How the input strings are matched.
+	 */
+	public MatchKind getMatchKind() {
+		return _kind;
+	}
+	
+	/**
+	 * @return The literal matched by the EQUALS, PREFIX and SUFFIX match kinds; null for a REGEX.
+	 */
+	public String getLiteral() {
+		return _literal;
+	}
+	
+	/**
+	 * @return true when the pattern selects the strings that do not match the regular expression.
+	 */
+	public boolean isNegated() {
+		return _isNegated;
 	}
 	
 	public boolean matches(String input) {
-		Matcher m = _pattern.matcher(input);
-		if (m.matches()) return !_isNegated;
-		else return _isNegated;
+		boolean matches;
+		switch (_kind) {
+		case EQUALS:
+			matches = _literal.equals(input);
+			break;
+		case PREFIX:
+			matches = input.startsWith(_literal) && isSingleLine(input, _literal.length(), input.length());
+			break;
+		case SUFFIX:
+			matches = input.endsWith(_literal) && isSingleLine(input, 0, input.length() - _literal.length());
+			break;
+		default:
+			matches = getPattern().matcher(input).matches();
+		}
+		return matches != _isNegated;
+	}
+	
+	/**
+	 * @return true when '.*' matches this region: it does not contain a line terminator.
+	 */
+	private static boolean isSingleLine(String input, int start, int end) {
+		for (int i = start; i < end; i++) {
+			char c = input.charAt(i);
+			if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	public int hashCode() {
+		return _regex.hashCode() * 31 + _flags * 2 + (_isNegated ? 1 : 0);
+	}
+	
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof NegatablePattern)) {
+			return false;
+		}
+		NegatablePattern other = (NegatablePattern)obj;
+		return _isNegated == other._isNegated
+				&& _flags == other._flags
+				&& _regex.equals(other._regex);
 	}
 	
 	public String toString() {
-		return "/" + _pattern.toString() + (_isNegated ? "/ negated" : "/");
+		return "/" + _regex + (_isNegated ? "/ negated" : "/");
 	}
 }
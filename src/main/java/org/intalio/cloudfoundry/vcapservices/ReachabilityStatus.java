@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of the latest reachability probes of a service.
+ * @author hmalphettes
+ */
+public final class ReachabilityStatus {
+
+	private final IVCapService _service;
+	private final boolean _up;
+	private final long _latencyNanos;
+	private final long _probedAt;
+	private final String _error;
+	private final int _consecutiveFailures;
+	private final LatencyHistogram _latencies;
+
+	/**
+	 * @param service
+	 * @param up true when the last connect succeeded.
+	 * @param latencyNanos The duration of the last successful connect.
+	 * @param probedAt The time of the last probe in milliseconds since the epoch.
+	 * @param error Why the last probe failed or null.
+	 * @param consecutiveFailures The number of probes that failed in a row.
+	 * @param latencies The durations of the successful connects.
+	 */
+	public ReachabilityStatus(IVCapService service, boolean up, long latencyNanos, long probedAt,
+			String error, int consecutiveFailures, LatencyHistogram latencies) {
+		_service = service;
+		_up = up;
+		_latencyNanos = latencyNanos;
+		_probedAt = probedAt;
+		_error = error;
+		_consecutiveFailures = consecutiveFailures;
+		_latencies = latencies;
+	}
+
+	public IVCapService getService() {
+		return _service;
+	}
+
+	/**
+	 * @return true when the last connect succeeded.
+	 */
+	public boolean isUp() {
+		return _up;
+	}
+
+	/**
+	 * @return The duration of the last successful connect.
+	 */
+	public long getLatency(TimeUnit unit) {
+		return unit.convert(_latencyNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return The time of the last probe in milliseconds since the epoch.
+	 */
+	public long getProbedAt() {
+		return _probedAt;
+	}
+
+	/**
+	 * @return Why the last probe failed or null.
+	 */
+	public String getError() {
+		return _error;
+	}
+
+	/**
+	 * @return The number of probes that failed in a row.
+	 */
+	public int getConsecutiveFailures() {
+		return _consecutiveFailures;
+	}
+
+	/**
+	 * @return The durations of all the successful connects. Updated by the next probes.
+	 */
+	public LatencyHistogram getLatencies() {
+		return _latencies;
+	}
+
+	public String toString() {
+		return _service + (_up ? " up " + getLatency(TimeUnit.MICROSECONDS) + "us"
+				: " down (" + _error + ")") + "; " + _latencies;
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices;
+
+/**
+ * The product and version encoded in a service type or a label such as
+ * postgresql-9.1 or mongodb-1.8. The versions compare numerically component
+ * by component; a missing component is 0: 9 equals 9.0 and 9.10 is newer than 9.9.
+ * @author hmalphettes
+ */
+public final class ServiceVersion implements Comparable<ServiceVersion> {
+
+	private static final int[] NO_COMPONENTS = new int[0];
+
+	private final String _product;
+	private final int[] _components;
+
+	private ServiceVersion(String product, int[] components) {
+		_product = product;
+		_components = components;
+	}
+
+	/**
+	 * @param version For example 9.1, 5, 5.x or 5.*: the trailing wildcards are dropped.
+	 * @return The version without a product.
+	 * @throws IllegalArgumentException when it is not a version.
+	 */
+	public static ServiceVersion parse(String version) {
+		int end = version.length();
+		while (end > 0 && (version.charAt(end - 1) == 'x' || version.charAt(end - 1) == '*')) {
+			end--;
+			if (end > 0 && version.charAt(end - 1) == '.') {
+				end--;
+			}
+		}
+		int[] components = components(version, 0, end);
+		if (components == null) {
+			throw new IllegalArgumentException("Invalid version '" + version + "'.");
+		}
+		return new ServiceVersion(null, components);
+	}
+
+	/**
+	 * @param serviceTypeOrLabel For example postgresql-9.1.
+	 * @return The product and version after the last '-'; null when it does not end with a version.
+	 */
+	public static ServiceVersion fromServiceType(String serviceTypeOrLabel) {
+		if (serviceTypeOrLabel == null) {
+			return null;
+		}
+		int dash = serviceTypeOrLabel.lastIndexOf('-');
+		if (dash <= 0) {
+			return null;
+		}
+		int[] components = components(serviceTypeOrLabel, dash + 1, serviceTypeOrLabel.length());
+		if (components == null || components.length == 0) {
+			return null;
+		}
+		return new ServiceVersion(serviceTypeOrLabel.substring(0, dash), components);
+	}
+
+	/**
+	 * @return The numbers separated by dots; null when it is not such a list.
+	 */
+	private static int[] components(String str, int start, int end) {
+		if (start == end) {
+			return NO_COMPONENTS;
+		}
+		int count = 1;
+		for (int i = start; i < end; i++) {
+			char c = str.charAt(i);
+			if (c == '.') {
+				if (i == start || i == end - 1 || str.charAt(i - 1) == '.') {
+					return null;
+				}
+				count++;
+			} else if (c < '0' || c > '9') {
+				return null;
+			}
+		}
+		int[] res = new int[count];
+		int c = 0;
+		for (int i = start; i < end; i++) {
+			char ch = str.charAt(i);
+			if (ch == '.') {
+				c++;
+			} else {
+				res[c] = res[c] * 10 + (ch - '0');
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return The product or null when this is only a version.
+	 */
+	public String getProduct() {
+		return _product;
+	}
+
+	/**
+	 * @return The number of components: 2 for 9.1.
+	 */
+	public int getComponentCount() {
+		return _components.length;
+	}
+
+	/**
+	 * @return The component at this index or 0 when there are fewer components.
+	 */
+	public int getComponent(int index) {
+		return index < _components.length ? _components[index] : 0;
+	}
+
+	/**
+	 * @param prefix For example 5 parsed from 5.x.
+	 * @return true when the first components of this version are the ones of the prefix.
+	 */
+	public boolean startsWith(ServiceVersion prefix) {
+		return compareTo(prefix, prefix._components.length) == 0;
+	}
+
+	/**
+	 * Compares the versions; the products are ignored.
+	 */
+	public int compareTo(ServiceVersion other) {
+		return compareTo(other, Math.max(_components.length, other._components.length));
+	}
+
+	/**
+	 * @param length The number of components compared.
+	 */
+	public int compareTo(ServiceVersion other, int length) {
+		for (int i = 0; i < length; i++) {
+			int a = getComponent(i);
+			int b = other.getComponent(i);
+			if (a != b) {
+				return a < b ? -1 : 1;
+			}
+		}
+		return 0;
+	}
+
+	public int hashCode() {
+		int length = _components.length;
+		while (length > 0 && _components[length - 1] == 0) {
+			length--;
+		}
+		int h = _product != null ? _product.hashCode() : 0;
+		for (int i = 0; i < length; i++) {
+			h = 31 * h + _components[i];
+		}
+		return h;
+	}
+
+	public boolean equals(Object obj) {
+		if (!(obj instanceof ServiceVersion)) {
+			return false;
+		}
+		ServiceVersion other = (ServiceVersion)obj;
+		return (_product == null ? other._product == null : _product.equals(other._product))
+				&& compareTo(other) == 0;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		if (_product != null) {
+			sb.append(_product).append('-');
+		}
+		for (int i = 0; i < _components.length; i++) {
+			if (i != 0) {
+				sb.append('.');
+			}
+			sb.append(_components[i]);
+		}
+		return sb.toString();
+	}
+}
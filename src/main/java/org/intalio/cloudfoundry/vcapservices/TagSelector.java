@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.intalio.cloudfoundry.vcapservices.impl.VCapService;
+
+/**
+ * Selects services by their tags and plan.
+ * <p>
+ * A selector is a conjunction of clauses. A clause is satisfied when the service
+ * has one of its tags; a negated clause when it has none of them.
+ * A tag prefixed by 'plan:' stands for the plan of the service.
+ * </p>
+ * <p>
+ * For example, all the services tagged relational and postgres but not readonly:
+ * <code>new TagSelector("relational,postgres,!readonly")</code> or
+ * <code>TagSelector.allOf("relational", "postgres").noneOf("readonly")</code>.
+ * Alternatives are separated by '|': <code>"relational,postgres|mysql,plan:free"</code>.
+ * </p>
+ * @author hmalphettes
+ */
+public final class TagSelector {
+
+	/** Prefix of the terms that select a plan instead of a tag. */
+	public static final String PLAN_PREFIX = "plan:";
+
+	private static final String[][] NO_CLAUSES = new String[0][];
+	private static final boolean[] NO_NEGATIONS = new boolean[0];
+
+	private final String[][] _clauses;
+	private final boolean[] _negated;
+
+	private TagSelector(String[][] clauses, boolean[] negated) {
+		_clauses = clauses;
+		_negated = negated;
+	}
+
+	/**
+	 * Resolves a system-property or env-variable with the ${KEY,defult-value} notation.
+	 * Then parses the comma separated clauses. A clause that starts with '!' is negated.
+	 * The alternatives of a clause are separated by '|'.
+	 * @param expression
+	 */
+	public TagSelector(String expression) {
+		expression = VCapService.resolvePropertyValue(expression);
+		ArrayList<String[]> clauses = new ArrayList<String[]>();
+		ArrayList<Boolean> negated = new ArrayList<Boolean>();
+		for (String clause : expression.split(",")) {
+			clause = clause.trim();
+			if (clause.length() == 0) {
+				continue;
+			}
+			boolean isNegated = clause.startsWith("!");
+			if (isNegated) {
+				clause = clause.substring(1);
+			}
+			String[] alternatives = clause.split("\\|");
+			for (int i = 0; i < alternatives.length; i++) {
+				alternatives[i] = alternatives[i].trim();
+			}
+			clauses.add(alternatives);
+			negated.add(isNegated);
+		}
+		_clauses = clauses.toArray(new String[clauses.size()][]);
+		_negated = new boolean[_clauses.length];
+		for (int i = 0; i < _negated.length; i++) {
+			_negated[i] = negated.get(i);
+		}
+	}
+
+	/**
+	 * @param tags
+	 * @return A selector for the services that have all the tags.
+	 */
+	public static TagSelector allOf(String... tags) {
+		return new TagSelector(NO_CLAUSES, NO_NEGATIONS).and(tags);
+	}
+
+	/**
+	 * @param tags
+	 * @return A selector for the services that have at least one of the tags.
+	 */
+	public static TagSelector anyOf(String... tags) {
+		return new TagSelector(NO_CLAUSES, NO_NEGATIONS).or(tags);
+	}
+
+	/**
+	 * @param tags
+	 * @return This selector restricted to the services that have all the tags.
+	 */
+	public TagSelector and(String... tags) {
+		TagSelector res = this;
+		for (String tag : tags) {
+			res = res.with(new String[] { tag }, false);
+		}
+		return res;
+	}
+
+	/**
+	 * @param tags
+	 * @return This selector restricted to the services that have at least one of the tags.
+	 */
+	public TagSelector or(String... tags) {
+		return with(tags.clone(), false);
+	}
+
+	/**
+	 * @param tags
+	 * @return This selector restricted to the services that have none of the tags.
+	 */
+	public TagSelector noneOf(String... tags) {
+		return with(tags.clone(), true);
+	}
+
+	private TagSelector with(String[] alternatives, boolean negated) {
+		String[][] clauses = Arrays.copyOf(_clauses, _clauses.length + 1);
+		clauses[_clauses.length] = alternatives;
+		boolean[] negations = Arrays.copyOf(_negated, _negated.length + 1);
+		negations[_negated.length] = negated;
+		return new TagSelector(clauses, negations);
+	}
+
+	/**
+	 * @return The number of clauses.
+	 */
+	public int getClauseCount() {
+		return _clauses.length;
+	}
+
+	/**
+	 * @param clause
+	 * @return The tags of a clause. Those prefixed by 'plan:' stand for a plan.
+	 */
+	public String[] getAlternatives(int clause) {
+		return _clauses[clause].clone();
+	}
+
+	/**
+	 * @param clause
+	 * @return true when the clause selects the services that have none of its tags.
+	 */
+	public boolean isNegated(int clause) {
+		return _negated[clause];
+	}
+
+	/**
+	 * @param tags The tags of a service. Might be null.
+	 * @param plan The plan of a service. Might be null.
+	 * @return true when a service with these tags and plan is selected.
+	 */
+	public boolean matches(String[] tags, String plan) {
+		for (int c = 0; c < _clauses.length; c++) {
+			boolean found = false;
+			for (String alternative : _clauses[c]) {
+				if (alternative.startsWith(PLAN_PREFIX)) {
+					found = plan != null
+							&& alternative.length() == PLAN_PREFIX.length() + plan.length()
+							&& alternative.startsWith(plan, PLAN_PREFIX.length());
+				} else if (tags != null) {
+					for (String tag : tags) {
+						if (alternative.equals(tag)) {
+							found = true;
+							break;
+						}
+					}
+				}
+				if (found) {
+					break;
+				}
+			}
+			if (found == _negated[c]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public int hashCode() {
+		return Arrays.deepHashCode(_clauses) * 31 + Arrays.hashCode(_negated);
+	}
+
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof TagSelector)) {
+			return false;
+		}
+		TagSelector other = (TagSelector)obj;
+		return Arrays.equals(_negated, other._negated) && Arrays.deepEquals(_clauses, other._clauses);
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int c = 0; c < _clauses.length; c++) {
+			if (c != 0) {
+				sb.append(',');
+			}
+			if (_negated[c]) {
+				sb.append('!');
+			}
+			for (int i = 0; i < _clauses[c].length; i++) {
+				if (i != 0) {
+					sb.append('|');
+				}
+				sb.append(_clauses[c][i]);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an interface whose methods read the credentials of a service.
+ * The vcapservices-processor annotation processor generates its implementation
+ * at compile time: a class named after the interface with the suffix Impl
+ * and a constructor that takes the {@link IVCapServices}.
+ * <pre>
+ * &#64;VCapServiceBinding(type = "/^postgres.*&#47;", name = "orders")
+ * public interface OrdersDatabase {
+ *     String hostname();
+ *     int port();
+ *     &#64;CredentialsKey("jdbc_url") String jdbcUrl();
+ * }
+ * </pre>
+ * <p>
+ * An accessor reads the key named after the method without its get or is prefix,
+ * or its snake_case or kebab-case form, unless it is annotated with {@link CredentialsKey}.
+ * The selectors follow the syntax of {@link NegatablePattern}: a malformed regexp
+ * is a compilation error.
+ * </p>
+ * @author hmalphettes
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface VCapServiceBinding {
+
+	/**
+	 * @return The service type or a regexp to select it.
+	 */
+	String type();
+
+	/**
+	 * @return The name of the service or a regexp to select it; empty for the first service of the type.
+	 */
+	String name() default "";
+
+}
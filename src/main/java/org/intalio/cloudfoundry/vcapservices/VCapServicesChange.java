@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The difference between two versions of the vcap services.
+ * The services are identified by their type and name.
+ * @author hmalphettes
+ */
+public final class VCapServicesChange {
+
+	private final List<IVCapService> _added;
+	private final List<IVCapService> _removed;
+	private final List<IVCapService> _changed;
+
+	/**
+	 * @param added The new services.
+	 * @param removed The services that are gone.
+	 * @param changed The new version of the services that have changed.
+	 */
+	public VCapServicesChange(List<IVCapService> added, List<IVCapService> removed,
+			List<IVCapService> changed) {
+		_added = Collections.unmodifiableList(added);
+		_removed = Collections.unmodifiableList(removed);
+		_changed = Collections.unmodifiableList(changed);
+	}
+
+	/**
+	 * @return The new services.
+	 */
+	public List<IVCapService> getAdded() {
+		return _added;
+	}
+
+	/**
+	 * @return The services that are gone.
+	 */
+	public List<IVCapService> getRemoved() {
+		return _removed;
+	}
+
+	/**
+	 * @return The new version of the services that have changed:
+	 * for example with new credentials.
+	 */
+	public List<IVCapService> getChanged() {
+		return _changed;
+	}
+
+	/**
+	 * @return true when no service was added, removed or changed.
+	 */
+	public boolean isEmpty() {
+		return _added.isEmpty() && _removed.isEmpty() && _changed.isEmpty();
+	}
+
+	public String toString() {
+		return "added=" + _added + "; removed=" + _removed + "; changed=" + _changed;
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+/**
+ * The arguments of VCapServices#getConnectionAsURI: the key of the
+ * cache of connection URIs.
+ * @author hmalphettes
+ */
+final class ConnectionKey {
+
+	private final String _defaultURIOrSysPropertyForIt;
+	private final String _scheme;
+	private final String _serviceTypeRegexpOrString;
+	private final String _nameOfServiceSelector;
+	private final int _hash;
+
+	ConnectionKey(String defaultURIOrSysPropertyForIt, String scheme,
+			String serviceTypeRegexpOrString, String nameOfServiceSelector) {
+		_defaultURIOrSysPropertyForIt = defaultURIOrSysPropertyForIt;
+		_scheme = scheme;
+		_serviceTypeRegexpOrString = serviceTypeRegexpOrString;
+		_nameOfServiceSelector = nameOfServiceSelector;
+		int h = hash(defaultURIOrSysPropertyForIt);
+		h = 31 * h + hash(scheme);
+		h = 31 * h + hash(serviceTypeRegexpOrString);
+		_hash = 31 * h + hash(nameOfServiceSelector);
+	}
+
+	private static int hash(String str) {
+		return str == null ? 0 : str.hashCode();
+	}
+
+	private static boolean eq(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	public int hashCode() {
+		return _hash;
+	}
+
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof ConnectionKey)) {
+			return false;
+		}
+		ConnectionKey other = (ConnectionKey)obj;
+		return _hash == other._hash
+				&& eq(_serviceTypeRegexpOrString, other._serviceTypeRegexpOrString)
+				&& eq(_nameOfServiceSelector, other._nameOfServiceSelector)
+				&& eq(_scheme, other._scheme)
+				&& eq(_defaultURIOrSysPropertyForIt, other._defaultURIOrSysPropertyForIt);
+	}
+
+	public String toString() {
+		return "(default=" + _defaultURIOrSysPropertyForIt + "; scheme=" + _scheme
+				+ "; service-type=" + _serviceTypeRegexpOrString
+				+ "; service-name=" + _nameOfServiceSelector + ")";
+	}
+}
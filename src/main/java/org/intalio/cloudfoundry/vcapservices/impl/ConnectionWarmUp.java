@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.intalio.cloudfoundry.vcapservices.ConnectionWarmUpResult;
+import org.intalio.cloudfoundry.vcapservices.ConnectionWarmUpResult.ServiceResult;
+import org.intalio.cloudfoundry.vcapservices.IConnectionOpener;
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.IVCapServices;
+import org.intalio.cloudfoundry.vcapservices.NegatablePattern;
+import org.intalio.cloudfoundry.vcapservices.TagSelector;
+
+/**
+ * Opens the first connections of the selected services in parallel at startup
+ * instead of waiting for each handshake in turn.
+ * <p>
+ * For example in spring, before the data-sources are used:
+ * </p>
+ * <pre>
+ * &lt;bean id="warmUp" class="org.intalio.cloudfoundry.vcapservices.impl.ConnectionWarmUp"&gt;
+ *   &lt;constructor-arg ref="vcapservices"/&gt;
+ *   &lt;property name="selectors" value="/^postgres.*&#47;,/^mysql.*&#47;"/&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ * <p>
+ * The connections are opened on a bounded pool of daemon threads or on virtual
+ * threads when the JVM supports them. The warm-up stops at a global deadline;
+ * the connections still opening are abandoned and closed as soon as they open.
+ * </p>
+ * @author hmalphettes
+ */
+public class ConnectionWarmUp {
+
+	private final IVCapServices _services;
+	private final IConnectionOpener _opener;
+	/** NegatablePattern[2] of type and name or TagSelector. */
+	private final List<Object> _selectors = new ArrayList<Object>();
+	private int _connectionsPerService = 1;
+	private int _parallelism = 8;
+	private boolean _virtualThreads;
+	private long _timeoutMillis = 30000;
+
+	/**
+	 * Opens TCP connections to the services.
+	 * @param services
+	 */
+	public ConnectionWarmUp(IVCapServices services) {
+		this(services, new SocketConnectionOpener());
+	}
+
+	/**
+	 * @param services
+	 * @param opener Opens and validates a connection to a service.
+	 */
+	public ConnectionWarmUp(IVCapServices services, IConnectionOpener opener) {
+		_services = services;
+		_opener = opener;
+	}
+
+	/**
+	 * @param serviceTypeSelector The service type or a regexp to select it.
+	 * @param serviceNameSelector The service name or a regexp to select it;
+	 * null for all the services of the selected types.
+	 */
+	public void addSelector(String serviceTypeSelector, String serviceNameSelector) {
+		_selectors.add(new NegatablePattern[] { NegatablePattern.compile(serviceTypeSelector),
+				NegatablePattern.compile(serviceNameSelector != null ? serviceNameSelector : "/.*/") });
+	}
+
+	/**
+	 * @param selector Selects the services by their tags and plan.
+	 */
+	public void addSelector(TagSelector selector) {
+		_selectors.add(selector);
+	}
+
+	/**
+	 * @param serviceTypeSelectors Comma separated service types or regexps
+	 * to select them.
+	 */
+	public void setSelectors(String serviceTypeSelectors) {
+		for (String selector : serviceTypeSelectors.split(",")) {
+			if (selector.trim().length() != 0) {
+				addSelector(selector.trim(), null);
+			}
+		}
+	}
+
+	/**
+	 * @param connectionsPerService The number of connections to open for each service. 1 by default.
+	 */
+	public void setConnectionsPerService(int connectionsPerService) {
+		if (connectionsPerService < 1) {
+			throw new IllegalArgumentException("At least one connection per service.");
+		}
+		_connectionsPerService = connectionsPerService;
+	}
+
+	/**
+	 * @param parallelism The maximum number of connections opened at the same time
+	 * when virtual threads are not used. 8 by default.
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("The parallelism must be at least 1.");
+		}
+		_parallelism = parallelism;
+	}
+
+	/**
+	 * @param virtualThreads true to open each connection on its own virtual thread
+	 * when the JVM supports them.
+	 */
+	public void setVirtualThreads(boolean virtualThreads) {
+		_virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * @param timeoutMillis The global deadline of {@link #warmUp()}. 30 seconds by default.
+	 */
+	public void setTimeoutMillis(long timeoutMillis) {
+		_timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * @return The selected services in the order of the selectors; each one of them once.
+	 */
+	public List<IVCapService> getSelectedServices() {
+		IdentityHashMap<IVCapService, Boolean> seen = new IdentityHashMap<IVCapService, Boolean>();
+		ArrayList<IVCapService> res = new ArrayList<IVCapService>();
+		for (Object selector : _selectors) {
+			List<IVCapService> selected;
+			if (selector instanceof TagSelector) {
+				selected = _services.getVCapServices((TagSelector)selector);
+			} else {
+				NegatablePattern[] patterns = (NegatablePattern[])selector;
+				selected = _services.getVCapServices(patterns[0], patterns[1]);
+			}
+			for (IVCapService service : selected) {
+				if (seen.put(service, Boolean.TRUE) == null) {
+					res.add(service);
+				}
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Opens the connections of the selected services in parallel then closes them.
+	 * For example as the init-method of a spring bean.
+	 * @return The outcome for each service.
+	 * @throws InterruptedException
+	 */
+	public ConnectionWarmUpResult warmUp() throws InterruptedException {
+		return warmUp(_timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Opens the connections of the selected services in parallel then closes them.
+	 * @param timeout The global deadline.
+	 * @param unit
+	 * @return The outcome for each service.
+	 * @throws InterruptedException
+	 */
+	public ConnectionWarmUpResult warmUp(long timeout, TimeUnit unit) throws InterruptedException {
+		List<IVCapService> services = getSelectedServices();
+		Run run = new Run(services.size(), System.nanoTime() + unit.toNanos(timeout));
+		int tasks = services.size() * _connectionsPerService;
+		if (tasks == 0) {
+			return run.result(services);
+		}
+		ExecutorService executor = newExecutor(tasks);
+		try {
+			ExecutorCompletionService<Attempt> completion = new ExecutorCompletionService<Attempt>(executor);
+			for (int i = 0; i < services.size(); i++) {
+				for (int c = 0; c < _connectionsPerService; c++) {
+					completion.submit(new Attempt(run, i, services.get(i)));
+				}
+			}
+			for (int done = 0; done < tasks; done++) {
+				Future<Attempt> future = completion.poll(run._deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				if (future == null) {
+					break;
+				}
+				try {
+					run.add(future.get());
+				} catch (ExecutionException e) {
+					// Attempt#call catches the errors.
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			run.close();
+		}
+		return run.result(services);
+	}
+
+	private ExecutorService newExecutor(int tasks) {
+		if (_virtualThreads) {
+			try {
+				return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (Exception e) {
+				// before java 21: fall back to the bounded pool.
+			}
+		}
+		final AtomicInteger count = new AtomicInteger();
+		return Executors.newFixedThreadPool(Math.min(tasks, _parallelism), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "vcapservices-warmup-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * The state of a warm-up.
+	 */
+	private final class Run {
+
+		private final long _start = System.nanoTime();
+		private final long _deadline;
+		private final int[] _opened;
+		private final int[] _failed;
+		private final long[] _end;
+		private final Throwable[] _errors;
+		private final ArrayList<Closeable> _connections = new ArrayList<Closeable>();
+		/** true once the warm-up is over: the connections opened late are closed right away. */
+		private boolean _closed;
+
+		Run(int services, long deadline) {
+			_deadline = deadline;
+			_opened = new int[services];
+			_failed = new int[services];
+			_end = new long[services];
+			_errors = new Throwable[services];
+		}
+
+		synchronized void add(Attempt attempt) {
+			int i = attempt._serviceIndex;
+			if (attempt._error == null) {
+				_opened[i]++;
+			} else {
+				_failed[i]++;
+				if (_errors[i] == null) {
+					_errors[i] = attempt._error;
+				}
+			}
+			_end[i] = Math.max(_end[i], attempt._end);
+		}
+
+		/**
+		 * @return false when the warm-up is over and the connection was closed.
+		 */
+		boolean keep(Closeable connection) {
+			synchronized (this) {
+				if (!_closed) {
+					_connections.add(connection);
+					return true;
+				}
+			}
+			closeQuietly(connection);
+			return false;
+		}
+
+		void close() {
+			ArrayList<Closeable> connections;
+			synchronized (this) {
+				_closed = true;
+				connections = new ArrayList<Closeable>(_connections);
+				_connections.clear();
+			}
+			for (Closeable connection : connections) {
+				closeQuietly(connection);
+			}
+		}
+
+		synchronized ConnectionWarmUpResult result(List<IVCapService> services) {
+			long now = System.nanoTime();
+			ArrayList<ServiceResult> res = new ArrayList<ServiceResult>(services.size());
+			for (int i = 0; i < services.size(); i++) {
+				boolean complete = _opened[i] + _failed[i] == _connectionsPerService;
+				long end = complete ? _end[i] : Math.min(now, _deadline);
+				res.add(new ServiceResult(services.get(i), _connectionsPerService,
+						_opened[i], _failed[i], end - _start, _errors[i]));
+			}
+			return new ConnectionWarmUpResult(res, now - _start);
+		}
+	}
+
+	/**
+	 * Opens one connection.
+	 */
+	private final class Attempt implements Callable<Attempt> {
+
+		private final Run _run;
+		private final int _serviceIndex;
+		private final IVCapService _service;
+		private Throwable _error;
+		private long _end;
+
+		Attempt(Run run, int serviceIndex, IVCapService service) {
+			_run = run;
+			_serviceIndex = serviceIndex;
+			_service = service;
+		}
+
+		public Attempt call() {
+			try {
+				long left = TimeUnit.NANOSECONDS.toMillis(_run._deadline - System.nanoTime());
+				if (left <= 0) {
+					throw new IOException("The deadline of the warm-up is over.");
+				}
+				Closeable connection = _opener.open(_service, (int)Math.min(Integer.MAX_VALUE, left));
+				if (connection != null) {
+					_run.keep(connection);
+				}
+			} catch (Throwable t) {
+				_error = t;
+			}
+			_end = System.nanoTime();
+			return this;
+		}
+	}
+
+	private static void closeQuietly(Closeable connection) {
+		try {
+			connection.close();
+		} catch (IOException e) {
+			// the connection was only opened to warm it up.
+		}
+	}
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.IVCapServiceCredentials;
+import org.intalio.cloudfoundry.vcapservices.ISecretStore;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Fetches the credhub-ref references with the interpolate endpoint of CredHub:
+ * all the references of a batch in one POST /api/v1/interpolate.
+ * <p>
+ * The request is a VCAP_SERVICES like document with one service per reference;
+ * CredHub answers the same document with the credentials inline.
+ * </p>
+ * @author hmalphettes
+ */
+public class CredHubSecretStore implements ISecretStore {
+
+	/** The key of the credentials that hold a reference to CredHub. */
+	public static final String REFERENCE_KEY = "credhub-ref";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String BATCH_TYPE = "refs";
+
+	private final URL _interpolate;
+	private volatile String _authorization;
+	private volatile int _timeoutMillis = 10000;
+
+	/**
+	 * @param baseURL For example https://credhub.service.cf.internal:8844
+	 * @throws IOException when the URL is malformed.
+	 */
+	public CredHubSecretStore(String baseURL) throws IOException {
+		_interpolate = new URL(baseURL.endsWith("/") ? baseURL + "api/v1/interpolate"
+				: baseURL + "/api/v1/interpolate");
+	}
+
+	/**
+	 * @param authorization The value of the Authorization header.
+	 * For example "bearer " followed by the token of the application.
+	 */
+	public void setAuthorization(String authorization) {
+		_authorization = authorization;
+	}
+
+	/**
+	 * @param timeoutMillis The connect and read timeouts. 10 seconds by default.
+	 */
+	public void setTimeoutMillis(int timeoutMillis) {
+		_timeoutMillis = timeoutMillis;
+	}
+
+	public String getReferenceKey() {
+		return REFERENCE_KEY;
+	}
+
+	public Map<String, IVCapServiceCredentials> fetch(Collection<String> references) throws IOException {
+		String[] refs = references.toArray(new String[references.size()]);
+		String response = post(request(refs));
+		List<IVCapService> services;
+		try {
+			services = new VCapServicesParser(response, false).parseServices().get(BATCH_TYPE);
+		} catch (JSONException e) {
+			throw new IOException("Unexpected response from " + _interpolate + ": " + e.getMessage(), e);
+		}
+		HashMap<String, IVCapServiceCredentials> res = new HashMap<String, IVCapServiceCredentials>();
+		if (services != null) {
+			for (IVCapService service : services) {
+				int i = indexOf(service.getName(), refs.length);
+				if (i != -1) {
+					res.put(refs[i], service.getCredentials());
+				}
+			}
+		}
+		return res;
+	}
+
+	private static int indexOf(String name, int size) {
+		try {
+			int i = Integer.parseInt(name);
+			return i >= 0 && i < size ? i : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return {"refs":[{"name":"0","credentials":{"credhub-ref":"..."}},...]}
+	 */
+	private static String request(String[] refs) {
+		StringBuilder sb = new StringBuilder("{\"").append(BATCH_TYPE).append("\":[");
+		for (int i = 0; i < refs.length; i++) {
+			if (i != 0) {
+				sb.append(',');
+			}
+			sb.append("{\"name\":\"").append(i).append("\",\"credentials\":{\"")
+					.append(REFERENCE_KEY).append("\":").append(JSONObject.quote(refs[i])).append("}}");
+		}
+		return sb.append("]}").toString();
+	}
+
+	private String post(String body) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection)_interpolate.openConnection();
+		try {
+			conn.setRequestMethod("POST");
+			conn.setConnectTimeout(_timeoutMillis);
+			conn.setReadTimeout(_timeoutMillis);
+			conn.setDoOutput(true);
+			conn.setRequestProperty("Content-Type", "application/json");
+			conn.setRequestProperty("Accept", "application/json");
+			String authorization = _authorization;
+			if (authorization != null) {
+				conn.setRequestProperty("Authorization", authorization);
+			}
+			byte[] bytes = body.getBytes(UTF8);
+			conn.setFixedLengthStreamingMode(bytes.length);
+			OutputStream out = conn.getOutputStream();
+			try {
+				out.write(bytes);
+			} finally {
+				out.close();
+			}
+			int status = conn.getResponseCode();
+			if (status != HttpURLConnection.HTTP_OK) {
+				throw new IOException("POST " + _interpolate + " answered " + status);
+			}
+			return read(conn.getInputStream());
+		} finally {
+			conn.disconnect();
+		}
+	}
+
+	private static String read(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[4096];
+			int n;
+			while ((n = in.read(buf)) != -1) {
+				out.write(buf, 0, n);
+			}
+			return new String(out.toByteArray(), UTF8);
+		} finally {
+			in.close();
+		}
+	}
+
+	public String toString() {
+		return _interpolate.toString();
+	}
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.intalio.cloudfoundry.vcapservices.CredentialsKey;
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.IVCapServiceCredentials;
+
+/**
+ * Binds the credentials of a service onto a record or a POJO.
+ * For example:
+ * <pre>
+ * public record RabbitCredentials(String uri, String vhost, boolean ssl, @CredentialsKey("api-key") char[] apiKey) {}
+ * RabbitCredentials cred = CredentialsBinder.of(RabbitCredentials.class).bind(service);
+ * </pre>
+ * <p>
+ * The binder of a class is built once: the canonical constructor of a record
+ * or the no-argument constructor and the setters of a POJO are turned into method handles
+ * and lambdas. Binding reads each key of the credentials once, substitutes the ${key,default}
+ * and converts the value: no reflection and no lookup of the keys per access.
+ * </p>
+ * <p>
+ * The supported types are String, char[], int, long, double, boolean and their wrappers,
+ * URI and the enums. A key that is not defined leaves the default value.
+ * </p>
+ * @author hmalphettes
+ */
+public final class CredentialsBinder<T> {
+
+	private static final ClassValue<CredentialsBinder<?>> BINDERS = new ClassValue<CredentialsBinder<?>>() {
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		protected CredentialsBinder<?> computeValue(Class<?> type) {
+			return new CredentialsBinder(type, MethodHandles.lookup(), false);
+		}
+	};
+
+	private final Class<T> _type;
+	/** The type of each property. */
+	private final Class<?>[] _types;
+	/** The index of the property of each key and normalized property name. */
+	private final HashMap<String, Integer> _keys = new HashMap<String, Integer>();
+
+	/** The canonical constructor of a record: (Object[])Object. Null for a POJO. */
+	private final MethodHandle _constructor;
+	private final Supplier<Object> _factory;
+	private final BiConsumer<Object, Object>[] _setters;
+
+	/**
+	 * @param type A public record or a public class with a public no-argument constructor.
+	 * @return The binder of this type. Built once per type.
+	 * @throws IllegalArgumentException when the type cannot be bound.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> CredentialsBinder<T> of(Class<T> type) {
+		return (CredentialsBinder<T>)BINDERS.get(type);
+	}
+
+	/**
+	 * For the types that are not public. Not cached: keep the binder.
+	 * The setters that are not public are bound too.
+	 * @param type
+	 * @param lookup A lookup with access to the constructor and the setters of the type.
+	 * For example MethodHandles.lookup() in the type itself.
+	 * @return A new binder.
+	 * @throws IllegalArgumentException when the type cannot be bound.
+	 */
+	public static <T> CredentialsBinder<T> of(Class<T> type, Lookup lookup) {
+		return new CredentialsBinder<T>(type, lookup, true);
+	}
+
+	@SuppressWarnings("unchecked")
+	private CredentialsBinder(Class<T> type, Lookup lookup, boolean declared) {
+		_type = type;
+		boolean spin = (lookup.lookupModes() & Lookup.PRIVATE) != 0
+				&& isVisible(type, lookup.lookupClass().getClassLoader());
+		ArrayList<String> names = new ArrayList<String>();
+		ArrayList<Class<?>> types = new ArrayList<Class<?>>();
+		ArrayList<String> keys = new ArrayList<String>();
+		try {
+			Object[] components = recordComponents(type);
+			if (components != null) {
+				Class<?>[] parameters = new Class<?>[components.length];
+				for (int i = 0; i < components.length; i++) {
+					Object component = components[i];
+					Class<?> componentClass = component.getClass();
+					parameters[i] = (Class<?>)componentClass.getMethod("getType").invoke(component);
+					CredentialsKey key = (CredentialsKey)componentClass.getMethod("getAnnotation", Class.class)
+							.invoke(component, CredentialsKey.class);
+					names.add((String)componentClass.getMethod("getName").invoke(component));
+					types.add(parameters[i]);
+					keys.add(key != null ? key.value() : null);
+				}
+				Constructor<T> constructor = type.getDeclaredConstructor(parameters);
+				_constructor = lookup.unreflectConstructor(constructor)
+						.asSpreader(Object[].class, parameters.length)
+						.asType(MethodType.methodType(Object.class, Object[].class));
+				_factory = null;
+				_setters = null;
+			} else {
+				_constructor = null;
+				_factory = factory(lookup, type, spin);
+				ArrayList<BiConsumer<Object, Object>> setters = new ArrayList<BiConsumer<Object, Object>>();
+				for (Method method : setters(type, declared)) {
+					if (method.getName().length() > 3 && method.getName().startsWith("set")
+							&& method.getParameterTypes().length == 1
+							&& !Modifier.isStatic(method.getModifiers())) {
+						CredentialsKey key = method.getAnnotation(CredentialsKey.class);
+						names.add(decapitalize(method.getName().substring(3)));
+						types.add(method.getParameterTypes()[0]);
+						keys.add(key != null ? key.value() : null);
+						setters.add(setter(lookup, type, method, spin));
+					}
+				}
+				for (Field field : type.getFields()) {
+					int modifiers = field.getModifiers();
+					if (!Modifier.isStatic(modifiers) && !Modifier.isFinal(modifiers)
+							&& !names.contains(field.getName())) {
+						CredentialsKey key = field.getAnnotation(CredentialsKey.class);
+						names.add(field.getName());
+						types.add(field.getType());
+						keys.add(key != null ? key.value() : null);
+						setters.add(setter(lookup.unreflectSetter(field)));
+					}
+				}
+				_setters = toArray(setters);
+			}
+		} catch (IllegalArgumentException e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new IllegalArgumentException("Unable to bind credentials to " + type.getName()
+					+ ": " + t, t);
+		}
+		_types = types.toArray(new Class<?>[types.size()]);
+		for (int i = 0; i < _types.length; i++) {
+			if (!isSupported(_types[i])) {
+				throw new IllegalArgumentException("Unsupported type " + _types[i].getName()
+						+ " for the credentials key '" + names.get(i) + "' of " + type.getName());
+			}
+			String key = keys.get(i);
+			if (key != null) {
+				_keys.put(key, i);
+			}
+		}
+		for (int i = 0; i < _types.length; i++) {
+			if (keys.get(i) == null) {
+				_keys.put(names.get(i), i);
+			}
+		}
+		for (int i = 0; i < _types.length; i++) {
+			if (keys.get(i) == null && !_keys.containsKey(normalize(names.get(i)))) {
+				_keys.put(normalize(names.get(i)), i);
+			}
+		}
+	}
+
+	/**
+	 * @return The components of a record or null. Looked up reflectively: records need java 16.
+	 */
+	private static Object[] recordComponents(Class<?> type) {
+		try {
+			if (!(Boolean)Class.class.getMethod("isRecord").invoke(type)) {
+				return null;
+			}
+			return (Object[])Class.class.getMethod("getRecordComponents").invoke(type);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Unable to read the components of " + type.getName(), e);
+		}
+	}
+
+	/**
+	 * @return The public methods and the methods declared by the type when declared is true.
+	 */
+	private static List<Method> setters(Class<?> type, boolean declared) {
+		ArrayList<Method> res = new ArrayList<Method>(Arrays.asList(type.getMethods()));
+		if (declared) {
+			for (Method method : type.getDeclaredMethods()) {
+				if (!Modifier.isPublic(method.getModifiers()) && !method.isSynthetic()) {
+					res.add(method);
+				}
+			}
+		}
+		return res;
+	}
+
+	private static boolean isVisible(Class<?> type, ClassLoader loader) {
+		try {
+			return Class.forName(type.getName(), false, loader) == type;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Supplier<Object> factory(Lookup lookup, Class<?> type, boolean spin) throws Throwable {
+		MethodHandle constructor = lookup.findConstructor(type, MethodType.methodType(void.class));
+		if (spin) {
+			try {
+				CallSite site = LambdaMetafactory.metafactory(lookup, "get",
+						MethodType.methodType(Supplier.class), MethodType.methodType(Object.class),
+						constructor, MethodType.methodType(type));
+				return (Supplier<Object>)site.getTarget().invokeExact();
+			} catch (Throwable t) {
+				// fall back to the method handle.
+			}
+		}
+		final MethodHandle generic = constructor.asType(MethodType.methodType(Object.class));
+		return new Supplier<Object>() {
+			public Object get() {
+				try {
+					return generic.invokeExact();
+				} catch (Throwable t) {
+					throw rethrow(t);
+				}
+			}
+		};
+	}
+
+	/**
+	 * An array of a generic type can't be created: the raw array only holds the setters of the list.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static BiConsumer<Object, Object>[] toArray(List<BiConsumer<Object, Object>> setters) {
+		return setters.toArray(new BiConsumer[setters.size()]);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static BiConsumer<Object, Object> setter(Lookup lookup, Class<?> type, Method method,
+			boolean spin) throws Throwable {
+		MethodHandle setter = lookup.unreflect(method);
+		if (spin) {
+			try {
+				CallSite site = LambdaMetafactory.metafactory(lookup, "accept",
+						MethodType.methodType(BiConsumer.class),
+						MethodType.methodType(void.class, Object.class, Object.class), setter,
+						MethodType.methodType(void.class, type, box(method.getParameterTypes()[0])));
+				return (BiConsumer<Object, Object>)site.getTarget().invokeExact();
+			} catch (Throwable t) {
+				// fall back to the method handle.
+			}
+		}
+		return setter(setter.asType(MethodType.methodType(void.class, type, box(method.getParameterTypes()[0]))));
+	}
+
+	private static BiConsumer<Object, Object> setter(MethodHandle setter) {
+		final MethodHandle generic = setter.asType(MethodType.methodType(void.class, Object.class, Object.class));
+		return new BiConsumer<Object, Object>() {
+			public void accept(Object target, Object value) {
+				try {
+					generic.invokeExact(target, value);
+				} catch (Throwable t) {
+					throw rethrow(t);
+				}
+			}
+		};
+	}
+
+	private static RuntimeException rethrow(Throwable t) {
+		if (t instanceof RuntimeException) {
+			return (RuntimeException)t;
+		}
+		if (t instanceof Error) {
+			throw (Error)t;
+		}
+		return new IllegalStateException(t);
+	}
+
+	/**
+	 * @param service
+	 * @return A new instance with the credentials of the service.
+	 */
+	public T bind(IVCapService service) {
+		return bind(service.getCredentials());
+	}
+
+	/**
+	 * @param credentials
+	 * @return A new instance with the values of the credentials.
+	 * @throws IllegalArgumentException when a value cannot be converted.
+	 */
+	public T bind(IVCapServiceCredentials credentials) {
+		Object[] values = new Object[_types.length];
+		for (String key : credentials.getKeys()) {
+			Integer i = _keys.get(key);
+			if (i == null) {
+				i = _keys.get(normalize(key));
+			}
+			if (i != null && values[i] == null) {
+				String value = credentials.getString(key);
+				if (value != null) {
+					values[i] = convert(_types[i], key, value);
+				}
+			}
+		}
+		if (_constructor != null) {
+			for (int i = 0; i < values.length; i++) {
+				if (values[i] == null && _types[i].isPrimitive()) {
+					values[i] = defaultValue(_types[i]);
+				}
+			}
+			try {
+				return _type.cast((Object)_constructor.invokeExact(values));
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+		Object res = _factory.get();
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != null) {
+				_setters[i].accept(res, values[i]);
+			}
+		}
+		return _type.cast(res);
+	}
+
+	/**
+	 * @return The type bound by this binder.
+	 */
+	public Class<T> getType() {
+		return _type;
+	}
+
+	/**
+	 * @return The name lower case without the '_', '-' and '.'.
+	 */
+	static String normalize(String name) {
+		StringBuilder sb = new StringBuilder(name.length());
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c != '_' && c != '-' && c != '.') {
+				sb.append(Character.toLowerCase(c));
+			}
+		}
+		return sb.toString();
+	}
+
+	private static String decapitalize(String name) {
+		return Character.toLowerCase(name.charAt(0)) + name.substring(1);
+	}
+
+	private static boolean isSupported(Class<?> type) {
+		return type == String.class || type == char[].class || type == URI.class || type.isEnum()
+				|| type.isPrimitive() && type != void.class && type != char.class
+						&& type != byte.class && type != short.class && type != float.class
+				|| type == Integer.class || type == Long.class || type == Double.class
+				|| type == Boolean.class;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private Object convert(Class<?> type, String key, String value) {
+		try {
+			if (type == String.class) {
+				return value;
+			} else if (type == int.class || type == Integer.class) {
+				return Integer.valueOf(value.trim());
+			} else if (type == long.class || type == Long.class) {
+				return Long.valueOf(value.trim());
+			} else if (type == double.class || type == Double.class) {
+				return Double.valueOf(value.trim());
+			} else if (type == boolean.class || type == Boolean.class) {
+				return Boolean.valueOf(value.trim());
+			} else if (type == char[].class) {
+				return value.toCharArray();
+			} else if (type == URI.class) {
+				return new URI(value);
+			}
+			try {
+				return Enum.valueOf((Class<Enum>)type, value);
+			} catch (IllegalArgumentException e) {
+				return Enum.valueOf((Class<Enum>)type, value.toUpperCase(Locale.ENGLISH));
+			}
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Unable to bind the credentials key '" + key
+					+ "' of " + _type.getName() + " to a " + type.getSimpleName() + ": " + e.getMessage(), e);
+		}
+	}
+
+	private static Object defaultValue(Class<?> type) {
+		if (type == boolean.class) {
+			return Boolean.FALSE;
+		} else if (type == int.class) {
+			return Integer.valueOf(0);
+		} else if (type == long.class) {
+			return Long.valueOf(0);
+		}
+		return Double.valueOf(0);
+	}
+
+	private static Class<?> box(Class<?> type) {
+		if (!type.isPrimitive()) {
+			return type;
+		} else if (type == int.class) {
+			return Integer.class;
+		} else if (type == long.class) {
+			return Long.class;
+		} else if (type == double.class) {
+			return Double.class;
+		} else if (type == boolean.class) {
+			return Boolean.class;
+		}
+		return type;
+	}
+
+	public String toString() {
+		return "CredentialsBinder(" + _type.getName() + ")";
+	}
+}
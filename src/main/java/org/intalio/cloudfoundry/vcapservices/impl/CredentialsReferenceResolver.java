@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.IVCapServiceCredentials;
+import org.intalio.cloudfoundry.vcapservices.IVCapServices;
+import org.intalio.cloudfoundry.vcapservices.ISecretStore;
+
+/**
+ * Resolves the references of the credentials to a {@link ISecretStore} asynchronously.
+ * <p>
+ * The references requested at the same time are fetched together:
+ * in batches of at most {@link #setBatchSize(int)} references.
+ * The fetched credentials are cached until they expire.
+ * A reference is never fetched twice concurrently.
+ * </p>
+ * <p>
+ * The batches are fetched on virtual threads when the JVM supports them;
+ * otherwise on a small pool of daemon threads.
+ * </p>
+ * @author hmalphettes
+ */
+public class CredentialsReferenceResolver implements Closeable {
+
+	private final ISecretStore _store;
+	private final long _ttlNanos;
+	private final ExecutorService _executor;
+	private volatile int _batchSize = 100;
+
+	private final ConcurrentHashMap<String, Entry> _cache = new ConcurrentHashMap<String, Entry>();
+	private final ConcurrentHashMap<String, CompletableFuture<IVCapServiceCredentials>> _pending =
+			new ConcurrentHashMap<String, CompletableFuture<IVCapServiceCredentials>>();
+	private final ConcurrentLinkedQueue<String> _queued = new ConcurrentLinkedQueue<String>();
+	private final AtomicBoolean _flushScheduled = new AtomicBoolean();
+	private final AtomicInteger _fetches = new AtomicInteger();
+
+	/**
+	 * Fetched credentials.
+	 */
+	private static final class Entry {
+		private final IVCapServiceCredentials _credentials;
+		private final long _expires;
+
+		Entry(IVCapServiceCredentials credentials, long expires) {
+			_credentials = credentials;
+			_expires = expires;
+		}
+	}
+
+	/**
+	 * @param store
+	 * @param ttlMillis How long the fetched credentials are cached.
+	 */
+	public CredentialsReferenceResolver(ISecretStore store, long ttlMillis) {
+		_store = store;
+		_ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+		_executor = newExecutor();
+	}
+
+	private static ExecutorService newExecutor() {
+		try {
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (Exception e) {
+			// before java 21: fall back to a bounded pool.
+		}
+		final AtomicInteger count = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(4, 4, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "vcapservices-secrets-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * @param batchSize The maximum number of references fetched in one request. 100 by default.
+	 */
+	public void setBatchSize(int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("The batch size must be at least 1.");
+		}
+		_batchSize = batchSize;
+	}
+
+	/**
+	 * @return The store the references are fetched from.
+	 */
+	public ISecretStore getStore() {
+		return _store;
+	}
+
+	/**
+	 * @return The number of requests sent to the store.
+	 */
+	public int getFetchCount() {
+		return _fetches.get();
+	}
+
+	/**
+	 * @param credentials
+	 * @return The reference held by the credentials or null when they are inline.
+	 */
+	public String getReference(IVCapServiceCredentials credentials) {
+		if (!(credentials instanceof VCapServiceCredentials)) {
+			return null;
+		}
+		VCapServiceCredentials cred = (VCapServiceCredentials)credentials;
+		String[] keys = cred.keys();
+		String key = _store.getReferenceKey();
+		for (int i = 0; i < keys.length; i++) {
+			if (key.equals(keys[i])) {
+				Object value = cred.values()[i];
+				return value instanceof String ? (String)value : null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param credentials
+	 * @return The credentials fetched from the store when they hold a reference;
+	 * otherwise the credentials themselves.
+	 */
+	public CompletableFuture<IVCapServiceCredentials> resolve(IVCapServiceCredentials credentials) {
+		String reference = getReference(credentials);
+		if (reference == null) {
+			return CompletableFuture.completedFuture(credentials);
+		}
+		return resolve(reference);
+	}
+
+	/**
+	 * @param reference
+	 * @return The credentials fetched from the store.
+	 * Completed with an IOException when the reference is not found or the store fails.
+	 */
+	public CompletableFuture<IVCapServiceCredentials> resolve(final String reference) {
+		return resolveAll(Collections.singleton(reference)).thenApply(
+				new Function<Map<String, IVCapServiceCredentials>, IVCapServiceCredentials>() {
+			public IVCapServiceCredentials apply(Map<String, IVCapServiceCredentials> resolved) {
+				return resolved.get(reference);
+			}
+		});
+	}
+
+	/**
+	 * Fetches the references of all the services. For example right after they are parsed.
+	 * @param services
+	 * @return The credentials fetched indexed by reference.
+	 */
+	public CompletableFuture<Map<String, IVCapServiceCredentials>> prefetch(IVCapServices services) {
+		LinkedHashSet<String> references = new LinkedHashSet<String>();
+		for (List<IVCapService> servs : services.getVCapServices().values()) {
+			for (IVCapService serv : servs) {
+				String reference = getReference(serv.getCredentials());
+				if (reference != null) {
+					references.add(reference);
+				}
+			}
+		}
+		return resolveAll(references);
+	}
+
+	/**
+	 * @param references
+	 * @return The credentials indexed by reference.
+	 * Completed with an IOException when a reference is not found or the store fails.
+	 */
+	public CompletableFuture<Map<String, IVCapServiceCredentials>> resolveAll(Collection<String> references) {
+		final LinkedHashMap<String, CompletableFuture<IVCapServiceCredentials>> futures =
+				new LinkedHashMap<String, CompletableFuture<IVCapServiceCredentials>>();
+		long now = System.nanoTime();
+		boolean queued = false;
+		for (String reference : references) {
+			Entry entry = _cache.get(reference);
+			if (entry != null && entry._expires - now > 0) {
+				futures.put(reference, CompletableFuture.completedFuture(entry._credentials));
+				continue;
+			}
+			CompletableFuture<IVCapServiceCredentials> future = new CompletableFuture<IVCapServiceCredentials>();
+			CompletableFuture<IVCapServiceCredentials> pending = _pending.putIfAbsent(reference, future);
+			if (pending == null) {
+				_queued.add(reference);
+				queued = true;
+			} else {
+				future = pending;
+			}
+			futures.put(reference, future);
+		}
+		if (queued && _flushScheduled.compareAndSet(false, true)) {
+			_executor.execute(new Runnable() {
+				public void run() {
+					flush();
+				}
+			});
+		}
+		return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[futures.size()]))
+				.thenApply(new Function<Void, Map<String, IVCapServiceCredentials>>() {
+			public Map<String, IVCapServiceCredentials> apply(Void done) {
+				LinkedHashMap<String, IVCapServiceCredentials> res =
+						new LinkedHashMap<String, IVCapServiceCredentials>();
+				for (Map.Entry<String, CompletableFuture<IVCapServiceCredentials>> e : futures.entrySet()) {
+					res.put(e.getKey(), e.getValue().join());
+				}
+				return res;
+			}
+		});
+	}
+
+	/**
+	 * Fetches the queued references: the first batches on their own threads, the last one on this thread.
+	 */
+	private void flush() {
+		_flushScheduled.set(false);
+		int batchSize = _batchSize;
+		ArrayList<String> batch = new ArrayList<String>();
+		String reference;
+		while ((reference = _queued.poll()) != null) {
+			batch.add(reference);
+			if (batch.size() == batchSize) {
+				final ArrayList<String> full = batch;
+				_executor.execute(new Runnable() {
+					public void run() {
+						fetch(full);
+					}
+				});
+				batch = new ArrayList<String>();
+			}
+		}
+		if (!batch.isEmpty()) {
+			fetch(batch);
+		}
+	}
+
+	private void fetch(List<String> references) {
+		_fetches.incrementAndGet();
+		Map<String, IVCapServiceCredentials> fetched;
+		try {
+			fetched = _store.fetch(references);
+		} catch (Throwable t) {
+			for (String reference : references) {
+				_pending.remove(reference).completeExceptionally(t);
+			}
+			return;
+		}
+		long expires = System.nanoTime() + _ttlNanos;
+		for (String reference : references) {
+			IVCapServiceCredentials credentials = fetched.get(reference);
+			CompletableFuture<IVCapServiceCredentials> future = _pending.remove(reference);
+			if (credentials == null) {
+				future.completeExceptionally(new IOException("No credentials for the reference '"
+						+ reference + "'."));
+			} else {
+				_cache.put(reference, new Entry(credentials, expires));
+				future.complete(credentials);
+			}
+		}
+	}
+
+	/**
+	 * Forgets the fetched credentials.
+	 */
+	public void clear() {
+		_cache.clear();
+	}
+
+	/**
+	 * Stops the threads. The pending references are not fetched.
+	 */
+	public void close() {
+		_executor.shutdownNow();
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.IVCapServiceCredentials;
+import org.intalio.cloudfoundry.vcapservices.IVCapServices;
+import org.intalio.cloudfoundry.vcapservices.NegatablePattern;
+
+/**
+ * Used by the classes generated for the {@link org.intalio.cloudfoundry.vcapservices.VCapServiceBinding}
+ * interfaces: selection of the service and conversion of the values.
+ * @author hmalphettes
+ */
+public final class GeneratedBindings {
+
+	private GeneratedBindings() {
+	}
+
+	/**
+	 * Direct lookups for literal selectors.
+	 * @param services
+	 * @param type The service type.
+	 * @param name The name of the service or null for the first service of the type.
+	 * @return The service.
+	 * @throws IllegalArgumentException when there is no such service.
+	 */
+	public static IVCapService select(IVCapServices services, String type, String name) {
+		IVCapService res = null;
+		if (name != null) {
+			res = services.getVCapServiceByName(name);
+			if (res != null && !type.equals(res.getServiceType())) {
+				res = null;
+			}
+		} else {
+			res = services.getVCapService(type, 0);
+		}
+		if (res == null) {
+			throw notFound(type, name);
+		}
+		return res;
+	}
+
+	/**
+	 * @param services
+	 * @param type
+	 * @param name
+	 * @return The first selected service.
+	 * @throws IllegalArgumentException when there is no such service.
+	 */
+	public static IVCapService select(IVCapServices services, NegatablePattern type, NegatablePattern name) {
+		List<IVCapService> selected = services.getVCapServices(type, name);
+		if (selected.isEmpty()) {
+			throw notFound(type, name);
+		}
+		return selected.get(0);
+	}
+
+	private static IllegalArgumentException notFound(Object type, Object name) {
+		return new IllegalArgumentException("Unable to find in VCAP_SERVICES a service for (service-type="
+				+ type + (name != null ? "; service-name=" + name : "") + ").");
+	}
+
+	/**
+	 * @param credentials
+	 * @param keys The keys to try in order.
+	 * @return The value of the first key defined or null.
+	 */
+	public static String string(IVCapServiceCredentials credentials, String... keys) {
+		for (String key : keys) {
+			String value = credentials.getString(key);
+			if (value != null) {
+				return value;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return The value or 0 when it is not defined.
+	 * @throws IllegalArgumentException when it is not a number.
+	 */
+	public static int toInt(String value, String key) {
+		try {
+			return value == null ? 0 : Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw invalid(value, key, e);
+		}
+	}
+
+	/**
+	 * @return The value or 0 when it is not defined.
+	 * @throws IllegalArgumentException when it is not a number.
+	 */
+	public static long toLong(String value, String key) {
+		try {
+			return value == null ? 0 : Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			throw invalid(value, key, e);
+		}
+	}
+
+	/**
+	 * @return The value or 0 when it is not defined.
+	 * @throws IllegalArgumentException when it is not a number.
+	 */
+	public static double toDouble(String value, String key) {
+		try {
+			return value == null ? 0 : Double.parseDouble(value.trim());
+		} catch (NumberFormatException e) {
+			throw invalid(value, key, e);
+		}
+	}
+
+	/**
+	 * @return The value or false when it is not defined.
+	 */
+	public static boolean toBoolean(String value, String key) {
+		return value != null && Boolean.parseBoolean(value.trim());
+	}
+
+	/**
+	 * @return The value or null when it is not defined.
+	 * @throws IllegalArgumentException when it is not a number.
+	 */
+	public static Integer toIntOrNull(String value, String key) {
+		return value == null ? null : Integer.valueOf(toInt(value, key));
+	}
+
+	/**
+	 * @return The value or null when it is not defined.
+	 * @throws IllegalArgumentException when it is not a number.
+	 */
+	public static Long toLongOrNull(String value, String key) {
+		return value == null ? null : Long.valueOf(toLong(value, key));
+	}
+
+	/**
+	 * @return The value or null when it is not defined.
+	 * @throws IllegalArgumentException when it is not a number.
+	 */
+	public static Double toDoubleOrNull(String value, String key) {
+		return value == null ? null : Double.valueOf(toDouble(value, key));
+	}
+
+	/**
+	 * @return The value or null when it is not defined.
+	 */
+	public static Boolean toBooleanOrNull(String value, String key) {
+		return value == null ? null : Boolean.valueOf(toBoolean(value, key));
+	}
+
+	/**
+	 * @return The value or null when it is not defined.
+	 * @throws IllegalArgumentException when it is not a URI.
+	 */
+	public static URI toURI(String value, String key) {
+		try {
+			return value == null ? null : new URI(value);
+		} catch (URISyntaxException e) {
+			throw invalid(value, key, e);
+		}
+	}
+
+	/**
+	 * @return The value or null when it is not defined.
+	 */
+	public static char[] toChars(String value, String key) {
+		return value == null ? null : value.toCharArray();
+	}
+
+	private static IllegalArgumentException invalid(String value, String key, Exception e) {
+		return new IllegalArgumentException("Unable to convert the value of the credentials key '"
+				+ key + "': " + e.getMessage(), e);
+	}
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.intalio.cloudfoundry.vcapservices.IHostResolver;
+
+/**
+ * Cache of the addresses of the hostnames of the credentials.
+ * <p>
+ * The hostnames are resolved concurrently ahead of time by {@link #prefetch(Collection)}.
+ * A cached address is fresh for the TTL. Past the TTL, {@link #get(String)} still
+ * answers the stale addresses while they are resolved again in the background:
+ * a reconnect storm never waits on the name service. {@link #start()} also refreshes
+ * all the entries periodically.
+ * </p>
+ * <p>
+ * The failures are cached for the shortest of the TTL and 5 seconds.
+ * A refresh that fails keeps the stale addresses for a grace period of one more TTL
+ * and retries after the same delay as a failure; past the grace period the failure is answered.
+ * </p>
+ * @author hmalphettes
+ */
+public class HostAddressCache implements Closeable {
+
+	private static final long MAX_NEGATIVE_TTL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+	private final IHostResolver _resolver;
+	private final long _ttlNanos;
+	private final ConcurrentHashMap<String, Entry> _entries = new ConcurrentHashMap<String, Entry>();
+	private final ThreadPoolExecutor _executor;
+	private ScheduledExecutorService _refresher;
+
+	/**
+	 * The resolved addresses or the failure of a hostname.
+	 */
+	private static final class Entry {
+		private final InetAddress[] _addresses;
+		private final UnknownHostException _error;
+		private final long _expires;
+		/** Until when the addresses are answered when their refresh fails. */
+		private final long _graceEnd;
+		private final AtomicBoolean _refreshing = new AtomicBoolean();
+
+		Entry(InetAddress[] addresses, UnknownHostException error, long expires, long graceEnd) {
+			_addresses = addresses;
+			_error = error;
+			_expires = expires;
+			_graceEnd = graceEnd;
+		}
+	}
+
+	/**
+	 * Uses the name service of the JVM.
+	 * @param ttlMillis How long the addresses are fresh.
+	 */
+	public HostAddressCache(long ttlMillis) {
+		this(SystemHostResolver.INSTANCE, ttlMillis, 8);
+	}
+
+	/**
+	 * @param resolver
+	 * @param ttlMillis How long the addresses are fresh.
+	 * @param parallelism The maximum number of hostnames resolved at the same time.
+	 */
+	public HostAddressCache(IHostResolver resolver, long ttlMillis, int parallelism) {
+		_resolver = resolver;
+		_ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+		final AtomicInteger count = new AtomicInteger();
+		_executor = new ThreadPoolExecutor(parallelism, parallelism, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "vcapservices-resolver-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		_executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Resolves the hostnames concurrently.
+	 * @param hostnames
+	 * @return Counted down once all the hostnames are resolved or have failed.
+	 */
+	public CountDownLatch prefetch(Collection<String> hostnames) {
+		LinkedHashSet<String> distinct = new LinkedHashSet<String>(hostnames);
+		distinct.remove(null);
+		final CountDownLatch done = new CountDownLatch(distinct.size());
+		for (final String hostname : distinct) {
+			try {
+				_executor.execute(new Runnable() {
+					public void run() {
+						try {
+							resolve(hostname);
+						} finally {
+							done.countDown();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// closed: the hostnames are resolved on demand by get.
+				done.countDown();
+			}
+		}
+		return done;
+	}
+
+	/**
+	 * @param hostname
+	 * @return The cached addresses. Resolves them when they are not cached yet;
+	 * refreshes them in the background when they are stale.
+	 * @throws UnknownHostException when the host is not known.
+	 */
+	public InetAddress[] get(String hostname) throws UnknownHostException {
+		Entry entry = _entries.get(hostname);
+		if (entry == null) {
+			entry = resolve(hostname);
+		} else if (System.nanoTime() - entry._expires > 0) {
+			refreshInBackground(hostname, entry);
+		}
+		if (entry._error != null) {
+			throw entry._error;
+		}
+		return entry._addresses.clone();
+	}
+
+	/**
+	 * @param hostname
+	 * @return The first cached address or null when the host is not cached or not known.
+	 * Never blocks on the name service.
+	 */
+	public InetAddress getCachedAddress(String hostname) {
+		Entry entry = _entries.get(hostname);
+		if (entry == null || entry._addresses == null || entry._addresses.length == 0) {
+			return null;
+		}
+		if (System.nanoTime() - entry._expires > 0) {
+			refreshInBackground(hostname, entry);
+		}
+		return entry._addresses[0];
+	}
+
+	/**
+	 * @return The number of cached hostnames.
+	 */
+	public int size() {
+		return _entries.size();
+	}
+
+	/**
+	 * Refreshes all the cached hostnames at the TTL interval.
+	 */
+	public synchronized void start() {
+		if (_refresher != null) {
+			return;
+		}
+		_refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "vcapservices-resolver-refresh");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		long period = Math.max(1, TimeUnit.NANOSECONDS.toMillis(_ttlNanos));
+		_refresher.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				prefetch(_entries.keySet());
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops the background threads.
+	 */
+	public synchronized void close() {
+		if (_refresher != null) {
+			_refresher.shutdownNow();
+			_refresher = null;
+		}
+		_executor.shutdownNow();
+	}
+
+	private void refreshInBackground(final String hostname, final Entry entry) {
+		if (entry._refreshing.compareAndSet(false, true)) {
+			try {
+				_executor.execute(new Runnable() {
+					public void run() {
+						resolve(hostname);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// closed: keep answering the stale addresses.
+				entry._refreshing.set(false);
+			}
+		}
+	}
+
+	private Entry resolve(String hostname) {
+		Entry entry;
+		try {
+			long now = System.nanoTime();
+			entry = new Entry(_resolver.resolve(hostname), null, now + _ttlNanos, now + 2 * _ttlNanos);
+		} catch (UnknownHostException e) {
+			long now = System.nanoTime();
+			long retry = now + Math.min(_ttlNanos, MAX_NEGATIVE_TTL_NANOS);
+			Entry stale = _entries.get(hostname);
+			if (stale != null && stale._addresses != null && now - stale._graceEnd < 0) {
+				// keep answering the stale addresses until the end of their grace period.
+				entry = new Entry(stale._addresses, null, Math.min(retry, stale._graceEnd), stale._graceEnd);
+			} else {
+				entry = new Entry(null, e, retry, retry);
+			}
+		}
+		_entries.put(hostname, entry);
+		return entry;
+	}
+
+}
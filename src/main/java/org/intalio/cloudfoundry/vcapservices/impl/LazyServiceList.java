@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.json.JSONException;
+
+/**
+ * Unmodifiable list of the services of a service type that is parsed
+ * the first time one of its services is read.
+ * <p>
+ * The scan of VCAP_SERVICES records the range of characters of the array
+ * and the names of the services: the size and the names are known
+ * without parsing the services.
+ * The range of characters is kept once the services are parsed: two lists are
+ * compared by their payloads when the services are reloaded.
+ * </p>
+ * @author hmalphettes
+ */
+final class LazyServiceList extends AbstractList<IVCapService> implements RandomAccess {
+
+	private final String _serviceType;
+	private final String[] _names;
+	private final boolean _resolveSysProperty;
+	/** The VCAP_SERVICES string. */
+	private final String _src;
+	private final int _start;
+	private final int _end;
+	private volatile ServiceList _services;
+
+	/**
+	 * @param src The VCAP_SERVICES string.
+	 * @param start The index of the '[' of the array.
+	 * @param end The index after the ']' of the array.
+	 * @param serviceType
+	 * @param names The names of the services found by the scan.
+	 * @param resolveSysProperty
+	 */
+	LazyServiceList(String src, int start, int end, String serviceType,
+			String[] names, boolean resolveSysProperty) {
+		_src = src;
+		_start = start;
+		_end = end;
+		_serviceType = serviceType;
+		_names = names;
+		_resolveSysProperty = resolveSysProperty;
+	}
+
+	public IVCapService get(int index) {
+		return services().get(index);
+	}
+
+	public int size() {
+		return _names.length;
+	}
+
+	/**
+	 * @return The names of the services. Not copied: must not be modified.
+	 */
+	String[] getNames() {
+		return _names;
+	}
+
+	/**
+	 * @return true once the services are parsed.
+	 */
+	boolean isParsed() {
+		return _services != null;
+	}
+
+	/**
+	 * Does not parse the services.
+	 * @param other
+	 * @return true when the two lists were scanned from the same characters
+	 * with the same substitution of the system properties.
+	 */
+	boolean hasSamePayload(LazyServiceList other) {
+		int length = _end - _start;
+		return _resolveSysProperty == other._resolveSysProperty && length == other._end - other._start
+				&& _src.regionMatches(_start, other._src, other._start, length);
+	}
+
+	/**
+	 * @return The parsed services.
+	 */
+	ServiceList services() {
+		ServiceList services = _services;
+		if (services != null) {
+			return services;
+		}
+		synchronized (this) {
+			services = _services;
+			if (services == null) {
+				try {
+					services = new VCapServicesParser(_src, _start, _end,
+							_resolveSysProperty).parseServiceArray(_serviceType);
+				} catch (JSONException e) {
+					// the scan already checked the syntax.
+					throw new IllegalStateException("Unable to parse the services of the type '"
+							+ _serviceType + "'", e);
+				}
+				_services = services;
+			}
+		}
+		return services;
+	}
+
+}
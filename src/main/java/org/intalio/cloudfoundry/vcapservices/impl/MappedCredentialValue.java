@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A credentials value held by a file that is mapped in memory on first access.
+ * For example a certificate or a keystore of a {@link ServiceBindingDirectory}.
+ * <p>
+ * The file is opened by the path it was scanned with: the timestamped directory
+ * a secret volume links to is deleted when the secret is rotated.
+ * Two values are equal when they were scanned from the same real file with the same
+ * size and modification time: comparing the services on reload does not read the files.
+ * </p>
+ * @author hmalphettes
+ */
+final class MappedCredentialValue {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Path _path;
+	private final Path _realPath;
+	private final long _size;
+	private final long _lastModified;
+	private volatile ByteBuffer _buffer;
+	private volatile String _string;
+
+	/**
+	 * @param path The path of the file as it was scanned.
+	 * @param realPath The real path of the file when it was scanned.
+	 * @param size The size of the file when it was scanned.
+	 * @param lastModified The modification time of the file when it was scanned.
+	 */
+	MappedCredentialValue(Path path, Path realPath, long size, long lastModified) {
+		_path = path;
+		_realPath = realPath;
+		_size = size;
+		_lastModified = lastModified;
+	}
+
+	/**
+	 * @return The file.
+	 */
+	Path getPath() {
+		return _path;
+	}
+
+	/**
+	 * @return A read-only view of the mapped file with its own position.
+	 * @throws IllegalStateException when the file can't be mapped anymore.
+	 */
+	ByteBuffer buffer() {
+		ByteBuffer buffer = _buffer;
+		if (buffer == null) {
+			synchronized (this) {
+				buffer = _buffer;
+				if (buffer == null) {
+					buffer = map();
+					_buffer = buffer;
+				}
+			}
+		}
+		return buffer.asReadOnlyBuffer();
+	}
+
+	private ByteBuffer map() {
+		try {
+			FileChannel channel = FileChannel.open(_path, StandardOpenOption.READ);
+			try {
+				// the mapping remains valid once the channel is closed.
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} finally {
+				channel.close();
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Unable to map the credentials value '" + _path + "'", e);
+		}
+	}
+
+	/**
+	 * @return The content decoded as UTF-8.
+	 */
+	public String toString() {
+		String string = _string;
+		if (string == null) {
+			string = UTF8.decode(buffer()).toString();
+			_string = string;
+		}
+		return string;
+	}
+
+	public int hashCode() {
+		return _realPath.hashCode() * 31 + (int)(_size ^ _lastModified);
+	}
+
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof MappedCredentialValue)) {
+			return false;
+		}
+		MappedCredentialValue other = (MappedCredentialValue)obj;
+		return _realPath.equals(other._realPath) && _size == other._size && _lastModified == other._lastModified;
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.intalio.cloudfoundry.vcapservices.IPropertySource;
+
+/**
+ * A string with ${sysprop} and ${sysprop,defaultvalue} placeholders parsed once
+ * into a list of literal and placeholder segments.
+ * <p>
+ * Rendering appends the segments to a single StringBuilder: it is linear in the
+ * size of the result. The default value of a placeholder is itself a template.
+ * </p>
+ * <p>
+ * The compiled templates are cached by their source string.
+ * </p>
+ * @author hmalphettes
+ */
+public final class PropertyTemplate {
+
+	/** The cache is cleared when it grows beyond this size. */
+	private static final int MAX_CACHED_TEMPLATES = 1024;
+
+	private static final ConcurrentHashMap<String, PropertyTemplate> CACHE =
+			new ConcurrentHashMap<String, PropertyTemplate>();
+
+	private final String _source;
+	/** Either literal Strings or Placeholders. */
+	private final Object[] _segments;
+
+	private static final class Placeholder {
+		private final String _key;
+		private final PropertyTemplate _defaultValue;
+
+		private Placeholder(String key, PropertyTemplate defaultValue) {
+			_key = key;
+			_defaultValue = defaultValue;
+		}
+	}
+
+	private PropertyTemplate(String source, Object[] segments) {
+		_source = source;
+		_segments = segments;
+	}
+
+	/**
+	 * @param value A string that might contain ${sysprop,defaultvalue} placeholders.
+	 * @return The cached or newly compiled template.
+	 */
+	public static PropertyTemplate compile(String value) {
+		PropertyTemplate template = CACHE.get(value);
+		if (template == null) {
+			template = parse(value);
+			if (CACHE.size() >= MAX_CACHED_TEMPLATES) {
+				CACHE.clear();
+			}
+			CACHE.put(value, template);
+		}
+		return template;
+	}
+
+	/**
+	 * Same substitutions as the original recursive resolution:
+	 * the placeholder ends at the first '}' after the '${'
+	 * and a placeholder without a default value is left as is.
+	 */
+	private static PropertyTemplate parse(String value) {
+		ArrayList<Object> segments = new ArrayList<Object>(3);
+		int from = 0;
+		while (true) {
+			int ind = value.indexOf("${", from);
+			int ind2 = ind == -1 ? -1 : value.indexOf('}', ind);
+			if (ind2 == -1) {
+				if (from < value.length()) {
+					segments.add(value.substring(from));
+				}
+				break;
+			}
+			if (ind > from) {
+				segments.add(value.substring(from, ind));
+			}
+			String sysprop = value.substring(ind + 2, ind2);
+			int comma = sysprop.indexOf(',');
+			if (comma != -1 && comma + 1 != sysprop.length()) {
+				segments.add(new Placeholder(sysprop.substring(0, comma),
+						parse(sysprop.substring(comma + 1))));
+			} else {
+				segments.add(new Placeholder(sysprop, new PropertyTemplate(null,
+						new Object[] { "${" + sysprop + "}" })));
+			}
+			from = ind2 + 1;
+		}
+		return new PropertyTemplate(value, segments.toArray());
+	}
+
+	/**
+	 * @return true when there is nothing to substitute.
+	 */
+	public boolean isLiteral() {
+		for (Object segment : _segments) {
+			if (segment instanceof Placeholder) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The value with the placeholders substituted from the system properties
+	 * and environment variables.
+	 */
+	public String render() {
+		return render(SystemPropertySource.INSTANCE);
+	}
+
+	/**
+	 * @param properties
+	 * @return The value with the placeholders substituted from the given source.
+	 */
+	public String render(IPropertySource properties) {
+		Object[] segments = _segments;
+		if (segments.length == 1 && segments[0] instanceof String) {
+			return (String)segments[0];
+		}
+		StringBuilder sb = new StringBuilder(_source != null ? _source.length() + 16 : 32);
+		appendTo(sb, properties);
+		return sb.toString();
+	}
+
+	private void appendTo(StringBuilder sb, IPropertySource properties) {
+		for (Object segment : _segments) {
+			if (segment instanceof String) {
+				sb.append((String)segment);
+			} else {
+				Placeholder placeholder = (Placeholder)segment;
+				String v = properties.getProperty(placeholder._key);
+				if (v != null) {
+					sb.append(v);
+				} else {
+					placeholder._defaultValue.appendTo(sb, properties);
+				}
+			}
+		}
+	}
+
+	public String toString() {
+		return _source;
+	}
+}
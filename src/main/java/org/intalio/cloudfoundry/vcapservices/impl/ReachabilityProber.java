@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.IVCapServiceCredentials;
+import org.intalio.cloudfoundry.vcapservices.IVCapServices;
+import org.intalio.cloudfoundry.vcapservices.LatencyHistogram;
+import org.intalio.cloudfoundry.vcapservices.ReachabilityStatus;
+
+/**
+ * Probes on a schedule that the hostname and port of every bound service accept
+ * TCP connections.
+ * <p>
+ * All the connects of a round are multiplexed on a single {@link Selector}
+ * by a single thread: the number of threads does not depend on the number
+ * of services. The durations of the successful connects are kept in a
+ * {@link LatencyHistogram} per service.
+ * </p>
+ * <p>
+ * The services are read again at each round: the services added by a reload
+ * are probed and the status of the removed ones is forgotten.
+ * </p>
+ * <p>
+ * The selector thread never blocks on the name service: the hostnames are resolved
+ * by the threads of a {@link HostAddressCache}. A round waits for the hostnames
+ * that are not cached until the timeout at most, then for the connects until the timeout.
+ * </p>
+ * @author hmalphettes
+ */
+public class ReachabilityProber implements Closeable {
+
+	private final IVCapServices _services;
+	private final long _intervalMillis;
+	private final long _timeoutMillis;
+	private final Selector _selector;
+	/** The state of each service indexed by its type and name. */
+	private final ConcurrentHashMap<String, State> _states = new ConcurrentHashMap<String, State>();
+	/** Resolves the hostnames when no cache is set. */
+	private final HostAddressCache _ownHostAddresses;
+	private volatile HostAddressCache _hostAddresses;
+	private Thread _thread;
+	private volatile boolean _closed;
+	private volatile Exception _lastError;
+
+	/**
+	 * The state of the probes of a service. Only written by the thread that probes.
+	 */
+	private static final class State {
+		private final LatencyHistogram _latencies = new LatencyHistogram();
+		private int _consecutiveFailures;
+		private volatile ReachabilityStatus _status;
+	}
+
+	/**
+	 * A connect in progress.
+	 */
+	private static final class Probe {
+		private final IVCapService _service;
+		private final State _state;
+		private long _start;
+
+		Probe(IVCapService service, State state) {
+			_service = service;
+			_state = state;
+		}
+
+		void succeeded() {
+			long latency = System.nanoTime() - _start;
+			_state._latencies.record(latency);
+			_state._consecutiveFailures = 0;
+			_state._status = new ReachabilityStatus(_service, true, latency,
+					System.currentTimeMillis(), null, 0, _state._latencies);
+		}
+
+		void failed(String error) {
+			ReachabilityStatus previous = _state._status;
+			_state._consecutiveFailures++;
+			_state._status = new ReachabilityStatus(_service, false,
+					previous != null ? previous.getLatency(TimeUnit.NANOSECONDS) : 0,
+					System.currentTimeMillis(), error, _state._consecutiveFailures, _state._latencies);
+		}
+	}
+
+	/**
+	 * @param services
+	 * @param intervalMillis The delay between the end of a round and the start of the next one.
+	 * @param timeoutMillis How long a round waits for the hostnames that are not cached, then for the connects.
+	 * @throws IOException when the selector cannot be opened.
+	 */
+	public ReachabilityProber(IVCapServices services, long intervalMillis, long timeoutMillis) throws IOException {
+		_services = services;
+		_intervalMillis = intervalMillis;
+		_timeoutMillis = timeoutMillis;
+		_selector = Selector.open();
+		_ownHostAddresses = new HostAddressCache(TimeUnit.MINUTES.toMillis(1));
+	}
+
+	/**
+	 * @param hostAddresses Resolves the hostnames without blocking the probes
+	 * on the name service. By default the prober has its own cache with a TTL of one minute.
+	 */
+	public void setHostAddressCache(HostAddressCache hostAddresses) {
+		_hostAddresses = hostAddresses;
+	}
+
+	/**
+	 * Starts the daemon thread that probes the services at each interval.
+	 */
+	public synchronized void start() {
+		if (_thread != null) {
+			return;
+		}
+		_thread = new Thread("vcapservices-prober") {
+			public void run() {
+				while (!_closed) {
+					try {
+						probe();
+						_lastError = null;
+					} catch (Exception e) {
+						if (_closed) {
+							return;
+						}
+						// the next round probes again.
+						_lastError = e;
+					}
+					try {
+						Thread.sleep(_intervalMillis);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		};
+		_thread.setDaemon(true);
+		_thread.start();
+	}
+
+	/**
+	 * Stops the thread and closes the selector.
+	 */
+	public void close() throws IOException {
+		_closed = true;
+		Thread thread;
+		synchronized (this) {
+			thread = _thread;
+		}
+		if (thread != null) {
+			thread.interrupt();
+			_selector.wakeup();
+		}
+		synchronized (_selector) {
+			_selector.close();
+		}
+		_ownHostAddresses.close();
+	}
+
+	/**
+	 * @return The failure of the last round of the thread started by {@link #start()}
+	 * or null when it succeeded.
+	 */
+	public Exception getLastError() {
+		return _lastError;
+	}
+
+	/**
+	 * @param service
+	 * @return The status of the latest probe of the service or null when it was not probed yet.
+	 */
+	public ReachabilityStatus getStatus(IVCapService service) {
+		State state = _states.get(key(service));
+		return state == null ? null : state._status;
+	}
+
+	/**
+	 * @return The status of the services probed so far.
+	 */
+	public List<ReachabilityStatus> getStatuses() {
+		ArrayList<ReachabilityStatus> res = new ArrayList<ReachabilityStatus>();
+		for (List<IVCapService> servs : _services.getVCapServices().values()) {
+			for (IVCapService service : servs) {
+				ReachabilityStatus status = getStatus(service);
+				if (status != null) {
+					res.add(status);
+				}
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * Probes all the services once: starts all the connects then waits for them
+	 * until the timeout.
+	 * @throws IOException when the selector fails.
+	 */
+	public void probe() throws IOException {
+		synchronized (_selector) {
+			if (!_selector.isOpen()) {
+				throw new IOException("The prober is closed.");
+			}
+			long timeout = TimeUnit.MILLISECONDS.toNanos(_timeoutMillis);
+			HostAddressCache hostAddresses = _hostAddresses;
+			if (hostAddresses == null) {
+				hostAddresses = _ownHostAddresses;
+			}
+			HashSet<String> bound = new HashSet<String>();
+			ArrayList<Probe> probes = new ArrayList<Probe>();
+			LinkedHashSet<String> unresolved = new LinkedHashSet<String>();
+			for (List<IVCapService> servs : _services.getVCapServices().values()) {
+				for (IVCapService service : servs) {
+					String key = key(service);
+					bound.add(key);
+					State state = _states.get(key);
+					if (state == null) {
+						state = new State();
+						_states.put(key, state);
+					}
+					probes.add(new Probe(service, state));
+					String hostname = service.getCredentials().getHostname();
+					if (hostname != null && hostAddresses.getCachedAddress(hostname) == null) {
+						unresolved.add(hostname);
+					}
+				}
+			}
+			_states.keySet().retainAll(bound);
+			if (!unresolved.isEmpty()) {
+				try {
+					hostAddresses.prefetch(unresolved).await(timeout, TimeUnit.NANOSECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			long deadline = System.nanoTime() + timeout;
+			int pending = 0;
+			for (Probe probe : probes) {
+				if (connect(probe, hostAddresses)) {
+					pending++;
+				}
+			}
+			while (pending > 0 && !_closed && !Thread.currentThread().isInterrupted()) {
+				long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+				if (left <= 0) {
+					break;
+				}
+				_selector.select(left);
+				Iterator<SelectionKey> it = _selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					pending--;
+					finishConnect(key);
+				}
+			}
+			for (SelectionKey key : _selector.keys()) {
+				if (key.isValid()) {
+					if (!_closed) {
+						((Probe)key.attachment()).failed("Timed out after " + _timeoutMillis + "ms");
+					}
+					closeQuietly(key);
+				}
+			}
+			// flushes the cancelled keys.
+			_selector.selectNow();
+		}
+	}
+
+	/**
+	 * @return true when the connect is in progress.
+	 */
+	private boolean connect(Probe probe, HostAddressCache hostAddresses) {
+		IVCapServiceCredentials cred = probe._service.getCredentials();
+		String hostname = cred.getHostname();
+		int port = cred.getPort();
+		if (hostname == null || port <= 0 || port > 0xFFFF) {
+			probe.failed("No hostname and port");
+			return false;
+		}
+		InetAddress inet = hostAddresses.getCachedAddress(hostname);
+		if (inet == null) {
+			probe.failed("Unknown host " + hostname);
+			return false;
+		}
+		SocketChannel channel = null;
+		probe._start = System.nanoTime();
+		try {
+			InetSocketAddress address = new InetSocketAddress(inet, port);
+			channel = SocketChannel.open();
+			channel.configureBlocking(false);
+			if (channel.connect(address)) {
+				probe.succeeded();
+				channel.close();
+				return false;
+			}
+			channel.register(_selector, SelectionKey.OP_CONNECT, probe);
+			return true;
+		} catch (IOException e) {
+			probe.failed(e.toString());
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException ce) {
+					// failed anyway.
+				}
+			}
+			return false;
+		}
+	}
+
+	private static void finishConnect(SelectionKey key) {
+		Probe probe = (Probe)key.attachment();
+		try {
+			if (((SocketChannel)key.channel()).finishConnect()) {
+				probe.succeeded();
+			} else {
+				probe.failed("Not connected");
+			}
+		} catch (IOException e) {
+			probe.failed(e.toString());
+		}
+		closeQuietly(key);
+	}
+
+	private static void closeQuietly(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// only probing.
+		}
+	}
+
+	private static String key(IVCapService service) {
+		return service.getServiceType() + '\n' + service.getName();
+	}
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapServiceCredentials;
+
+/**
+ * Immutable snapshot of credentials where the system properties
+ * and environment variables have been substituted once and for all.
+ * <p>
+ * Created by {@link VCapServiceCredentials#resolve()} and
+ * {@link VCapServiceCredentials#refresh()}.
+ * </p>
+ * @author hmalphettes
+ */
+public final class ResolvedVCapServiceCredentials implements IVCapServiceCredentials {
+
+	private final String _name;
+	private final String _hostname;
+	private final int _port;
+	private final String _user;
+	private final String _username;
+	private final String _password;
+	private final String _db;
+	private final String[] _keys;
+	/** The resolved value of each key. */
+	private final String[] _strings;
+
+	/**
+	 * @param name
+	 * @param hostname
+	 * @param port -1 when not defined.
+	 * @param user The user or the username when there is no user.
+	 * @param username The username or the user when there is no username.
+	 * @param password
+	 * @param db
+	 */
+	public ResolvedVCapServiceCredentials(String name, String hostname, int port,
+			String user, String username, String password, String db) {
+		this(name, hostname, port, user, username, password, db, null, null);
+	}
+
+	/**
+	 * @param name
+	 * @param hostname
+	 * @param port -1 when not defined.
+	 * @param user The user or the username when there is no user.
+	 * @param username The username or the user when there is no username.
+	 * @param password
+	 * @param db
+	 * @param keys All the keys or null for the keys of the other arguments.
+	 * @param strings The resolved value of each key. Not copied.
+	 */
+	ResolvedVCapServiceCredentials(String name, String hostname, int port,
+			String user, String username, String password, String db,
+			String[] keys, String[] strings) {
+		if (keys == null) {
+			ArrayList<String> k = new ArrayList<String>();
+			ArrayList<String> v = new ArrayList<String>();
+			String[] fixed = { "name", name, "hostname", hostname, "port", port != -1 ? String.valueOf(port) : null,
+					"user", user, "username", username, "password", password, "db", db };
+			for (int i = 0; i < fixed.length; i += 2) {
+				if (fixed[i + 1] != null) {
+					k.add(fixed[i]);
+					v.add(fixed[i + 1]);
+				}
+			}
+			keys = k.toArray(new String[k.size()]);
+			strings = v.toArray(new String[v.size()]);
+		}
+		_keys = keys;
+		_strings = strings;
+		_name = name;
+		_hostname = hostname;
+		_port = port;
+		_user = user;
+		_username = username;
+		_password = password;
+		_db = db;
+	}
+
+	/**
+	 * @return The name of the app service.
+	 * For example, the database name or the top-level collection.
+	 */
+	public String getName() {
+		return _name;
+	}
+	/**
+	 * @return The IP or hostname where the service runs.
+	 */
+	public String getHostname() {
+		return _hostname;
+	}
+	/**
+	 * @return The port where it is accessible or -1.
+	 */
+	public int getPort() {
+		return _port;
+	}
+	/**
+	 * @return The name of the user.
+	 */
+	public String getUser() {
+		return _user;
+	}
+	/**
+	 * @return The name of the user.
+	 */
+	public String getUsername() {
+		return _username;
+	}
+	/**
+	 * @return The password.
+	 */
+	public String getPassword() {
+		return _password;
+	}
+	/**
+	 * @return The db value or null when not defined. Used in mongodb.
+	 */
+	public String getDb() {
+		return _db;
+	}
+
+	public String getString(String key) {
+		for (int i = 0; i < _keys.length; i++) {
+			if (key.equals(_keys[i])) {
+				return _strings[i];
+			}
+		}
+		return null;
+	}
+
+	public List<String> getKeys() {
+		return Collections.unmodifiableList(Arrays.asList(_keys));
+	}
+}
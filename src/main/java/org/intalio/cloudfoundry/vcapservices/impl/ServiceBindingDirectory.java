@@ -0,0 +1,253 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map.Entry;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.IVCapServicesSource;
+import org.json.JSONObject;
+
+/**
+ * The Kubernetes service bindings mounted as a directory tree:
+ * one directory per binding and one file per credentials key.
+ * <pre>
+ * $SERVICE_BINDING_ROOT/
+ *   orders-db/
+ *     type       postgresql
+ *     provider   bitnami
+ *     host       10.0.0.12
+ *     port       5432
+ *     ca.crt     -----BEGIN CERTIFICATE-----...
+ * </pre>
+ * <p>
+ * A binding becomes a service: its type is the service type and the label,
+ * the name of its directory is the name of the service, its provider is a tag
+ * and its other files are the credentials. The directories without a type file
+ * and the hidden entries such as the ..data links of the secret volumes are skipped.
+ * </p>
+ * <p>
+ * The files up to the mapped threshold are read when the tree is scanned, without their
+ * trailing line breaks. The larger ones are mapped in memory on first access:
+ * see {@link VCapServiceCredentials#getBuffer(String)}.
+ * The tree is scanned again by {@link VCapServices#reload()}.
+ * </p>
+ * @author hmalphettes
+ */
+public final class ServiceBindingDirectory implements IVCapServicesSource {
+
+	/** The environment variable or system property that locates the bindings. */
+	public static final String SERVICE_BINDING_ROOT = "SERVICE_BINDING_ROOT";
+
+	/** The size in bytes above which the values are mapped on first access. */
+	public static final int DEFAULT_MAPPED_THRESHOLD = 4096;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Path _root;
+	private final long _mappedThreshold;
+
+	/**
+	 * @param root The directory of the bindings or null when there are none.
+	 */
+	public ServiceBindingDirectory(Path root) {
+		this(root, DEFAULT_MAPPED_THRESHOLD);
+	}
+
+	/**
+	 * @param root The directory of the bindings or null when there are none.
+	 * @param mappedThreshold The size in bytes above which the values are mapped on first access.
+	 */
+	public ServiceBindingDirectory(Path root, long mappedThreshold) {
+		_root = root;
+		_mappedThreshold = mappedThreshold;
+	}
+
+	/**
+	 * @return The directory of the bindings or null.
+	 */
+	public Path getRoot() {
+		return _root;
+	}
+
+	/**
+	 * The files above the mapped threshold are read too, without being mapped:
+	 * {@link VCapServices} scans the tree instead and reads them on first access.
+	 * @return The services formatted like VCAP_SERVICES or null when the directory
+	 * does not exist.
+	 */
+	public String getServices() throws IOException {
+		LinkedHashMap<String, List<IVCapService>> services = scan();
+		if (services == null) {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder("{");
+		for (Entry<String, List<IVCapService>> e : services.entrySet()) {
+			if (sb.length() > 1) {
+				sb.append(',');
+			}
+			sb.append(JSONObject.quote(e.getKey())).append(":[");
+			for (int i = 0; i < e.getValue().size(); i++) {
+				VCapService service = (VCapService)e.getValue().get(i);
+				VCapServiceCredentials cred = (VCapServiceCredentials)service.getCredentials();
+				sb.append(i == 0 ? "{" : ",{");
+				sb.append("\"name\":").append(JSONObject.quote(service.getName()));
+				sb.append(",\"label\":").append(JSONObject.quote(service.getLabel()));
+				if (service.getTags() != null) {
+					sb.append(",\"tags\":[").append(JSONObject.quote(service.getTags()[0])).append(']');
+				}
+				sb.append(",\"credentials\":{");
+				String[] keys = cred.keys();
+				Object[] values = cred.values();
+				for (int j = 0; j < keys.length; j++) {
+					if (j != 0) {
+						sb.append(',');
+					}
+					String value = values[j] instanceof MappedCredentialValue
+							? new String(Files.readAllBytes(((MappedCredentialValue)values[j]).getPath()), UTF8)
+							: values[j].toString();
+					sb.append(JSONObject.quote(keys[j])).append(':').append(JSONObject.quote(value));
+				}
+				sb.append("}}");
+			}
+			sb.append(']');
+		}
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * The values are never substituted.
+	 */
+	public boolean isResolveSysProperty() {
+		return false;
+	}
+
+	/**
+	 * @return The services indexed by type in the order of the names of the bindings,
+	 * or null when the directory does not exist.
+	 * @throws IOException
+	 */
+	LinkedHashMap<String, List<IVCapService>> scan() throws IOException {
+		if (_root == null || !Files.isDirectory(_root)) {
+			return null;
+		}
+		LinkedHashMap<String, List<IVCapService>> res = new LinkedHashMap<String, List<IVCapService>>();
+		for (Path dir : list(_root)) {
+			if (!Files.isDirectory(dir)) {
+				continue;
+			}
+			VCapService service = scanBinding(dir);
+			if (service == null) {
+				continue;
+			}
+			List<IVCapService> servs = res.get(service.getServiceType());
+			if (servs == null) {
+				servs = new ArrayList<IVCapService>();
+				res.put(service.getServiceType(), servs);
+			}
+			servs.add(service);
+		}
+		return res;
+	}
+
+	/**
+	 * @param dir The directory of a binding.
+	 * @return The service or null when the binding has no type.
+	 */
+	private VCapService scanBinding(Path dir) throws IOException {
+		String type = null;
+		String provider = null;
+		ArrayList<String> keys = new ArrayList<String>();
+		ArrayList<Object> values = new ArrayList<Object>();
+		for (Path file : list(dir)) {
+			if (!Files.isRegularFile(file)) {
+				continue;
+			}
+			String key = file.getFileName().toString();
+			if (key.equals("type")) {
+				type = read(file);
+			} else if (key.equals("provider")) {
+				provider = read(file);
+			} else {
+				keys.add(key);
+				long size = Files.size(file);
+				values.add(size > _mappedThreshold
+						? new MappedCredentialValue(file, file.toRealPath(), size,
+								Files.getLastModifiedTime(file).toMillis())
+						: read(file));
+			}
+		}
+		if (type == null || type.length() == 0) {
+			return null;
+		}
+		VCapServiceCredentials cred = new VCapServiceCredentials(
+				keys.toArray(new String[keys.size()]), values.toArray(), false);
+		return new VCapService(type, dir.getFileName().toString(), type, null,
+				provider != null ? new String[] { provider } : null, cred, false);
+	}
+
+	/**
+	 * @return The entries of a directory sorted by name, without the hidden ones.
+	 */
+	private static List<Path> list(Path dir) throws IOException {
+		ArrayList<Path> res = new ArrayList<Path>();
+		DirectoryStream<Path> stream = Files.newDirectoryStream(dir);
+		try {
+			for (Path p : stream) {
+				if (!p.getFileName().toString().startsWith(".")) {
+					res.add(p);
+				}
+			}
+		} finally {
+			stream.close();
+		}
+		Collections.sort(res);
+		return res;
+	}
+
+	/**
+	 * @return The content of a small file without its trailing line breaks.
+	 */
+	private static String read(Path file) throws IOException {
+		String str = new String(Files.readAllBytes(file), UTF8);
+		int end = str.length();
+		while (end > 0 && (str.charAt(end - 1) == '\n' || str.charAt(end - 1) == '\r')) {
+			end--;
+		}
+		return str.substring(0, end);
+	}
+
+	public String toString() {
+		return "bindings:" + _root;
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.RandomAccess;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+
+/**
+ * Unmodifiable list of services backed by an array.
+ * It is shared by all the readers: no defensive copy.
+ * @author hmalphettes
+ */
+final class ServiceList extends AbstractList<IVCapService> implements RandomAccess {
+
+	static final ServiceList EMPTY = new ServiceList(new IVCapService[0]);
+
+	private final IVCapService[] _services;
+
+	/**
+	 * @param services Not copied: must not be modified afterwards.
+	 */
+	ServiceList(IVCapService[] services) {
+		_services = services;
+	}
+
+	/**
+	 * @param services Copied.
+	 */
+	static ServiceList copyOf(Collection<? extends IVCapService> services) {
+		if (services.isEmpty()) {
+			return EMPTY;
+		}
+		return new ServiceList(services.toArray(new IVCapService[services.size()]));
+	}
+
+	public IVCapService get(int index) {
+		return _services[index];
+	}
+
+	public int size() {
+		return _services.length;
+	}
+
+	/**
+	 * @return The backing array: must not be modified.
+	 */
+	IVCapService[] array() {
+		return _services;
+	}
+}
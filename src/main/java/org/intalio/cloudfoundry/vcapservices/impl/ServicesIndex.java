@@ -0,0 +1,764 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.NegatablePattern;
+import org.intalio.cloudfoundry.vcapservices.NegatablePattern.MatchKind;
+import org.intalio.cloudfoundry.vcapservices.ServiceVersion;
+import org.intalio.cloudfoundry.vcapservices.TagSelector;
+
+/**
+ * Query index over the services built once when they are parsed.
+ * <p>
+ * Exact maps by type, label, plan and tag.
+ * Sorted prefix indexes over the service types and the service names:
+ * selectors that are a literal prefix such as <code>^postgres.*</code> become a binary
+ * search instead of a match on every key.
+ * Interned tag and plan ids with a bitset of the services for each one of them:
+ * a {@link TagSelector} is evaluated with a few word-wide AND/OR operations.
+ * The results of the pattern and tag queries are memoized.
+ * The services of each product are sorted by version: selecting the newest one or
+ * the ones of a version such as 5.x is a binary search instead of a regexp on every type.
+ * </p>
+ * <p>
+ * The type and name indexes only read the names of the services. The label,
+ * plan and tag indexes are built on first use: the services of a
+ * {@link LazyServiceList} are only parsed when they are selected.
+ * </p>
+ * @author hmalphettes
+ */
+final class ServicesIndex {
+
+	private static final int[] NO_INDEXES = new int[0];
+
+	/** The memoized results are cleared when there are more than this number of them. */
+	private static final int MAX_MEMOIZED = 512;
+
+	/** The service types in document order. */
+	private final String[] _types;
+	/** The services of each type: they might be parsed on first access. See {@link LazyServiceList}. */
+	private final List<IVCapService>[] _servicesOfType;
+	/** The ordinal of the first service of each type. */
+	private final int[] _firstOrdinal;
+	/** The index of the type of each service. */
+	private final int[] _typeOfOrdinal;
+	/** The name of each service. */
+	private final String[] _nameOfOrdinal;
+
+	private final Map<String, Integer> _typeIndex = new HashMap<String, Integer>();
+	private final Map<String, Integer> _nameOrdinal = new HashMap<String, Integer>();
+	private final PrefixIndex _typePrefixes;
+	private final PrefixIndex _namePrefixes;
+
+	/** The indexes by label, plan and tag: they read every service and are built on first use. */
+	private volatile Attributes _attributes;
+
+	/** The services of each product sorted by version: built on first use. */
+	private volatile Versions _versions;
+
+	/**
+	 * NegatablePattern -> int[] of matching types;
+	 * List of 2 NegatablePatterns or TagSelector -> ServiceList.
+	 */
+	private final ConcurrentHashMap<Object, Object> _memo = new ConcurrentHashMap<Object, Object>();
+
+	/**
+	 * Only reads the names of the services: the services of a {@link LazyServiceList}
+	 * are not parsed.
+	 * @param services
+	 * @throws IllegalArgumentException when two services have the same name.
+	 */
+	ServicesIndex(Map<String, List<IVCapService>> services) {
+		_types = services.keySet().toArray(new String[services.size()]);
+		_servicesOfType = newListArray(_types.length);
+		_firstOrdinal = new int[_types.length];
+		int size = 0;
+		int t = 0;
+		for (Entry<String, List<IVCapService>> e : services.entrySet()) {
+			_typeIndex.put(e.getKey(), t);
+			_servicesOfType[t] = e.getValue();
+			_firstOrdinal[t++] = size;
+			size += e.getValue().size();
+		}
+		_typeOfOrdinal = new int[size];
+		_nameOfOrdinal = new String[size];
+		ArrayList<String> names = new ArrayList<String>(size);
+		ArrayList<Integer> nameOrdinals = new ArrayList<Integer>(size);
+		for (int type = 0; type < _types.length; type++) {
+			String[] namesOfType = names(_servicesOfType[type]);
+			for (int i = 0; i < namesOfType.length; i++) {
+				int ordinal = _firstOrdinal[type] + i;
+				String name = namesOfType[i];
+				_typeOfOrdinal[ordinal] = type;
+				_nameOfOrdinal[ordinal] = name;
+				if (name != null) {
+					if (_nameOrdinal.put(name, ordinal) != null) {
+						throw new IllegalArgumentException("Duplicate service with the name '" + name + "'.");
+					}
+					names.add(name);
+					nameOrdinals.add(ordinal);
+				}
+			}
+		}
+		int[] typeIndexes = new int[_types.length];
+		for (int i = 0; i < typeIndexes.length; i++) {
+			typeIndexes[i] = i;
+		}
+		_typePrefixes = new PrefixIndex(_types, typeIndexes);
+		int[] ordinals = new int[nameOrdinals.size()];
+		for (int i = 0; i < ordinals.length; i++) {
+			ordinals[i] = nameOrdinals.get(i);
+		}
+		_namePrefixes = new PrefixIndex(names.toArray(new String[names.size()]), ordinals);
+	}
+
+	/**
+	 * An array of a generic type can't be created: it only ever holds lists of services.
+	 */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static List<IVCapService>[] newListArray(int length) {
+		return new List[length];
+	}
+
+	/**
+	 * @return The names of the services without parsing the services of a {@link LazyServiceList}.
+	 */
+	static String[] names(List<IVCapService> services) {
+		if (services instanceof LazyServiceList) {
+			return ((LazyServiceList)services).getNames();
+		}
+		String[] res = new String[services.size()];
+		for (int i = 0; i < res.length; i++) {
+			res[i] = services.get(i).getName();
+		}
+		return res;
+	}
+
+	/**
+	 * @return The service with the given ordinal. Parses the services of its type when needed.
+	 */
+	private IVCapService service(int ordinal) {
+		int type = _typeOfOrdinal[ordinal];
+		return _servicesOfType[type].get(ordinal - _firstOrdinal[type]);
+	}
+
+	private Attributes attributes() {
+		Attributes attributes = _attributes;
+		if (attributes == null) {
+			synchronized (this) {
+				attributes = _attributes;
+				if (attributes == null) {
+					attributes = new Attributes();
+					_attributes = attributes;
+				}
+			}
+		}
+		return attributes;
+	}
+
+	/**
+	 * @param name
+	 * @return The service with this name or null.
+	 */
+	IVCapService getByName(String name) {
+		Integer ordinal = _nameOrdinal.get(name);
+		return ordinal == null ? null : service(ordinal);
+	}
+
+	ServiceList getByLabel(String label) {
+		ServiceList res = attributes()._byLabel.get(label);
+		return res != null ? res : ServiceList.EMPTY;
+	}
+
+	ServiceList getByPlan(String plan) {
+		ServiceList res = attributes()._byPlan.get(plan);
+		return res != null ? res : ServiceList.EMPTY;
+	}
+
+	ServiceList getByTag(String tag) {
+		ServiceList res = attributes()._byTag.get(tag);
+		return res != null ? res : ServiceList.EMPTY;
+	}
+
+	private Versions versions() {
+		Versions versions = _versions;
+		if (versions == null) {
+			synchronized (this) {
+				versions = _versions;
+				if (versions == null) {
+					versions = new Versions();
+					_versions = versions;
+				}
+			}
+		}
+		return versions;
+	}
+
+	/**
+	 * @param product
+	 * @return The services of the product, the newest version first.
+	 */
+	ServiceList getByProduct(String product) {
+		int[] ordinals = versions()._ordinals.get(product);
+		return ordinals == null ? ServiceList.EMPTY : services(ordinals, 0, ordinals.length);
+	}
+
+	/**
+	 * @param product
+	 * @param minVersion null for any version.
+	 * @return The first service of the newest version of the product when it is at least minVersion.
+	 */
+	IVCapService getNewest(String product, ServiceVersion minVersion) {
+		Versions versions = versions();
+		int[] ordinals = versions._ordinals.get(product);
+		if (ordinals == null || minVersion != null && versions._versions.get(product)[0].compareTo(minVersion) < 0) {
+			return null;
+		}
+		return service(ordinals[0]);
+	}
+
+	/**
+	 * Two binary searches in the versions of the product.
+	 * @param product
+	 * @param prefix The first components of the version.
+	 * @return The services of the product with a version that starts with the prefix, the newest first.
+	 */
+	ServiceList getByVersion(String product, ServiceVersion prefix) {
+		Versions versions = versions();
+		int[] ordinals = versions._ordinals.get(product);
+		if (ordinals == null) {
+			return ServiceList.EMPTY;
+		}
+		ServiceVersion[] sorted = versions._versions.get(product);
+		return services(ordinals, search(sorted, prefix, false), search(sorted, prefix, true));
+	}
+
+	/**
+	 * @param sorted The versions, the newest first.
+	 * @param strict false for the index of the first version not newer than the prefix;
+	 * true for the index of the first version older than the prefix.
+	 */
+	private static int search(ServiceVersion[] sorted, ServiceVersion prefix, boolean strict) {
+		int length = prefix.getComponentCount();
+		int low = 0;
+		int high = sorted.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int c = sorted[mid].compareTo(prefix, length);
+			if (strict ? c >= 0 : c > 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private ServiceList services(int[] ordinals, int from, int to) {
+		if (from >= to) {
+			return ServiceList.EMPTY;
+		}
+		IVCapService[] res = new IVCapService[to - from];
+		for (int i = from; i < to; i++) {
+			res[i - from] = service(ordinals[i]);
+		}
+		return new ServiceList(res);
+	}
+
+	/**
+	 * @param serviceType regexp
+	 * @param index The 0-based index
+	 * @return The service at the given index in the first matching service type that has one.
+	 */
+	IVCapService getService(Pattern serviceType, int index) {
+		for (int type : getTypes(new NegatablePattern(serviceType, false))) {
+			List<IVCapService> servs = _servicesOfType[type];
+			if (index < servs.size()) {
+				return servs.get(index);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param serviceTypeFilter
+	 * @param serviceNameFilter
+	 * @return The selected services in document order.
+	 */
+	ServiceList getServices(NegatablePattern serviceTypeFilter, NegatablePattern serviceNameFilter) {
+		List<NegatablePattern> key = Arrays.asList(serviceTypeFilter, serviceNameFilter);
+		ServiceList res = (ServiceList)_memo.get(key);
+		if (res == null) {
+			res = select(serviceTypeFilter, serviceNameFilter);
+			memoize(key, res);
+		}
+		return res;
+	}
+
+	private ServiceList select(NegatablePattern serviceTypeFilter, NegatablePattern serviceNameFilter) {
+		int[] types = getTypes(serviceTypeFilter);
+		if (types.length == 0) {
+			return ServiceList.EMPTY;
+		}
+		ArrayList<IVCapService> res = new ArrayList<IVCapService>();
+		MatchKind nameKind = serviceNameFilter.isNegated() ? MatchKind.REGEX : serviceNameFilter.getMatchKind();
+		// the services without a name match as an empty name: they are not in the name indexes.
+		if ((nameKind == MatchKind.EQUALS || nameKind == MatchKind.PREFIX)
+				&& serviceNameFilter.getLiteral().length() != 0) {
+			boolean[] selectedTypes = new boolean[_types.length];
+			for (int type : types) {
+				selectedTypes[type] = true;
+			}
+			int[] ordinals;
+			if (nameKind == MatchKind.PREFIX) {
+				ordinals = _namePrefixes.get(serviceNameFilter.getLiteral());
+			} else {
+				Integer ordinal = _nameOrdinal.get(serviceNameFilter.getLiteral());
+				ordinals = ordinal == null ? NO_INDEXES : new int[] { ordinal };
+			}
+			for (int ordinal : ordinals) {
+				if (selectedTypes[_typeOfOrdinal[ordinal]]
+						&& serviceNameFilter.matches(_nameOfOrdinal[ordinal])) {
+					res.add(service(ordinal));
+				}
+			}
+		} else {
+			for (int type : types) {
+				int end = _firstOrdinal[type] + _servicesOfType[type].size();
+				for (int ordinal = _firstOrdinal[type]; ordinal < end; ordinal++) {
+					String serviceName = _nameOfOrdinal[ordinal];
+					if (serviceNameFilter.matches(serviceName != null ? serviceName : "")) {
+						res.add(service(ordinal));
+					}
+				}
+			}
+		}
+		return ServiceList.copyOf(res);
+	}
+
+	/**
+	 * @param selector
+	 * @return The services selected by their tags and plan in document order.
+	 */
+	ServiceList getServices(TagSelector selector) {
+		ServiceList res = (ServiceList)_memo.get(selector);
+		if (res == null) {
+			res = select(selector);
+			memoize(selector, res);
+		}
+		return res;
+	}
+
+	private ServiceList select(TagSelector selector) {
+		Attributes attributes = attributes();
+		int clauses = selector.getClauseCount();
+		long[][][] bitsets = new long[clauses][][];
+		for (int c = 0; c < clauses; c++) {
+			String[] alternatives = selector.getAlternatives(c);
+			bitsets[c] = new long[alternatives.length][];
+			for (int i = 0; i < alternatives.length; i++) {
+				String alternative = alternatives[i];
+				bitsets[c][i] = alternative.startsWith(TagSelector.PLAN_PREFIX)
+						? getBits(attributes._planIds, attributes._planBits,
+								alternative.substring(TagSelector.PLAN_PREFIX.length()))
+						: getBits(attributes._tagIds, attributes._tagBits, alternative);
+			}
+		}
+		ArrayList<IVCapService> res = new ArrayList<IVCapService>();
+		int size = _typeOfOrdinal.length;
+		int words = (size + 63) >>> 6;
+		for (int w = 0; w < words; w++) {
+			int remaining = size - (w << 6);
+			long word = remaining >= 64 ? -1L : (1L << remaining) - 1;
+			for (int c = 0; c < clauses && word != 0; c++) {
+				long any = 0;
+				for (long[] bits : bitsets[c]) {
+					if (bits != null) {
+						any |= bits[w];
+					}
+				}
+				word &= selector.isNegated(c) ? ~any : any;
+			}
+			while (word != 0) {
+				res.add(service((w << 6) + Long.numberOfTrailingZeros(word)));
+				word &= word - 1;
+			}
+		}
+		return ServiceList.copyOf(res);
+	}
+
+	/**
+	 * Selects the first service of many pairs of selectors in a single pass over the types
+	 * and the names. Each distinct selector is evaluated at most once per type and once per name;
+	 * the pass stops as soon as every pair is resolved.
+	 * @param serviceTypeFilters A null filter selects nothing.
+	 * @param serviceNameFilters A null filter selects the first service of the type.
+	 * @return The first selected service of each pair or null when there is none.
+	 */
+	IVCapService[] selectFirst(NegatablePattern[] serviceTypeFilters, NegatablePattern[] serviceNameFilters) {
+		int count = serviceTypeFilters.length;
+		HashMap<NegatablePattern, Integer> ids = new HashMap<NegatablePattern, Integer>();
+		ArrayList<NegatablePattern> filters = new ArrayList<NegatablePattern>();
+		int[] typeFilter = new int[count];
+		int[] nameFilter = new int[count];
+		int[] ordinals = new int[count];
+		Arrays.fill(ordinals, -1);
+		int unresolved = count;
+		for (int r = 0; r < count; r++) {
+			if (serviceTypeFilters[r] == null) {
+				typeFilter[r] = -1;
+				unresolved--;
+			} else {
+				typeFilter[r] = filterId(ids, filters, serviceTypeFilters[r]);
+			}
+			nameFilter[r] = serviceNameFilters[r] == null ? -1 : filterId(ids, filters, serviceNameFilters[r]);
+		}
+		// 0: not evaluated yet, 1: matches, 2: does not match.
+		byte[] typeMatches = new byte[filters.size()];
+		byte[] nameMatches = new byte[filters.size()];
+		Matcher[] matchers = new Matcher[filters.size()];
+		boolean[] candidates = new boolean[count];
+		for (int type = 0; type < _types.length && unresolved != 0; type++) {
+			int first = _firstOrdinal[type];
+			int end = first + _servicesOfType[type].size();
+			if (first == end) {
+				continue;
+			}
+			Arrays.fill(typeMatches, (byte)0);
+			boolean byName = false;
+			for (int r = 0; r < count; r++) {
+				candidates[r] = ordinals[r] == -1 && typeFilter[r] != -1
+						&& matches(filters, matchers, typeMatches, typeFilter[r], _types[type]);
+				if (candidates[r]) {
+					if (nameFilter[r] == -1) {
+						ordinals[r] = first;
+						candidates[r] = false;
+						unresolved--;
+					} else {
+						byName = true;
+					}
+				}
+			}
+			for (int ordinal = first; byName && ordinal < end; ordinal++) {
+				String name = _nameOfOrdinal[ordinal] != null ? _nameOfOrdinal[ordinal] : "";
+				Arrays.fill(nameMatches, (byte)0);
+				byName = false;
+				for (int r = 0; r < count; r++) {
+					if (candidates[r]) {
+						if (matches(filters, matchers, nameMatches, nameFilter[r], name)) {
+							ordinals[r] = ordinal;
+							candidates[r] = false;
+							unresolved--;
+						} else {
+							byName = true;
+						}
+					}
+				}
+			}
+		}
+		IVCapService[] res = new IVCapService[count];
+		for (int r = 0; r < count; r++) {
+			if (ordinals[r] != -1) {
+				res[r] = service(ordinals[r]);
+			}
+		}
+		return res;
+	}
+
+	private static int filterId(Map<NegatablePattern, Integer> ids, List<NegatablePattern> filters,
+			NegatablePattern filter) {
+		Integer id = ids.get(filter);
+		if (id == null) {
+			id = filters.size();
+			ids.put(filter, id);
+			filters.add(filter);
+		}
+		return id;
+	}
+
+	/**
+	 * @param evaluated The memoized results of the filters for this input.
+	 * @param matchers The matchers of the regexp filters: reused for all the inputs.
+	 */
+	private static boolean matches(List<NegatablePattern> filters, Matcher[] matchers, byte[] evaluated,
+			int filter, String input) {
+		if (evaluated[filter] == 0) {
+			NegatablePattern pattern = filters.get(filter);
+			boolean matches;
+			if (pattern.getMatchKind() == MatchKind.REGEX) {
+				Matcher matcher = matchers[filter];
+				if (matcher == null) {
+					matcher = pattern.getPattern().matcher(input);
+					matchers[filter] = matcher;
+				} else {
+					matcher.reset(input);
+				}
+				matches = matcher.matches() != pattern.isNegated();
+			} else {
+				matches = pattern.matches(input);
+			}
+			evaluated[filter] = matches ? (byte)1 : (byte)2;
+		}
+		return evaluated[filter] == 1;
+	}
+
+	private static long[] getBits(Map<String, Integer> ids, long[][] bitsets, String key) {
+		Integer id = ids.get(key);
+		return id == null ? null : bitsets[id];
+	}
+
+	/**
+	 * @return The indexes of the matching service types in document order.
+	 */
+	private int[] getTypes(NegatablePattern serviceTypeFilter) {
+		int[] res = (int[])_memo.get(serviceTypeFilter);
+		if (res != null) {
+			return res;
+		}
+		MatchKind kind = serviceTypeFilter.isNegated() ? MatchKind.REGEX : serviceTypeFilter.getMatchKind();
+		if (kind == MatchKind.EQUALS) {
+			Integer type = _typeIndex.get(serviceTypeFilter.getLiteral());
+			res = type == null ? NO_INDEXES : new int[] { type };
+		} else {
+			int[] candidates = kind == MatchKind.PREFIX
+					? _typePrefixes.get(serviceTypeFilter.getLiteral()) : null;
+			int count = candidates != null ? candidates.length : _types.length;
+			int[] matches = new int[count];
+			int size = 0;
+			for (int i = 0; i < count; i++) {
+				int type = candidates != null ? candidates[i] : i;
+				if (serviceTypeFilter.matches(_types[type])) {
+					matches[size++] = type;
+				}
+			}
+			res = Arrays.copyOf(matches, size);
+		}
+		memoize(serviceTypeFilter, res);
+		return res;
+	}
+
+	private void memoize(Object key, Object value) {
+		if (_memo.size() >= MAX_MEMOIZED) {
+			_memo.clear();
+		}
+		_memo.put(key, value);
+	}
+
+	/**
+	 * The product and version of each service read from its type; or from its label
+	 * when the type has no version. Only the services of these types are parsed.
+	 * The ordinals of the services of each product are sorted by version, the newest first,
+	 * then in document order.
+	 */
+	private final class Versions {
+
+		private final Map<String, int[]> _ordinals = new HashMap<String, int[]>();
+		/** The versions in the same order as the ordinals. */
+		private final Map<String, ServiceVersion[]> _versions = new HashMap<String, ServiceVersion[]>();
+
+		Versions() {
+			final ServiceVersion[] versionOfOrdinal = new ServiceVersion[_typeOfOrdinal.length];
+			LinkedHashMap<String, ArrayList<Integer>> byProduct = new LinkedHashMap<String, ArrayList<Integer>>();
+			for (int type = 0; type < _types.length; type++) {
+				ServiceVersion typeVersion = ServiceVersion.fromServiceType(_types[type]);
+				int end = _firstOrdinal[type] + _servicesOfType[type].size();
+				for (int ordinal = _firstOrdinal[type]; ordinal < end; ordinal++) {
+					ServiceVersion version = typeVersion != null ? typeVersion
+							: ServiceVersion.fromServiceType(service(ordinal).getLabel());
+					if (version == null) {
+						continue;
+					}
+					versionOfOrdinal[ordinal] = version;
+					ArrayList<Integer> ordinals = byProduct.get(version.getProduct());
+					if (ordinals == null) {
+						ordinals = new ArrayList<Integer>();
+						byProduct.put(version.getProduct(), ordinals);
+					}
+					ordinals.add(ordinal);
+				}
+			}
+			Comparator<Integer> newestFirst = new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					int c = versionOfOrdinal[b].compareTo(versionOfOrdinal[a]);
+					return c != 0 ? c : a.compareTo(b);
+				}
+			};
+			for (Entry<String, ArrayList<Integer>> e : byProduct.entrySet()) {
+				ArrayList<Integer> sorted = e.getValue();
+				Collections.sort(sorted, newestFirst);
+				int[] ordinals = new int[sorted.size()];
+				ServiceVersion[] versions = new ServiceVersion[ordinals.length];
+				for (int i = 0; i < ordinals.length; i++) {
+					ordinals[i] = sorted.get(i);
+					versions[i] = versionOfOrdinal[ordinals[i]];
+				}
+				_ordinals.put(e.getKey(), ordinals);
+				_versions.put(e.getKey(), versions);
+			}
+		}
+	}
+
+	/**
+	 * Exact maps by label, plan and tag.
+	 * Interned tag and plan ids with a bitset of the ordinals of the services for each one of them.
+	 */
+	private final class Attributes {
+
+		private final Map<String, ServiceList> _byLabel;
+		private final Map<String, ServiceList> _byPlan;
+		private final Map<String, ServiceList> _byTag;
+		/** Interned tags: the id is the index of the bitset of the services with this tag. */
+		private final Map<String, Integer> _tagIds = new HashMap<String, Integer>();
+		private final long[][] _tagBits;
+		private final Map<String, Integer> _planIds = new HashMap<String, Integer>();
+		private final long[][] _planBits;
+
+		Attributes() {
+			LinkedHashMap<String, ArrayList<IVCapService>> byLabel = new LinkedHashMap<String, ArrayList<IVCapService>>();
+			LinkedHashMap<String, ArrayList<IVCapService>> byPlan = new LinkedHashMap<String, ArrayList<IVCapService>>();
+			LinkedHashMap<String, ArrayList<IVCapService>> byTag = new LinkedHashMap<String, ArrayList<IVCapService>>();
+			ArrayList<long[]> tagBits = new ArrayList<long[]>();
+			ArrayList<long[]> planBits = new ArrayList<long[]>();
+			for (int ordinal = 0; ordinal < _typeOfOrdinal.length; ordinal++) {
+				IVCapService serv = service(ordinal);
+				add(byLabel, serv.getLabel(), serv);
+				add(byPlan, serv.getPlan(), serv);
+				setBit(_planIds, planBits, serv.getPlan(), ordinal);
+				String[] tags = serv.getTags();
+				if (tags != null) {
+					for (String tag : tags) {
+						add(byTag, tag, serv);
+						setBit(_tagIds, tagBits, tag, ordinal);
+					}
+				}
+			}
+			_tagBits = tagBits.toArray(new long[tagBits.size()][]);
+			_planBits = planBits.toArray(new long[planBits.size()][]);
+			_byLabel = freeze(byLabel);
+			_byPlan = freeze(byPlan);
+			_byTag = freeze(byTag);
+		}
+
+		private void setBit(Map<String, Integer> ids, ArrayList<long[]> bitsets, String key, int ordinal) {
+			if (key == null) {
+				return;
+			}
+			Integer id = ids.get(key);
+			if (id == null) {
+				id = bitsets.size();
+				ids.put(key, id);
+				bitsets.add(new long[(_typeOfOrdinal.length + 63) >>> 6]);
+			}
+			bitsets.get(id)[ordinal >>> 6] |= 1L << ordinal;
+		}
+	}
+
+	private static void add(Map<String, ArrayList<IVCapService>> map, String key, IVCapService serv) {
+		if (key == null) {
+			return;
+		}
+		ArrayList<IVCapService> servs = map.get(key);
+		if (servs == null) {
+			servs = new ArrayList<IVCapService>(2);
+			map.put(key, servs);
+		}
+		if (servs.isEmpty() || servs.get(servs.size() - 1) != serv) {
+			servs.add(serv);
+		}
+	}
+
+	private static Map<String, ServiceList> freeze(Map<String, ArrayList<IVCapService>> map) {
+		HashMap<String, ServiceList> res = new HashMap<String, ServiceList>(map.size() * 2);
+		for (Entry<String, ArrayList<IVCapService>> e : map.entrySet()) {
+			res.put(e.getKey(), ServiceList.copyOf(e.getValue()));
+		}
+		return res;
+	}
+
+	/**
+	 * Keys sorted in lexicographic order: the keys that start with a given prefix
+	 * are a contiguous range found by binary search.
+	 */
+	private static final class PrefixIndex {
+
+		private final String[] _keys;
+		private final int[] _values;
+
+		PrefixIndex(String[] keys, int[] values) {
+			Integer[] order = new Integer[keys.length];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+			final String[] unsorted = keys;
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return unsorted[a].compareTo(unsorted[b]);
+				}
+			});
+			_keys = new String[keys.length];
+			_values = new int[keys.length];
+			for (int i = 0; i < order.length; i++) {
+				_keys[i] = keys[order[i]];
+				_values[i] = values[order[i]];
+			}
+		}
+
+		/**
+		 * @return The values of the keys that start with the prefix, in ascending order.
+		 */
+		int[] get(String prefix) {
+			int low = 0;
+			int high = _keys.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (_keys[mid].compareTo(prefix) < 0) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			int end = low;
+			while (end < _keys.length && _keys[end].startsWith(prefix)) {
+				end++;
+			}
+			int[] res = Arrays.copyOfRange(_values, low, end);
+			Arrays.sort(res);
+			return res;
+		}
+	}
+}
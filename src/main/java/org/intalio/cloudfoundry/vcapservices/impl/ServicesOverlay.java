@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.IVCapServiceCredentials;
+import org.intalio.cloudfoundry.vcapservices.VCapServicesChange;
+
+/**
+ * Applies a layer of services on top of other services.
+ * <p>
+ * A service of the layer with the same type and name as a service below
+ * overrides it: its label, plan and tags replace the ones below when they are defined;
+ * its credentials are merged key by key over the ones below.
+ * The other services of the layer are added.
+ * </p>
+ * <p>
+ * The lists of the service types the layer does not touch and the services it does
+ * not override are shared with the services below: applying a layer costs time and memory
+ * proportional to the service types it touches, not to all the services.
+ * </p>
+ * @author hmalphettes
+ */
+final class ServicesOverlay {
+
+	private final ArrayList<IVCapService> _added = new ArrayList<IVCapService>();
+	private final ArrayList<IVCapService> _changed = new ArrayList<IVCapService>();
+
+	/**
+	 * @param base The services below. Not modified.
+	 * @param layer The services on top.
+	 * @return The merged services.
+	 */
+	LinkedHashMap<String, List<IVCapService>> apply(Map<String, List<IVCapService>> base,
+			Map<String, List<IVCapService>> layer) {
+		LinkedHashMap<String, List<IVCapService>> res =
+				new LinkedHashMap<String, List<IVCapService>>(base);
+		for (Entry<String, List<IVCapService>> e : layer.entrySet()) {
+			List<IVCapService> below = base.get(e.getKey());
+			if (below == null) {
+				_added.addAll(e.getValue());
+				res.put(e.getKey(), e.getValue());
+			} else if (!e.getValue().isEmpty()) {
+				res.put(e.getKey(), apply(below, e.getValue()));
+			}
+		}
+		return res;
+	}
+
+	private ServiceList apply(List<IVCapService> below, List<IVCapService> layer) {
+		IVCapService[] merged = below.toArray(new IVCapService[below.size() + layer.size()]);
+		int size = below.size();
+		for (IVCapService top : layer) {
+			int i = indexOf(merged, size, top.getName());
+			if (i == -1) {
+				_added.add(top);
+				merged[size++] = top;
+				continue;
+			}
+			IVCapService service = override(merged[i], top);
+			if (!service.equals(merged[i])) {
+				_changed.add(service);
+				merged[i] = service;
+			}
+		}
+		return new ServiceList(size == merged.length ? merged : Arrays.copyOf(merged, size));
+	}
+
+	private static int indexOf(IVCapService[] services, int size, String name) {
+		if (name == null) {
+			return -1;
+		}
+		for (int i = 0; i < size; i++) {
+			if (name.equals(services[i].getName())) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The service below overridden by the one on top.
+	 */
+	static IVCapService override(IVCapService below, IVCapService top) {
+		IVCapServiceCredentials belowCred = below.getCredentials();
+		IVCapServiceCredentials topCred = top.getCredentials();
+		if (!(belowCred instanceof VCapServiceCredentials && topCred instanceof VCapServiceCredentials)) {
+			return top;
+		}
+		VCapServiceCredentials cred = merge((VCapServiceCredentials)belowCred, (VCapServiceCredentials)topCred);
+		boolean resolveSysProperty = cred.isResolveSysProperty();
+		return new VCapService(top.getServiceType(), top.getName(),
+				top.getLabel() != null ? top.getLabel() : below.getLabel(),
+				top.getPlan() != null ? top.getPlan() : below.getPlan(),
+				top.getTags() != null ? top.getTags() : below.getTags(),
+				cred, resolveSysProperty);
+	}
+
+	/**
+	 * @return The credentials below with the keys on top replaced or added.
+	 * When only one side substitutes the ${key,default} values, its values are substituted
+	 * now and the merged values are never substituted: the values of the other side stay literal.
+	 */
+	private static VCapServiceCredentials merge(VCapServiceCredentials below, VCapServiceCredentials top) {
+		String[] topKeys = top.keys();
+		if (topKeys.length == 0) {
+			return below;
+		}
+		boolean resolveSysProperty = below.isResolveSysProperty();
+		String[] belowKeys = below.keys();
+		Object[] belowValues = below.values();
+		Object[] topValues = top.values();
+		if (below.isResolveSysProperty() != top.isResolveSysProperty()) {
+			if (resolveSysProperty) {
+				belowValues = resolve(belowValues);
+			} else {
+				topValues = resolve(topValues);
+			}
+			resolveSysProperty = false;
+		}
+		String[] keys = Arrays.copyOf(belowKeys, belowKeys.length + topKeys.length);
+		Object[] values = Arrays.copyOf(belowValues, keys.length);
+		int size = belowKeys.length;
+		for (int i = 0; i < topKeys.length; i++) {
+			int j = indexOf(keys, size, topKeys[i]);
+			if (j == -1) {
+				j = size++;
+				keys[j] = topKeys[i];
+			}
+			values[j] = topValues[i];
+		}
+		if (size < keys.length) {
+			keys = Arrays.copyOf(keys, size);
+			values = Arrays.copyOf(values, size);
+		}
+		return new VCapServiceCredentials(keys, values, resolveSysProperty);
+	}
+
+	/**
+	 * @return A copy of the values with the ${key,default} of the strings substituted.
+	 */
+	private static Object[] resolve(Object[] values) {
+		Object[] res = values.clone();
+		for (int i = 0; i < res.length; i++) {
+			if (res[i] instanceof String) {
+				res[i] = VCapService.resolvePropertyValue((String)res[i]);
+			}
+		}
+		return res;
+	}
+
+	private static int indexOf(String[] keys, int size, String key) {
+		for (int i = 0; i < size; i++) {
+			if (key.equals(keys[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The services added and overridden by the layers applied so far.
+	 * Nothing is removed by a layer.
+	 */
+	VCapServicesChange getChange() {
+		return new VCapServicesChange(_added, new ArrayList<IVCapService>(), _changed);
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import org.intalio.cloudfoundry.vcapservices.IConnectionOpener;
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.IVCapServiceCredentials;
+
+/**
+ * Opens a TCP connection to the hostname and port of the credentials of the service.
+ * It validates that the service is reachable and warms up the name resolution
+ * and the network path; it does not speak the protocol of the service.
+ * @author hmalphettes
+ */
+public class SocketConnectionOpener implements IConnectionOpener {
+
+	public Closeable open(IVCapService service, int timeoutMillis) throws IOException {
+		IVCapServiceCredentials cred = service.getCredentials();
+		String hostname = cred.getHostname();
+		int port = cred.getPort();
+		if (hostname == null || port <= 0) {
+			throw new IOException("The service " + service + " does not define a hostname and a port.");
+		}
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(hostname, port), Math.max(1, timeoutMillis));
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		return socket;
+	}
+
+}
@@ -23,9 +23,11 @@
  */
 package org.intalio.cloudfoundry.vcapservices.impl;
 
+import java.util.Arrays;
+
+import org.intalio.cloudfoundry.vcapservices.IPropertySource;
 import org.intalio.cloudfoundry.vcapservices.IVCapService;
 import org.intalio.cloudfoundry.vcapservices.IVCapServiceCredentials;
-import org.intalio.cloudfoundry.vcapservices.IVCapServices;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -58,24 +60,60 @@ import org.json.JSONObject;
  */
 public class VCapService implements IVCapService {
 	
-	private final JSONObject _json;
 	private final String _serviceType;
+	private final String _name;
+	private final String _label;
+	private final String _plan;
+	private final String[] _tags;
 	private final VCapServiceCredentials _cred;
 	private final boolean _parseSysProperty;
 	
+	/**
+	 * @param serviceType
+	 * @param name
+	 * @param label
+	 * @param plan
+	 * @param tags The tags or null when not defined.
+	 * @param cred The connection parameters.
+	 * @param parseSysProperty true when json values that follow the pattern ${sys_prop_key,_default_value}
+	 * should be substituted.
+	 */
+	public VCapService(String serviceType, String name, String label, String plan,
+			String[] tags, VCapServiceCredentials cred, boolean parseSysProperty) {
+		_serviceType = serviceType;
+		_name = name;
+		_label = label;
+		_plan = plan;
+		_tags = tags;
+		_cred = cred;
+		_parseSysProperty = parseSysProperty;
+	}
+	
 	/**
 	 * @param serviceType
 	 * @param service
 	 * @param parseSysProperty true when json values that follow the pattern ${sys_prop_key,_default_value}
 	 * should be substituted.
 	 * @throws JSONException
+	 * @deprecated VCapServices reads the services directly from the VCAP_SERVICES string.
 	 */
+	@Deprecated
 	public VCapService(String serviceType, JSONObject service,
 			boolean parseSysProperty) throws JSONException {
-		_json = service;
-		_serviceType = serviceType;
-		_cred = new VCapServiceCredentials(service, parseSysProperty);
-		_parseSysProperty = parseSysProperty;
+		this(serviceType, service.optString("name", null), service.optString("label", null),
+				service.optString("plan", null), toStringArray(service.optJSONArray("tags")),
+				new VCapServiceCredentials(service, parseSysProperty), parseSysProperty);
+	}
+	
+	private static String[] toStringArray(JSONArray arr) throws JSONException {
+		if (arr == null) {
+			return null;
+		}
+		String[] res = new String[arr.length()];
+		for (int i = 0; i < res.length; i++) {
+			res[i] = arr.getString(i);
+		}
+		return res;
 	}
 	
 	/**
@@ -89,48 +127,42 @@ public class VCapService implements IVCapService {
 	 * @return The name of the service.
 	 */
 	public String getName() {
-		try {
-			return _json.getString("name");
-		} catch (JSONException e) {
-			return null;
-		}
+		return _name;
 	}
 	
 	/**
 	 * @return The name of the service.
 	 */
 	public String getLabel() {
-		try {
-			return _json.getString("label");
-		} catch (JSONException e) {
-			return null;
-		}
+		return _label;
 	}
 	/**
 	 * @return The name of the plan.
 	 */
 	public String getPlan() {
-		try {
-			return _json.getString("label");
-		} catch (JSONException e) {
-			return null;
-		}
+		return _plan;
 	}
 	
 	/**
 	 * @return The tags
 	 */
 	public String[] getTags() {
-		try {
-			JSONArray arr = _json.getJSONArray("tags");
-			String[] res = new String[arr.length()];
-			for (int i = 0; i < res.length; i++) {
-				res[i] = arr.getString(i);
+		return _tags == null ? null : _tags.clone();
+	}
+	
+	/**
+	 * @param tag
+	 * @return true when the service is tagged with this tag.
+	 */
+	public boolean hasTag(String tag) {
+		if (_tags != null) {
+			for (String t : _tags) {
+				if (tag.equals(t)) {
+					return true;
+				}
 			}
-			return res;
-		} catch (JSONException e) {
-			return null;
 		}
+		return false;
 	}
 	
 	/**
@@ -141,70 +173,79 @@ public class VCapService implements IVCapService {
 	}
 
 	/**
-	 * Returns the json string value for the given key.
-	 * Takes care of resolving system properties if necessary.
-	 * @param key
-	 * @return
+	 * @return true when the values of the credentials follow the pattern
+	 * ${sys_prop_key,_default_value} and are substituted.
 	 */
-	private String getString(String key) {
-		try {
-			String str = _json.getString(key);
-			if (_parseSysProperty) {
-				str = resolvePropertyValue(str);
-			}
-			return str;
-		} catch (JSONException e) {
-			return null;
+	public boolean isParseSysProperty() {
+		return _parseSysProperty;
+	}
+	
+	public int hashCode() {
+		int h = _serviceType != null ? _serviceType.hashCode() : 0;
+		h = 31 * h + (_name != null ? _name.hashCode() : 0);
+		return 31 * h + _cred.hashCode();
+	}
+	
+	/**
+	 * Two services are equal when they have the same type, name, label, plan, tags
+	 * and credentials.
+	 */
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		if (!(obj instanceof VCapService)) {
+			return false;
 		}
+		VCapService other = (VCapService)obj;
+		return eq(_serviceType, other._serviceType) && eq(_name, other._name)
+				&& eq(_label, other._label) && eq(_plan, other._plan)
+				&& Arrays.equals(_tags, other._tags)
+				&& _parseSysProperty == other._parseSysProperty
+				&& _cred.equals(other._cred);
+	}
+	
+	private static boolean eq(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+	
+	public String toString() {
+		return _name + " (" + _serviceType + ")";
 	}
 	
 	/**
-	 * recursively substitute the ${sysprop} by their actual system property.
+	 * Substitutes the ${sysprop} by their actual system property.
 	 * ${sysprop,defaultvalue} will use 'defaultvalue' as the value if no sysprop is defined.
-	 * Not the most efficient code but we are shooting for simplicity and speed of development here.
-	 * 
+	 * The default value can itself contain ${sysprop,defaultvalue}.
+	 * <p>
+	 * The value is compiled once into a {@link PropertyTemplate} and cached.
+	 * </p>
 	 * @param value
 	 * @return
 	 */
 	public static String resolvePropertyValue(String value)
-	{	
-		int ind = value.indexOf("${");
-		if (ind == -1) {
-			return value;
-		}
-		int ind2 = value.indexOf('}', ind);
-		if (ind2 == -1) {
+	{
+		return resolvePropertyValue(value, SystemPropertySource.INSTANCE);
+	}
+
+	/**
+	 * Substitutes the ${key} and ${key,defaultvalue} with the values of the given source.
+	 * @param value
+	 * @param properties
+	 * @return
+	 */
+	public static String resolvePropertyValue(String value, IPropertySource properties)
+	{
+		if (value.indexOf("${") == -1) {
 			return value;
 		}
-		String sysprop = value.substring(ind+2, ind2);
-		String defaultValue = null;
-		int comma = sysprop.indexOf(',');
-		if (comma != -1 && comma+1 != sysprop.length())
-		{
-			defaultValue = sysprop.substring(comma+1);
-			defaultValue = resolvePropertyValue(defaultValue);
-			sysprop = sysprop.substring(0,comma);
-		}
-		else
-		{
-			defaultValue = "${" + sysprop + "}";
-		}
-		
-		String v = System.getProperty(sysprop);
-		if (v == null) {
-			v = System.getenv(sysprop);
-		}
-		
-		String reminder = value.length() > ind2 + 1 ? value.substring(ind2+1) : "";
-		reminder = resolvePropertyValue(reminder);
-		if (v != null)
-		{
-			return value.substring(0, ind) + v + reminder;
-		}
-		else
-		{
-			return value.substring(0, ind) + defaultValue + reminder;
+		if (!VCapServicesMetrics._measurePropertyResolution) {
+			return PropertyTemplate.compile(value).render(properties);
 		}
+		long start = System.nanoTime();
+		String res = PropertyTemplate.compile(value).render(properties);
+		VCapServicesMetrics.propertyResolved(start);
+		return res;
 	}
 
 }
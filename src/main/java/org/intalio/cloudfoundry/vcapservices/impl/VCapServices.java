@@ -23,40 +23,132 @@
  */
 package org.intalio.cloudfoundry.vcapservices.impl;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.regex.Matcher;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
+import javax.management.JMException;
+
+import org.intalio.cloudfoundry.vcapservices.ConnectionRequest;
+import org.intalio.cloudfoundry.vcapservices.ConnectionResolution;
 import org.intalio.cloudfoundry.vcapservices.IVCapService;
 import org.intalio.cloudfoundry.vcapservices.IVCapServiceCredentials;
 import org.intalio.cloudfoundry.vcapservices.IVCapServices;
+import org.intalio.cloudfoundry.vcapservices.IVCapServicesListener;
+import org.intalio.cloudfoundry.vcapservices.IVCapServicesSource;
 import org.intalio.cloudfoundry.vcapservices.NegatablePattern;
-import org.json.JSONArray;
+import org.intalio.cloudfoundry.vcapservices.TagSelector;
+import org.intalio.cloudfoundry.vcapservices.VCapServicesChange;
 import org.json.JSONException;
-import org.json.JSONObject;
 
 /**
- * 
- * 
+ * The vcap services.
+ * <p>
+ * The services are held in an immutable snapshot. When they are reloaded,
+ * for example from a mounted bindings file watched by {@link VCapServicesFileWatcher},
+ * a new snapshot is published with a single atomic swap: the readers never block.
+ * The registered listeners are notified of the services added, removed and changed.
+ * </p>
+ * <p>
+ * The maps and lists returned are unmodifiable and shared by all the readers.
+ * </p>
+ * <p>
+ * In lazy mode the services of a service type are only parsed when one of them
+ * is first read. The first scan checks the syntax and the duplicate names.
+ * It is enabled by the environment variable or system property VCAP_SERVICES_LAZY=true.
+ * </p>
+ * <p>
+ * The services can be merged from several layers: for example the services of the platform
+ * with local overrides on top. See {@link VCapServicesSources} and {@link #applyOverlay(String, boolean)}.
+ * </p>
+ * <p>
+ * The credentials that only hold a reference to a secret store are fetched asynchronously
+ * by a {@link CredentialsReferenceResolver}: see {@link #setCredentialsResolver(CredentialsReferenceResolver)}.
+ * </p>
+ * <p>
+ * The parsing, the lookups and the connection URIs are measured once
+ * {@link #enableMetrics()} is called. The metrics can be published to JMX.
+ * They are also recorded as the Java Flight Recorder events
+ * org.intalio.cloudfoundry.vcapservices.Parse, Selector and ConnectionURI
+ * when they last longer than their threshold.
+ * </p>
  * @author hmalphettes
  */
 public class VCapServices implements IVCapServices {
 	
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private static final Logger LOG = Logger.getLogger(VCapServices.class.getName());
+	
+	/** Environment variable or system property that enables the lazy mode by default. */
+	public static final String LAZY_PROPERTY = "VCAP_SERVICES_LAZY";
+	
 	/**
 	 * The services.
 	 */
-	private final LinkedHashMap<String, ArrayList<IVCapService>> _services = new LinkedHashMap<String, ArrayList<IVCapService>>();
+	private final AtomicReference<VCapServicesSnapshot> _snapshot =
+			new AtomicReference<VCapServicesSnapshot>(VCapServicesSnapshot.EMPTY);
+	
+	/** Serializes the writers. */
+	private final Object _writeLock = new Object();
+	
+	private final CopyOnWriteArrayList<IVCapServicesListener> _listeners =
+			new CopyOnWriteArrayList<IVCapServicesListener>();
+	
+	/** The file the services are read from or null. */
+	private final File _servicesFile;
+	private final boolean _resolveFileSysProperty;
+	
+	/** The layers the services are read from, the bottom one first, or null. */
+	private final List<IVCapServicesSource> _layers;
+	/** true when a {@link ServiceBindingDirectory} layer has services. */
+	private volatile boolean _bindingsDefined;
 	
-	private final Map<String,IVCapService> _servicesIndexedByName = new HashMap<String, IVCapService>();
+	/** true when the services of a type are parsed on first access. */
+	private final boolean _lazy;
+	
+	/** Resolves the hostnames of the services ahead of time or null. */
+	private volatile HostAddressCache _hostAddresses;
+	
+	/** Fetches the credentials held by a secret store or null. */
+	private volatile CredentialsReferenceResolver _credentialsResolver;
+	
+	/** true once resolveCredentials was called: the reloaded credentials are resolved too. */
+	private volatile boolean _resolveCredentials;
+	
+	private final AtomicLong _connectionCacheHits = new AtomicLong();
+	private final AtomicLong _connectionCacheMisses = new AtomicLong();
+	
+	/** The counters and latencies or null when they are disabled. */
+	private volatile VCapServicesMetrics _metrics;
 	
 	public VCapServices() throws JSONException {
+		_servicesFile = null;
+		_resolveFileSysProperty = false;
+		_layers = null;
+		_lazy = isLazyByDefault();
 		String vcapServices = System.getenv("VCAP_SERVICES");
 		if (vcapServices == null) {
 			vcapServices = System.getProperty("VCAP_SERVICES");
@@ -79,6 +171,20 @@ public class VCapServices implements IVCapServices {
 	 * @throws JSONException
 	 */
 	public VCapServices(String services, boolean lookAtEnvFirst) throws JSONException {
+		this(services, lookAtEnvFirst, isLazyByDefault());
+	}
+	
+	/**
+	 * @param services
+	 * @param lookAtEnvFirst
+	 * @param lazy true to parse the services of a service type on first access.
+	 * @throws JSONException
+	 */
+	public VCapServices(String services, boolean lookAtEnvFirst, boolean lazy) throws JSONException {
+		_servicesFile = null;
+		_resolveFileSysProperty = false;
+		_layers = null;
+		_lazy = lazy;
 		if (lookAtEnvFirst) {
 			String envServices = System.getenv("VCAP_SERVICES");
 			if (envServices != null && envServices.trim().length() != 0) {
@@ -89,35 +195,425 @@ public class VCapServices implements IVCapServices {
 		this.setServices(services, true);
 	}
 	
+	/**
+	 * Reads the services from a file formatted like VCAP_SERVICES.
+	 * The file is read again by {@link #reload()}.
+	 * @param servicesFile For example a mounted bindings file.
+	 * @param resolveSysProperty true when the values that follow the pattern
+	 * ${sys_prop_key,_default_value} should be substituted.
+	 * @throws IOException
+	 * @throws JSONException
+	 */
+	public VCapServices(File servicesFile, boolean resolveSysProperty) throws IOException, JSONException {
+		_servicesFile = servicesFile;
+		_resolveFileSysProperty = resolveSysProperty;
+		_layers = null;
+		_lazy = isLazyByDefault();
+		reload();
+	}
+	
+	/**
+	 * Merges the services of several layers.
+	 * A service of a layer with the same type and name as a service of a layer below
+	 * overrides it: the credentials are merged key by key.
+	 * The layers are read again by {@link #reload()}.
+	 * @param layers The bottom layer first. The layers without services are skipped.
+	 * @throws IOException
+	 * @throws JSONException
+	 */
+	public VCapServices(List<IVCapServicesSource> layers) throws IOException, JSONException {
+		_servicesFile = null;
+		_resolveFileSysProperty = false;
+		_layers = new ArrayList<IVCapServicesSource>(layers);
+		_lazy = isLazyByDefault();
+		reload();
+	}
+	
+	/**
+	 * Adds the services to the current ones.
+	 * @param services
+	 * @param resolveSysProperty
+	 * @throws JSONException
+	 */
 	protected void setServices(String services, boolean resolveSysProperty) throws JSONException {
+		LinkedHashMap<String, List<IVCapService>> parsed = parse(services, resolveSysProperty);
+		synchronized (_writeLock) {
+			publish(_snapshot.get().with(parsed));
+		}
+	}
+	
+	/**
+	 * Replaces the services by new ones.
+	 * The listeners are notified when a service was added, removed or changed.
+	 * @param services The new services formatted like VCAP_SERVICES.
+	 * @param resolveSysProperty
+	 * @return The services added, removed and changed.
+	 * @throws JSONException
+	 */
+	public VCapServicesChange replaceServices(String services, boolean resolveSysProperty) throws JSONException {
+		return replaceServices(parse(services, resolveSysProperty));
+	}
+	
+	private VCapServicesChange replaceServices(LinkedHashMap<String, List<IVCapService>> services) {
+		VCapServicesSnapshot snapshot = new VCapServicesSnapshot(services);
+		VCapServicesChange change;
+		synchronized (_writeLock) {
+			change = snapshot.diff(_snapshot.get());
+			if (change.isEmpty()) {
+				return change;
+			}
+			publish(snapshot);
+		}
+		notifyListeners(change);
+		return change;
+	}
+	
+	/**
+	 * A failing listener is logged: the services are published and the other listeners are notified.
+	 */
+	private void notifyListeners(VCapServicesChange change) {
+		for (IVCapServicesListener listener : _listeners) {
+			try {
+				listener.servicesChanged(this, change);
+			} catch (RuntimeException e) {
+				LOG.log(Level.WARNING, "The listener " + listener + " failed to handle the change of the services "
+						+ change, e);
+			}
+		}
+	}
+	
+	/**
+	 * Applies a layer of services on top of the current ones.
+	 * A service with the same type and name as a current service overrides it:
+	 * its label, plan and tags replace the current ones when they are defined
+	 * and its credentials are merged key by key. The other services are added.
+	 * <p>
+	 * The service types the layer does not touch are shared with the current services:
+	 * the cost is proportional to the layer, not to all the services.
+	 * The listeners are notified when a service was added or changed.
+	 * </p>
+	 * @param services The layer formatted like VCAP_SERVICES.
+	 * @param resolveSysProperty
+	 * @return The services added and changed.
+	 * @throws JSONException
+	 * @throws IllegalArgumentException when a service name is duplicated across service types.
+	 */
+	public VCapServicesChange applyOverlay(String services, boolean resolveSysProperty) throws JSONException {
+		LinkedHashMap<String, List<IVCapService>> layer = parse(services, resolveSysProperty);
+		ServicesOverlay overlay = new ServicesOverlay();
+		VCapServicesChange change;
+		synchronized (_writeLock) {
+			VCapServicesSnapshot snapshot = new VCapServicesSnapshot(
+					overlay.apply(_snapshot.get().getVCapServices(), layer));
+			change = overlay.getChange();
+			if (change.isEmpty()) {
+				return change;
+			}
+			publish(snapshot);
+		}
+		notifyListeners(change);
+		return change;
+	}
+	
+	/**
+	 * Reads again the file or the layers of the services.
+	 * @return The services added, removed and changed.
+	 * @throws IOException
+	 * @throws JSONException
+	 * @throws IllegalStateException when the services are not read from a file or from layers.
+	 */
+	public VCapServicesChange reload() throws IOException, JSONException {
+		if (_layers != null) {
+			return replaceServices(parseLayers());
+		}
+		if (_servicesFile == null) {
+			throw new IllegalStateException("The services are not read from a file.");
+		}
+		String services = new String(Files.readAllBytes(_servicesFile.toPath()), UTF8);
+		return replaceServices(services, _resolveFileSysProperty);
+	}
+	
+	private LinkedHashMap<String, List<IVCapService>> parseLayers() throws IOException, JSONException {
+		LinkedHashMap<String, List<IVCapService>> res = null;
+		ServicesOverlay overlay = new ServicesOverlay();
+		boolean bindings = false;
+		for (IVCapServicesSource layer : _layers) {
+			LinkedHashMap<String, List<IVCapService>> parsed;
+			if (layer instanceof ServiceBindingDirectory) {
+				// the large values are mapped on first access rather than read into a string.
+				parsed = ((ServiceBindingDirectory)layer).scan();
+				if (parsed == null || parsed.isEmpty()) {
+					continue;
+				}
+				bindings = true;
+			} else {
+				String services = layer.getServices();
+				if (services == null || services.trim().length() == 0) {
+					continue;
+				}
+				parsed = parse(services, layer.isResolveSysProperty());
+			}
+			res = res == null ? parsed : overlay.apply(res, parsed);
+		}
+		_bindingsDefined = bindings;
+		return res != null ? res : new LinkedHashMap<String, List<IVCapService>>();
+	}
+	
+	/**
+	 * @return true when VCAP_SERVICES is defined or a layer of service bindings has services:
+	 * otherwise getConnectionAsURI returns the default URI.
+	 */
+	private boolean isServicesDefined() {
+		return _bindingsDefined || VCapServiceCredentials.isVCapServicesDefined();
+	}
+	
+	/**
+	 * @return The layers the services are read from, the bottom one first, or null.
+	 */
+	public List<IVCapServicesSource> getLayers() {
+		return _layers == null ? null : Collections.unmodifiableList(_layers);
+	}
+	
+	/**
+	 * @return The file the services are read from or null.
+	 */
+	public File getServicesFile() {
+		return _servicesFile;
+	}
+	
+	private LinkedHashMap<String, List<IVCapService>> parse(String services,
+			boolean resolveSysProperty) throws JSONException {
 		if (services == null) {
 			throw new IllegalArgumentException("The services string description" +
 					" must not be null. No VCAP_SERVICES to parse.");
 		}
-		JSONObject obj = new JSONObject(services);
-		Iterator<?> it = obj.keys();
-		while (it.hasNext()) {
-			String serviceType = (String)it.next();
-			JSONArray arr = obj.getJSONArray(serviceType);
-			ArrayList<IVCapService> servicesArr = new ArrayList<IVCapService>(arr.length());
-			if (_services.put(serviceType, servicesArr) != null) {
-				throw new IllegalArgumentException("Duplicate service type arrays '" + serviceType + "'.");
+		VCapServicesMetrics metrics = _metrics;
+		if (metrics == null) {
+			return parse(services, resolveSysProperty, _lazy);
+		}
+		long start = System.nanoTime();
+		boolean success = false;
+		try {
+			LinkedHashMap<String, List<IVCapService>> res = parse(services, resolveSysProperty, _lazy);
+			success = true;
+			return res;
+		} finally {
+			metrics.parsed(start, success);
+		}
+	}
+	
+	private static LinkedHashMap<String, List<IVCapService>> parse(String services,
+			boolean resolveSysProperty, boolean lazy) throws JSONException {
+		VCapServicesEvents.ParseEvent event = VCapServicesEvents.beginParse();
+		if (event == null) {
+			return parseServices(services, resolveSysProperty, lazy);
+		}
+		LinkedHashMap<String, List<IVCapService>> res = null;
+		try {
+			res = parseServices(services, resolveSysProperty, lazy);
+			return res;
+		} finally {
+			event.complete(services, res, lazy);
+		}
+	}
+	
+	private static LinkedHashMap<String, List<IVCapService>> parseServices(String services,
+			boolean resolveSysProperty, boolean lazy) throws JSONException {
+		if (lazy) {
+			return new VCapServicesParser(services, resolveSysProperty).scanServices();
+		}
+		return new VCapServicesParser(services, resolveSysProperty).parseServices();
+	}
+	
+	private static boolean isLazyByDefault() {
+		String lazy = System.getenv(LAZY_PROPERTY);
+		if (lazy == null) {
+			lazy = System.getProperty(LAZY_PROPERTY);
+		}
+		return lazy != null && Boolean.parseBoolean(lazy.trim());
+	}
+	
+	/**
+	 * @return true when the services of a type are parsed on first access.
+	 */
+	public boolean isLazy() {
+		return _lazy;
+	}
+	
+	/**
+	 * Must be called while holding the write lock.
+	 */
+	private void publish(VCapServicesSnapshot snapshot) {
+		if (_resolveCredentials) {
+			snapshot.resolveCredentials(false);
+		}
+		_snapshot.set(snapshot);
+		HostAddressCache hostAddresses = _hostAddresses;
+		if (hostAddresses != null) {
+			hostAddresses.prefetch(snapshot.getHostnames());
+		}
+		CredentialsReferenceResolver credentialsResolver = _credentialsResolver;
+		if (credentialsResolver != null) {
+			credentialsResolver.prefetch(snapshot);
+		}
+	}
+	
+	/**
+	 * @param listener Notified when the services are replaced and have changed.
+	 */
+	public void addListener(IVCapServicesListener listener) {
+		_listeners.add(listener);
+	}
+	
+	/**
+	 * @param listener
+	 */
+	public void removeListener(IVCapServicesListener listener) {
+		_listeners.remove(listener);
+	}
+	
+	/**
+	 * Starts measuring the parsing, the lookups and the connection URIs.
+	 * @return The metrics. The same ones until {@link #disableMetrics()} is called.
+	 */
+	public VCapServicesMetrics enableMetrics() {
+		synchronized (_writeLock) {
+			if (_metrics == null) {
+				VCapServicesMetrics.enabled();
+				_metrics = new VCapServicesMetrics(this);
 			}
-			for (int i = 0; i < arr.length(); i++) {
-				JSONObject servOb = arr.getJSONObject(i);
-				VCapService serv = new VCapService(serviceType, servOb, resolveSysProperty);
-				servicesArr.add(serv);
-				String name = serv.getName();
-				if (name != null) {
-					if (_servicesIndexedByName.put(name, serv) != null) {
-						throw new IllegalArgumentException("Duplicate service with the name '" + name + "'.");
-					}
-				}
+			return _metrics;
+		}
+	}
+	
+	/**
+	 * Stops measuring and unregisters the MBean of the metrics when it is registered.
+	 * @throws JMException
+	 */
+	public void disableMetrics() throws JMException {
+		VCapServicesMetrics metrics;
+		synchronized (_writeLock) {
+			metrics = _metrics;
+			if (metrics == null) {
+				return;
 			}
+			_metrics = null;
+			VCapServicesMetrics.disabled();
 		}
+		metrics.unregister();
 	}
 	
-
+	/**
+	 * @return The metrics or null when they are disabled.
+	 */
+	public VCapServicesMetrics getMetrics() {
+		return _metrics;
+	}
+	
+	/**
+	 * Resolves the credentials of all the services once into immutable snapshots.
+	 * From then on the getters of the credentials are plain field reads.
+	 * For example in spring: init-method="resolveCredentials".
+	 */
+	public void resolveCredentials() {
+		synchronized (_writeLock) {
+			_resolveCredentials = true;
+			_snapshot.get().resolveCredentials(false);
+		}
+	}
+	
+	/**
+	 * Resolves the distinct hostnames of the credentials of the services concurrently
+	 * and keeps their addresses in the cache. The hostnames of the services
+	 * reloaded later are resolved in the background.
+	 * @param cache The cache of the addresses.
+	 * @param timeoutMillis How long to wait for the hostnames to be resolved.
+	 * @return true when all the hostnames were resolved or failed before the timeout.
+	 * @throws InterruptedException
+	 */
+	public boolean resolveHostnames(HostAddressCache cache, long timeoutMillis) throws InterruptedException {
+		CountDownLatch done;
+		synchronized (_writeLock) {
+			_hostAddresses = cache;
+			done = cache.prefetch(_snapshot.get().getHostnames());
+		}
+		return done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * @param name The name of the service.
+	 * @return The addresses of the hostname of the service from the cache
+	 * of {@link #resolveHostnames(HostAddressCache, long)};
+	 * null when the hostnames are not resolved or the service has no hostname.
+	 * @throws UnknownHostException when the host is not known.
+	 */
+	public InetAddress[] getVCapServiceAddresses(String name) throws UnknownHostException {
+		HostAddressCache hostAddresses = _hostAddresses;
+		IVCapService service = getVCapServiceByName(name);
+		if (hostAddresses == null || service == null) {
+			return null;
+		}
+		String hostname = service.getCredentials().getHostname();
+		return hostname == null ? null : hostAddresses.get(hostname);
+	}
+	
+	/**
+	 * Fetches the references of the credentials of the services in the background:
+	 * now and each time the services are replaced.
+	 * @param resolver The resolver of the references or null to stop resolving them.
+	 * @return The credentials fetched indexed by reference.
+	 */
+	public CompletableFuture<Map<String, IVCapServiceCredentials>> setCredentialsResolver(
+			CredentialsReferenceResolver resolver) {
+		synchronized (_writeLock) {
+			_credentialsResolver = resolver;
+			if (resolver == null) {
+				return CompletableFuture.completedFuture(null);
+			}
+			return resolver.prefetch(_snapshot.get());
+		}
+	}
+	
+	/**
+	 * @return The resolver of the references of the credentials or null.
+	 */
+	public CredentialsReferenceResolver getCredentialsResolver() {
+		return _credentialsResolver;
+	}
+	
+	/**
+	 * @param service
+	 * @return The credentials of the service. Fetched from the secret store
+	 * when they hold a reference and there is a resolver.
+	 */
+	public CompletableFuture<IVCapServiceCredentials> getCredentialsAsync(IVCapService service) {
+		CredentialsReferenceResolver resolver = _credentialsResolver;
+		if (resolver == null) {
+			return CompletableFuture.completedFuture(service.getCredentials());
+		}
+		return resolver.resolve(service.getCredentials());
+	}
+	
+	/**
+	 * @param name
+	 * @return The credentials of the service with this name or null.
+	 * Fetched from the secret store when they hold a reference and there is a resolver.
+	 */
+	public CompletableFuture<IVCapServiceCredentials> getVCapServiceCredentialsAsync(String name) {
+		IVCapService service = getVCapServiceByName(name);
+		if (service == null) {
+			return CompletableFuture.completedFuture(null);
+		}
+		return getCredentialsAsync(service);
+	}
+	
+	/**
+	 * Resolves again the credentials of all the services.
+	 * Picks up the changes in the system properties and environment variables.
+	 */
+	public void refreshCredentials() {
+		_snapshot.get().resolveCredentials(true);
+	}
 	
 	/**
 	 * This reflects directly the way the vcap services are described in the environment variable
@@ -125,16 +621,20 @@ public class VCapServices implements IVCapServices {
 	 * VCAP_SERVICES are an ordered bag of vcap services where the index is the service type (for example mongodb-1.8).
 	 * @return
 	 */
-	public LinkedHashMap<String,ArrayList<IVCapService>> getVCapServices() {
-		return _services;
+	public Map<String,List<IVCapService>> getVCapServices() {
+		return _snapshot.get().getVCapServices();
 	}
 	
 	/**
 	 * @param serviceType
 	 * @return The services of a given type.
 	 */
-	public ArrayList<IVCapService> getVCapServicesByType(String serviceType) {
-		return _services.get(serviceType);
+	public List<IVCapService> getVCapServicesByType(String serviceType) {
+		VCapServicesMetrics metrics = _metrics;
+		if (metrics != null) {
+			metrics.lookup();
+		}
+		return _snapshot.get().getVCapServicesByType(serviceType);
 	}
 	
 	/**
@@ -144,7 +644,11 @@ public class VCapServices implements IVCapServices {
 	 * @return The first service with this name or null.
 	 */
 	public IVCapService getVCapServiceByName(String name) {
-		return _servicesIndexedByName.get(name);
+		VCapServicesMetrics metrics = _metrics;
+		if (metrics != null) {
+			metrics.lookup();
+		}
+		return _snapshot.get().getVCapServiceByName(name);
 	}
 	
 	/**
@@ -153,11 +657,11 @@ public class VCapServices implements IVCapServices {
 	 * @return
 	 */
 	public IVCapService getVCapService(String serviceType, int index) {
-		ArrayList<IVCapService> servs = getVCapServicesByType(serviceType);
-		if (servs == null || servs.size() > index+1) {
-			return null;
+		VCapServicesMetrics metrics = _metrics;
+		if (metrics != null) {
+			metrics.lookup();
 		}
-		return servs.get(index);
+		return _snapshot.get().getVCapService(serviceType, index);
 	}
 	
 	/**
@@ -166,21 +670,82 @@ public class VCapServices implements IVCapServices {
 	 * @return
 	 */
 	public IVCapService getVCapService(Pattern serviceType, int index) {
-		for (Entry<String,ArrayList<IVCapService>> e : _services.entrySet()) {
-			String servType = e.getKey();
-			Matcher m = serviceType.matcher(servType);
-			if (m.matches()) {
-				if (e.getValue().size() > index+1) {
-					continue;
-				} else {
-					return e.getValue().get(index);
-				}
-			}
+		VCapServicesMetrics metrics = _metrics;
+		VCapServicesEvents.SelectorEvent event = VCapServicesEvents.beginSelector();
+		if (metrics == null && event == null) {
+			return _snapshot.get().getVCapService(serviceType, index);
 		}
-		return null;
+		long start = System.nanoTime();
+		IVCapService res = _snapshot.get().getVCapService(serviceType, index);
+		if (metrics != null) {
+			metrics.patternLookup(start);
+		}
+		if (event != null) {
+			event.complete(serviceType, null, res == null ? 0 : 1);
+		}
+		return res;
+	}
+	
+	/**
+	 * @param label
+	 * @return The services with this label.
+	 */
+	public List<IVCapService> getVCapServicesByLabel(String label) {
+		VCapServicesMetrics metrics = _metrics;
+		if (metrics != null) {
+			metrics.lookup();
+		}
+		return _snapshot.get().getVCapServicesByLabel(label);
+	}
+	
+	/**
+	 * @param plan
+	 * @return The services with this plan.
+	 */
+	public List<IVCapService> getVCapServicesByPlan(String plan) {
+		VCapServicesMetrics metrics = _metrics;
+		if (metrics != null) {
+			metrics.lookup();
+		}
+		return _snapshot.get().getVCapServicesByPlan(plan);
+	}
+	
+	/**
+	 * @param tag
+	 * @return The services tagged with this tag.
+	 */
+	public List<IVCapService> getVCapServicesByTag(String tag) {
+		VCapServicesMetrics metrics = _metrics;
+		if (metrics != null) {
+			metrics.lookup();
+		}
+		return _snapshot.get().getVCapServicesByTag(tag);
+	}
+	
+	public List<IVCapService> getVCapServicesByProduct(String product) {
+		VCapServicesMetrics metrics = _metrics;
+		if (metrics != null) {
+			metrics.lookup();
+		}
+		return _snapshot.get().getVCapServicesByProduct(product);
+	}
+	
+	public IVCapService getNewestVCapService(String product, String minVersion) {
+		VCapServicesMetrics metrics = _metrics;
+		if (metrics != null) {
+			metrics.lookup();
+		}
+		return _snapshot.get().getNewestVCapService(product, minVersion);
+	}
+	
+	public List<IVCapService> getVCapServicesByVersion(String product, String version) {
+		VCapServicesMetrics metrics = _metrics;
+		if (metrics != null) {
+			metrics.lookup();
+		}
+		return _snapshot.get().getVCapServicesByVersion(product, version);
 	}
 	
-
 	/**
 	 * Helper method: traverses the vcap services and
 	 * returns the first one that name matches the argument.
@@ -196,6 +761,21 @@ public class VCapServices implements IVCapServices {
 
 	}
 	
+	/**
+	 * Binds the credentials of a service onto a record or a POJO.
+	 * See {@link CredentialsBinder}.
+	 * @param name The name of the service.
+	 * @param type
+	 * @return A new instance with the credentials of the service or null when there is no such service.
+	 */
+	public <T> T bindCredentials(String name, Class<T> type) {
+		IVCapService serv = getVCapServiceByName(name);
+		if (serv == null) {
+			return null;
+		}
+		return CredentialsBinder.of(type).bind(serv);
+	}
+	
 	/**
 	 * @param serviceType
 	 * @param index The 0-based index
@@ -214,21 +794,35 @@ public class VCapServices implements IVCapServices {
 	 * @param serviceNameFilter regexp filter
 	 * @return
 	 */
-	public ArrayList<IVCapService> getVCapServices(NegatablePattern serviceTypeFilter, NegatablePattern serviceNameFilter) {
-		ArrayList<IVCapService> res = new ArrayList<IVCapService>();
-		for (Entry<String,ArrayList<IVCapService>> e : _services.entrySet()) {
-			String servType = e.getKey();
-			if (serviceTypeFilter.matches(servType)) {
-				for (IVCapService service : e.getValue()) {
-					if (serviceNameFilter.matches(service.getName())) {
-						res.add(service);
-					}
-				}
-			}
+	public List<IVCapService> getVCapServices(NegatablePattern serviceTypeFilter, NegatablePattern serviceNameFilter) {
+		VCapServicesMetrics metrics = _metrics;
+		VCapServicesEvents.SelectorEvent event = VCapServicesEvents.beginSelector();
+		if (metrics == null && event == null) {
+			return _snapshot.get().getVCapServices(serviceTypeFilter, serviceNameFilter);
+		}
+		long start = System.nanoTime();
+		List<IVCapService> res = _snapshot.get().getVCapServices(serviceTypeFilter, serviceNameFilter);
+		if (metrics != null) {
+			metrics.patternLookup(start);
+		}
+		if (event != null) {
+			event.complete(serviceTypeFilter, serviceNameFilter, res.size());
 		}
 		return res;
 	}
 	
+	/**
+	 * @param selector The tags and plans of the services.
+	 * @return The selected services in the order they are defined.
+	 */
+	public List<IVCapService> getVCapServices(TagSelector selector) {
+		VCapServicesMetrics metrics = _metrics;
+		if (metrics != null) {
+			metrics.lookup();
+		}
+		return _snapshot.get().getVCapServices(selector);
+	}
+	
 	/**
 	 * Extract a connection URI from either an environment variable or from 
 	 * the VCAP_SERVICES json.
@@ -248,8 +842,8 @@ public class VCapServices implements IVCapServices {
 			String defaultURIOrSysPropertyForIt,
 			String scheme, String serviceTypeRegexpOrString)
 	throws URISyntaxException, JSONException {
-		return VCapServiceCredentials.getConnectionAsURI(this,
-				defaultURIOrSysPropertyForIt, scheme, serviceTypeRegexpOrString);
+		return getConnectionAsURI(defaultURIOrSysPropertyForIt, scheme,
+				serviceTypeRegexpOrString, null);
 	}
 	
 	/**
@@ -265,6 +859,10 @@ public class VCapServices implements IVCapServices {
 	 * select it.
 	 * @param nameOfServiceSelector Name of the service or regexp to select it.
 	 * or null to get the first one.
+	 * <p>
+	 * The URIs are computed once per set of arguments and cached until the services
+	 * change.
+	 * </p>
 	 * @throws URISyntaxException 
 	 */
 	public URI getConnectionAsURI(
@@ -272,8 +870,235 @@ public class VCapServices implements IVCapServices {
 			String scheme, String serviceTypeRegexpOrString,
 			String nameOfServiceSelector)
     throws URISyntaxException, JSONException {
-		return VCapServiceCredentials.getConnectionAsURI(this,
+		VCapServicesMetrics metrics = _metrics;
+		if (metrics == null) {
+			return connectionAsURI(defaultURIOrSysPropertyForIt, scheme,
+					serviceTypeRegexpOrString, nameOfServiceSelector);
+		}
+		long start = System.nanoTime();
+		URI uri = connectionAsURI(defaultURIOrSysPropertyForIt, scheme,
+				serviceTypeRegexpOrString, nameOfServiceSelector);
+		metrics.connectionURI(start);
+		return uri;
+	}
+	
+	private URI connectionAsURI(
+			String defaultURIOrSysPropertyForIt,
+			String scheme, String serviceTypeRegexpOrString,
+			String nameOfServiceSelector)
+    throws URISyntaxException, JSONException {
+		VCapServicesEvents.ConnectionURIEvent event = VCapServicesEvents.beginConnectionURI();
+		VCapServicesSnapshot snapshot = _snapshot.get();
+		ConnectionKey key = new ConnectionKey(defaultURIOrSysPropertyForIt, scheme,
+				serviceTypeRegexpOrString, nameOfServiceSelector);
+		URI uri = snapshot._connections.get(key);
+		if (uri != null) {
+			_connectionCacheHits.incrementAndGet();
+			if (event != null) {
+				event.complete(scheme, serviceTypeRegexpOrString, nameOfServiceSelector, true);
+			}
+			return uri;
+		}
+		_connectionCacheMisses.incrementAndGet();
+		uri = VCapServiceCredentials.getConnectionAsURI(snapshot, isServicesDefined(),
 				defaultURIOrSysPropertyForIt, scheme, serviceTypeRegexpOrString,
 				nameOfServiceSelector);
-	}	
+		snapshot.cacheConnection(key, uri);
+		if (event != null) {
+			event.complete(scheme, serviceTypeRegexpOrString, nameOfServiceSelector, false);
+		}
+		return uri;
+	}
+	
+	/**
+	 * Resolves many getConnectionAsURI requests at once: all the selectors are matched
+	 * in a single pass over the services. For example the connections of all the beans
+	 * of an application at startup.
+	 * <p>
+	 * The URIs are cached as with getConnectionAsURI. A request that fails does not
+	 * fail the others: its error is reported by {@link ConnectionResolution#getUnmatched()}.
+	 * </p>
+	 * @param requests
+	 * @return The services, credentials and URIs in the order of the requests.
+	 */
+	public ConnectionResolution resolveConnections(List<ConnectionRequest> requests) {
+		VCapServicesSnapshot snapshot = _snapshot.get();
+		int count = requests.size();
+		IVCapService[] services = new IVCapService[count];
+		URI[] uris = new URI[count];
+		Exception[] errors = new Exception[count];
+		boolean defined = isServicesDefined();
+		if (defined) {
+			NegatablePattern[] typeFilters = new NegatablePattern[count];
+			NegatablePattern[] nameFilters = new NegatablePattern[count];
+			for (int i = 0; i < count; i++) {
+				ConnectionRequest request = requests.get(i);
+				try {
+					// the selectors of getConnectionAsURI: they share the cached URIs.
+					if (request.getNameOfServiceSelector() != null) {
+						typeFilters[i] = NegatablePattern.compile(request.getServiceTypeRegexpOrString());
+						nameFilters[i] = NegatablePattern.compile(request.getNameOfServiceSelector());
+					} else {
+						typeFilters[i] = VCapServiceCredentials.getFirstServiceTypeFilter(
+								request.getServiceTypeRegexpOrString());
+					}
+				} catch (PatternSyntaxException e) {
+					typeFilters[i] = null;
+					errors[i] = e;
+				}
+			}
+			IVCapService[] selected = snapshot.selectFirst(typeFilters, nameFilters);
+			System.arraycopy(selected, 0, services, 0, count);
+		}
+		for (int i = 0; i < count; i++) {
+			ConnectionRequest request = requests.get(i);
+			if (errors[i] != null) {
+				continue;
+			}
+			if (defined && services[i] == null) {
+				errors[i] = new IllegalArgumentException("Unable to find in VCAP_SERVICES a service for " + request + ".");
+				continue;
+			}
+			if (request.getScheme() == null) {
+				continue;
+			}
+			ConnectionKey key = new ConnectionKey(request.getDefaultURIOrSysPropertyForIt(), request.getScheme(),
+					request.getServiceTypeRegexpOrString(), request.getNameOfServiceSelector());
+			URI uri = snapshot._connections.get(key);
+			if (uri != null) {
+				_connectionCacheHits.incrementAndGet();
+				uris[i] = uri;
+				continue;
+			}
+			_connectionCacheMisses.incrementAndGet();
+			try {
+				if (defined) {
+					uri = VCapServiceCredentials.asURI(request.getScheme(), services[i].getCredentials());
+				} else if (request.getDefaultURIOrSysPropertyForIt() == null) {
+					throw new IllegalArgumentException("VCAP_SERVICES is not defined and there is no default URI.");
+				} else {
+					uri = VCapServiceCredentials.defaultURI(request.getDefaultURIOrSysPropertyForIt());
+				}
+				snapshot.cacheConnection(key, uri);
+				uris[i] = uri;
+			} catch (URISyntaxException e) {
+				errors[i] = e;
+			} catch (IllegalArgumentException e) {
+				errors[i] = e;
+			}
+		}
+		return new ConnectionResolution(requests, services, uris, errors);
+	}
+
+	/**
+	 * Same as {@link #getConnectionAsURI(String, String, String, String)}
+	 * with the credentials fetched from the secret store when the selected service
+	 * holds a reference and there is a resolver.
+	 * <p>
+	 * The URIs built from fetched credentials are not cached with the other URIs:
+	 * the resolver caches the credentials until they expire.
+	 * </p>
+	 * @return The URI; completed with the exception that getConnectionAsURI would throw.
+	 */
+	public CompletableFuture<URI> getConnectionAsURIAsync(
+			String defaultURIOrSysPropertyForIt,
+			final String scheme, String serviceTypeRegexpOrString,
+			String nameOfServiceSelector) {
+		CredentialsReferenceResolver resolver = _credentialsResolver;
+		try {
+			String reference = null;
+			if (resolver != null && isServicesDefined()) {
+				reference = resolver.getReference(selectCredentials(
+						serviceTypeRegexpOrString, nameOfServiceSelector));
+			}
+			if (reference == null) {
+				return CompletableFuture.completedFuture(getConnectionAsURI(defaultURIOrSysPropertyForIt,
+						scheme, serviceTypeRegexpOrString, nameOfServiceSelector));
+			}
+			return resolver.resolve(reference).thenApply(new Function<IVCapServiceCredentials, URI>() {
+				public URI apply(IVCapServiceCredentials credentials) {
+					try {
+						return VCapServiceCredentials.asURI(scheme, credentials);
+					} catch (URISyntaxException e) {
+						throw new CompletionException(e);
+					}
+				}
+			});
+		} catch (Exception e) {
+			CompletableFuture<URI> res = new CompletableFuture<URI>();
+			res.completeExceptionally(e);
+			return res;
+		}
+	}
+	
+	/**
+	 * @return The credentials of the service getConnectionAsURI selects
+	 * or null when there is none.
+	 */
+	private IVCapServiceCredentials selectCredentials(String serviceTypeRegexpOrString,
+			String nameOfServiceSelector) {
+		VCapServicesSnapshot snapshot = _snapshot.get();
+		try {
+			if (nameOfServiceSelector == null) {
+				return VCapServiceCredentials.getCredentialsOfFirstService(snapshot, serviceTypeRegexpOrString);
+			}
+			return VCapServiceCredentials.getCredentialsOfService(snapshot,
+					serviceTypeRegexpOrString, nameOfServiceSelector);
+		} catch (RuntimeException e) {
+			// no such service: getConnectionAsURI reports it.
+			return null;
+		}
+	}
+	
+	/**
+	 * Same as {@link #getConnectionAsURI(String, String, String, String)}
+	 * with the address of the host instead of its name when it was resolved
+	 * by {@link #resolveHostnames(HostAddressCache, long)}.
+	 * @param resolvedAddress true for the address of the host.
+	 * @throws URISyntaxException 
+	 */
+	public URI getConnectionAsURI(
+			String defaultURIOrSysPropertyForIt,
+			String scheme, String serviceTypeRegexpOrString,
+			String nameOfServiceSelector, boolean resolvedAddress)
+    throws URISyntaxException, JSONException {
+		URI uri = getConnectionAsURI(defaultURIOrSysPropertyForIt, scheme,
+				serviceTypeRegexpOrString, nameOfServiceSelector);
+		HostAddressCache hostAddresses = _hostAddresses;
+		if (!resolvedAddress || hostAddresses == null || uri.getHost() == null) {
+			return uri;
+		}
+		InetAddress address = hostAddresses.getCachedAddress(uri.getHost());
+		if (address == null) {
+			return uri;
+		}
+		return new URI(uri.getScheme(), uri.getUserInfo(), address.getHostAddress(),
+				uri.getPort(), uri.getPath(), uri.getQuery(), uri.getFragment());
+	}
+	
+	/**
+	 * @return The number of calls to getConnectionAsURI answered from the cache.
+	 */
+	public long getConnectionCacheHits() {
+		return _connectionCacheHits.get();
+	}
+	
+	/**
+	 * @return The number of calls to getConnectionAsURI that computed the URI.
+	 */
+	public long getConnectionCacheMisses() {
+		return _connectionCacheMisses.get();
+	}
+	
+	/**
+	 * Forgets the cached connection URIs.
+	 * For example after the system properties used as default URIs have changed.
+	 */
+	public void clearConnectionCache() {
+		_snapshot.get()._connections.clear();
+	}
+	
+	public String toString() {
+		return _snapshot.get().toString();
+	}
 }
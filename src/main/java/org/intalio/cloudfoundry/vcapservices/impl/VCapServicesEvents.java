@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+
+/**
+ * Java Flight Recorder events of the parsing, the selection of the services
+ * and the construction of the connection URIs.
+ * <p>
+ * The events carry a threshold: they can stay enabled in production recordings.
+ * For example: <code>jfr configure org.intalio.cloudfoundry.vcapservices.Selector#threshold=0ms</code>.
+ * The event classes are only loaded when the JVM supports JFR.
+ * </p>
+ * @author hmalphettes
+ */
+final class VCapServicesEvents {
+
+	private static final String PREFIX = "org.intalio.cloudfoundry.vcapservices.";
+
+	/** true when the JVM supports JFR. */
+	static final boolean AVAILABLE = isAvailable();
+
+	private VCapServicesEvents() {
+	}
+
+	private static boolean isAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event", false, VCapServicesEvents.class.getClassLoader());
+			return true;
+		} catch (Throwable t) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return The started event or null when it is not recorded.
+	 */
+	static ParseEvent beginParse() {
+		if (!AVAILABLE || !Types.PARSE.isEnabled()) {
+			return null;
+		}
+		ParseEvent event = new ParseEvent();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * @return The started event or null when it is not recorded.
+	 */
+	static SelectorEvent beginSelector() {
+		if (!AVAILABLE || !Types.SELECTOR.isEnabled()) {
+			return null;
+		}
+		SelectorEvent event = new SelectorEvent();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * @return The started event or null when it is not recorded.
+	 */
+	static ConnectionURIEvent beginConnectionURI() {
+		if (!AVAILABLE || !Types.CONNECTION_URI.isEnabled()) {
+			return null;
+		}
+		ConnectionURIEvent event = new ConnectionURIEvent();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * The registered event types: nothing is allocated when an event is not recorded.
+	 * Only loaded when the JVM supports JFR.
+	 */
+	private static final class Types {
+		static final EventType PARSE = EventType.getEventType(ParseEvent.class);
+		static final EventType SELECTOR = EventType.getEventType(SelectorEvent.class);
+		static final EventType CONNECTION_URI = EventType.getEventType(ConnectionURIEvent.class);
+	}
+
+	@Name(PREFIX + "Parse")
+	@Label("VCAP_SERVICES Parse")
+	@Description("Parsing of the services described like VCAP_SERVICES")
+	@Category({ "Cloud Foundry", "VCAP_SERVICES" })
+	@Threshold("0 ms")
+	static final class ParseEvent extends Event {
+
+		@Label("Payload Length")
+		@Description("Number of characters of the description of the services")
+		int payloadLength;
+
+		@Label("Service Types")
+		int serviceTypes;
+
+		@Label("Services")
+		int services;
+
+		@Label("Lazy")
+		boolean lazy;
+
+		@Label("Success")
+		boolean success;
+
+		/**
+		 * @param parsed null when the parsing failed.
+		 */
+		void complete(String payload, Map<String, List<IVCapService>> parsed, boolean lazy) {
+			end();
+			if (!shouldCommit()) {
+				return;
+			}
+			this.payloadLength = payload.length();
+			this.lazy = lazy;
+			this.success = parsed != null;
+			if (parsed != null) {
+				this.serviceTypes = parsed.size();
+				for (List<IVCapService> servs : parsed.values()) {
+					this.services += servs.size();
+				}
+			}
+			commit();
+		}
+	}
+
+	@Name(PREFIX + "Selector")
+	@Label("VCAP_SERVICES Selector")
+	@Description("Selection of services by type and name patterns")
+	@Category({ "Cloud Foundry", "VCAP_SERVICES" })
+	@Threshold("1 ms")
+	@StackTrace(false)
+	static final class SelectorEvent extends Event {
+
+		@Label("Type Pattern")
+		String typePattern;
+
+		@Label("Name Pattern")
+		String namePattern;
+
+		@Label("Result Count")
+		int resultCount;
+
+		void complete(Object typePattern, Object namePattern, int resultCount) {
+			end();
+			if (!shouldCommit()) {
+				return;
+			}
+			this.typePattern = typePattern == null ? null : typePattern.toString();
+			this.namePattern = namePattern == null ? null : namePattern.toString();
+			this.resultCount = resultCount;
+			commit();
+		}
+	}
+
+	@Name(PREFIX + "ConnectionURI")
+	@Label("VCAP_SERVICES Connection URI")
+	@Description("Construction of a connection URI. The URI itself is not recorded: it contains the password")
+	@Category({ "Cloud Foundry", "VCAP_SERVICES" })
+	@Threshold("1 ms")
+	@StackTrace(false)
+	static final class ConnectionURIEvent extends Event {
+
+		@Label("Scheme")
+		String scheme;
+
+		@Label("Service Type Selector")
+		String serviceType;
+
+		@Label("Service Name Selector")
+		String serviceName;
+
+		@Label("Cache Hit")
+		boolean cacheHit;
+
+		void complete(String scheme, String serviceType, String serviceName, boolean cacheHit) {
+			end();
+			if (!shouldCommit()) {
+				return;
+			}
+			this.scheme = scheme;
+			this.serviceType = serviceType;
+			this.serviceName = serviceName;
+			this.cacheHit = cacheHit;
+			commit();
+		}
+	}
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+/**
+ * Watches the file of the vcap services with a NIO WatchService and reloads
+ * the services when it changes.
+ * <p>
+ * The parent directory is watched: this supports the files that are replaced
+ * rather than modified, for example the atomic symlink swaps of mounted volumes.
+ * A reload that fails, for example on a partially written file, leaves the current
+ * services in place; it is retried at the next change.
+ * </p>
+ * <p>
+ * In spring:
+ * <code>
+ * <bean id="vcapservicesWatcher" class="org.intalio.cloudfoundry.vcapservices.impl.VCapServicesFileWatcher"
+ *         init-method="start" destroy-method="close">
+ *  <constructor-arg ref="vcapservices"/>
+ * </bean>
+ * </code>
+ * </p>
+ * @author hmalphettes
+ */
+public class VCapServicesFileWatcher implements Closeable, Runnable {
+
+	private final VCapServices _services;
+	private final Path _dir;
+	private final String _fileName;
+	private volatile WatchService _watchService;
+	private volatile Exception _lastError;
+
+	/**
+	 * @param services Services read from a file.
+	 */
+	public VCapServicesFileWatcher(VCapServices services) {
+		File file = services.getServicesFile();
+		if (file == null) {
+			throw new IllegalArgumentException("The services are not read from a file.");
+		}
+		_services = services;
+		Path path = file.getAbsoluteFile().toPath();
+		_dir = path.getParent();
+		_fileName = path.getFileName().toString();
+	}
+
+	/**
+	 * Starts watching in a daemon thread.
+	 * @throws IOException
+	 */
+	public synchronized void start() throws IOException {
+		if (_watchService != null) {
+			return;
+		}
+		WatchService watchService = _dir.getFileSystem().newWatchService();
+		_dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+		_watchService = watchService;
+		Thread thread = new Thread(this, "vcapservices-watcher-" + _fileName);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops watching.
+	 */
+	public synchronized void close() throws IOException {
+		WatchService watchService = _watchService;
+		_watchService = null;
+		if (watchService != null) {
+			watchService.close();
+		}
+	}
+
+	/**
+	 * @return The error of the last reload or null when it succeeded.
+	 */
+	public Exception getLastError() {
+		return _lastError;
+	}
+
+	public void run() {
+		WatchService watchService = _watchService;
+		try {
+			while (watchService != null) {
+				WatchKey key = watchService.take();
+				boolean reload = false;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					Object context = event.context();
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW || context == null) {
+						reload = true;
+					} else {
+						String name = context.toString();
+						reload |= name.equals(_fileName) || name.startsWith("..");
+					}
+				}
+				if (!key.reset()) {
+					break;
+				}
+				if (reload) {
+					reload();
+				}
+				watchService = _watchService;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			// closed
+		}
+	}
+
+	private void reload() {
+		try {
+			if (_services.getServicesFile().exists()) {
+				_services.reload();
+				_lastError = null;
+			}
+		} catch (Exception e) {
+			_lastError = e;
+		}
+	}
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.LatencyHistogram;
+
+/**
+ * Counters and latency histograms of a {@link VCapServices}:
+ * parsing, lookups and connection URIs.
+ * <p>
+ * Enabled by {@link VCapServices#enableMetrics()}. When they are disabled
+ * the instrumented methods only read a null field.
+ * The resolution of the ${key} values is static: it is measured for the whole JVM
+ * while the metrics of at least one {@link VCapServices} are enabled.
+ * </p>
+ * <p>
+ * Published to JMX by {@link #register(String)} and scraped programmatically
+ * with {@link #snapshot()}.
+ * </p>
+ * @author hmalphettes
+ */
+public final class VCapServicesMetrics implements VCapServicesMetricsMBean {
+
+	/** The domain of the names of the MBeans. */
+	public static final String JMX_DOMAIN = "org.intalio.cloudfoundry.vcapservices";
+
+	private static final AtomicInteger ENABLED = new AtomicInteger();
+	/** true while the metrics of at least one instance are enabled. */
+	static volatile boolean _measurePropertyResolution;
+	private static final LongAdder PROPERTY_RESOLUTIONS = new LongAdder();
+	private static final LatencyHistogram PROPERTY_RESOLUTION_LATENCY = new LatencyHistogram();
+
+	private final VCapServices _services;
+
+	private final LongAdder _parses = new LongAdder();
+	private final LongAdder _parseFailures = new LongAdder();
+	private final LatencyHistogram _parseLatency = new LatencyHistogram();
+
+	private final LongAdder _patternLookups = new LongAdder();
+	private final LatencyHistogram _patternLookupLatency = new LatencyHistogram();
+
+	private final LongAdder _lookups = new LongAdder();
+
+	private final LongAdder _connectionURIs = new LongAdder();
+	private final LatencyHistogram _connectionURILatency = new LatencyHistogram();
+
+	private ObjectName _objectName;
+
+	VCapServicesMetrics(VCapServices services) {
+		_services = services;
+	}
+
+	static void enabled() {
+		if (ENABLED.incrementAndGet() == 1) {
+			_measurePropertyResolution = true;
+		}
+	}
+
+	static void disabled() {
+		if (ENABLED.decrementAndGet() == 0) {
+			_measurePropertyResolution = false;
+		}
+	}
+
+	void parsed(long startNanos, boolean success) {
+		_parses.increment();
+		if (!success) {
+			_parseFailures.increment();
+		}
+		_parseLatency.record(System.nanoTime() - startNanos);
+	}
+
+	void patternLookup(long startNanos) {
+		_patternLookups.increment();
+		_patternLookupLatency.record(System.nanoTime() - startNanos);
+	}
+
+	void lookup() {
+		_lookups.increment();
+	}
+
+	void connectionURI(long startNanos) {
+		_connectionURIs.increment();
+		_connectionURILatency.record(System.nanoTime() - startNanos);
+	}
+
+	static void propertyResolved(long startNanos) {
+		PROPERTY_RESOLUTIONS.increment();
+		PROPERTY_RESOLUTION_LATENCY.record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * @return The durations of the parsing of the services.
+	 */
+	public LatencyHistogram getParseLatency() {
+		return _parseLatency;
+	}
+
+	/**
+	 * @return The durations of the lookups by type and name patterns.
+	 */
+	public LatencyHistogram getPatternLookupLatency() {
+		return _patternLookupLatency;
+	}
+
+	/**
+	 * @return The durations of getConnectionAsURI.
+	 */
+	public LatencyHistogram getConnectionURILatency() {
+		return _connectionURILatency;
+	}
+
+	/**
+	 * @return The durations of the resolution of the ${key} values in the JVM.
+	 */
+	public static LatencyHistogram getPropertyResolutionLatency() {
+		return PROPERTY_RESOLUTION_LATENCY;
+	}
+
+	public int getServiceTypes() {
+		return _services.getVCapServices().size();
+	}
+
+	public int getServices() {
+		int res = 0;
+		for (List<IVCapService> servs : _services.getVCapServices().values()) {
+			res += servs.size();
+		}
+		return res;
+	}
+
+	public long getParseCount() {
+		return _parses.sum();
+	}
+
+	public long getParseFailures() {
+		return _parseFailures.sum();
+	}
+
+	public long getParseMeanMicros() {
+		return _parseLatency.getMean(TimeUnit.MICROSECONDS);
+	}
+
+	public long getParseMaxMicros() {
+		return _parseLatency.getMax(TimeUnit.MICROSECONDS);
+	}
+
+	public long getPatternLookupCount() {
+		return _patternLookups.sum();
+	}
+
+	public long getPatternLookupMeanMicros() {
+		return _patternLookupLatency.getMean(TimeUnit.MICROSECONDS);
+	}
+
+	public long getPatternLookupP99Micros() {
+		return _patternLookupLatency.getPercentile(99, TimeUnit.MICROSECONDS);
+	}
+
+	public long getLookupCount() {
+		return _lookups.sum();
+	}
+
+	public long getConnectionURICount() {
+		return _connectionURIs.sum();
+	}
+
+	public long getConnectionURIMeanMicros() {
+		return _connectionURILatency.getMean(TimeUnit.MICROSECONDS);
+	}
+
+	public long getConnectionURIP99Micros() {
+		return _connectionURILatency.getPercentile(99, TimeUnit.MICROSECONDS);
+	}
+
+	public long getConnectionCacheHits() {
+		return _services.getConnectionCacheHits();
+	}
+
+	public long getConnectionCacheMisses() {
+		return _services.getConnectionCacheMisses();
+	}
+
+	public long getPropertyResolutionCount() {
+		return PROPERTY_RESOLUTIONS.sum();
+	}
+
+	public long getPropertyResolutionMeanMicros() {
+		return PROPERTY_RESOLUTION_LATENCY.getMean(TimeUnit.MICROSECONDS);
+	}
+
+	public long getPropertyResolutionP99Micros() {
+		return PROPERTY_RESOLUTION_LATENCY.getPercentile(99, TimeUnit.MICROSECONDS);
+	}
+
+	/**
+	 * Forgets the counts and the durations of this instance.
+	 * The resolution of the ${key} values is shared by the JVM: it is not reset.
+	 * Not atomic with respect to the concurrent measures.
+	 */
+	public void reset() {
+		_parses.reset();
+		_parseFailures.reset();
+		_parseLatency.reset();
+		_patternLookups.reset();
+		_patternLookupLatency.reset();
+		_lookups.reset();
+		_connectionURIs.reset();
+		_connectionURILatency.reset();
+	}
+
+	/**
+	 * @return The values of the attributes of the MBean indexed by their name.
+	 * Each value is read once: the map is not modified afterwards.
+	 */
+	public Map<String, Long> snapshot() {
+		LinkedHashMap<String, Long> res = new LinkedHashMap<String, Long>();
+		res.put("ServiceTypes", (long)getServiceTypes());
+		res.put("Services", (long)getServices());
+		res.put("ParseCount", getParseCount());
+		res.put("ParseFailures", getParseFailures());
+		res.put("ParseMeanMicros", getParseMeanMicros());
+		res.put("ParseMaxMicros", getParseMaxMicros());
+		res.put("PatternLookupCount", getPatternLookupCount());
+		res.put("PatternLookupMeanMicros", getPatternLookupMeanMicros());
+		res.put("PatternLookupP99Micros", getPatternLookupP99Micros());
+		res.put("LookupCount", getLookupCount());
+		res.put("ConnectionURICount", getConnectionURICount());
+		res.put("ConnectionURIMeanMicros", getConnectionURIMeanMicros());
+		res.put("ConnectionURIP99Micros", getConnectionURIP99Micros());
+		res.put("ConnectionCacheHits", getConnectionCacheHits());
+		res.put("ConnectionCacheMisses", getConnectionCacheMisses());
+		res.put("PropertyResolutionCount", getPropertyResolutionCount());
+		res.put("PropertyResolutionMeanMicros", getPropertyResolutionMeanMicros());
+		res.put("PropertyResolutionP99Micros", getPropertyResolutionP99Micros());
+		return res;
+	}
+
+	/**
+	 * Registers the metrics in the platform MBean server
+	 * as org.intalio.cloudfoundry.vcapservices:type=VCapServices,name=<i>name</i>.
+	 * @param name Identifies the instance of VCapServices. For example the name of the application.
+	 * @return The name of the MBean.
+	 * @throws JMException when an MBean is already registered with this name.
+	 */
+	public synchronized ObjectName register(String name) throws JMException {
+		if (_objectName != null) {
+			throw new IllegalStateException("Already registered as " + _objectName);
+		}
+		ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=VCapServices,name="
+				+ ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		_objectName = objectName;
+		return objectName;
+	}
+
+	/**
+	 * Removes the MBean from the platform MBean server. Does nothing when it is not registered.
+	 * @throws JMException
+	 */
+	public synchronized void unregister() throws JMException {
+		if (_objectName == null) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		if (server.isRegistered(_objectName)) {
+			server.unregisterMBean(_objectName);
+		}
+		_objectName = null;
+	}
+
+	/**
+	 * @return The name of the MBean or null when it is not registered.
+	 */
+	public synchronized ObjectName getObjectName() {
+		return _objectName;
+	}
+
+	public String toString() {
+		return snapshot().toString();
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+/**
+ * JMX view of {@link VCapServicesMetrics}.
+ * The durations are in microseconds.
+ * @author hmalphettes
+ */
+public interface VCapServicesMetricsMBean {
+
+	/** @return The number of service types. */
+	int getServiceTypes();
+
+	/** @return The number of services. */
+	int getServices();
+
+	long getParseCount();
+	long getParseFailures();
+	long getParseMeanMicros();
+	long getParseMaxMicros();
+
+	long getPatternLookupCount();
+	long getPatternLookupMeanMicros();
+	long getPatternLookupP99Micros();
+
+	/** @return The number of lookups by name, type, label, plan and tag. */
+	long getLookupCount();
+
+	long getConnectionURICount();
+	long getConnectionURIMeanMicros();
+	long getConnectionURIP99Micros();
+	long getConnectionCacheHits();
+	long getConnectionCacheMisses();
+
+	/** @return The number of values resolved in the JVM since the property resolution is measured. */
+	long getPropertyResolutionCount();
+	long getPropertyResolutionMeanMicros();
+	long getPropertyResolutionP99Micros();
+
+	/**
+	 * Forgets the counts and the durations.
+	 */
+	void reset();
+
+}
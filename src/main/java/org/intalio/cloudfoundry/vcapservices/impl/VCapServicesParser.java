@@ -0,0 +1,533 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.json.JSONException;
+
+/**
+ * Single pass tokenizer for the VCAP_SERVICES JSON string.
+ * <p>
+ * Reads the characters of the string directly into {@link VCapService}
+ * and {@link VCapServiceCredentials} records without building
+ * an intermediate JSONObject tree.
+ * Members of a service that are not part of the model are skipped
+ * without being materialized.
+ * </p>
+ * <p>
+ * Credential values are kept as String, Long, Double or Boolean.
+ * Nested objects and arrays inside the credentials are kept as their JSON text.
+ * </p>
+ * @author hmalphettes
+ */
+final class VCapServicesParser {
+
+	private static final String[] EMPTY_STRINGS = new String[0];
+
+	private final String _src;
+	/** The end of the characters to read. */
+	private final int _len;
+	private int _pos;
+	private final boolean _resolveSysProperty;
+
+	/** re-used while decoding strings that contain escape sequences. */
+	private StringBuilder _buf;
+
+	/**
+	 * @param src The JSON string.
+	 * @param resolveSysProperty passed on to the services and their credentials.
+	 */
+	VCapServicesParser(String src, boolean resolveSysProperty) {
+		this(src, 0, src.length(), resolveSysProperty);
+	}
+
+	/**
+	 * @param src The JSON string.
+	 * @param start The index of the first character to read.
+	 * @param end The index after the last character to read.
+	 * @param resolveSysProperty passed on to the services and their credentials.
+	 */
+	VCapServicesParser(String src, int start, int end, boolean resolveSysProperty) {
+		_src = src;
+		_pos = start;
+		_len = end;
+		_resolveSysProperty = resolveSysProperty;
+	}
+
+	/**
+	 * Parses the top-level object: an ordered bag of arrays of services indexed by service type.
+	 * @return The services indexed by their service type.
+	 * @throws JSONException when the string is not well-formed JSON.
+	 * @throws IllegalArgumentException when a service type is defined twice.
+	 */
+	LinkedHashMap<String, List<IVCapService>> parseServices() throws JSONException {
+		LinkedHashMap<String, List<IVCapService>> res = new LinkedHashMap<String, List<IVCapService>>();
+		expect('{');
+		if (!consume('}')) {
+			do {
+				String serviceType = readString();
+				expect(':');
+				List<IVCapService> servicesArr = readServiceArray(serviceType);
+				if (res.put(serviceType, servicesArr) != null) {
+					throw new IllegalArgumentException("Duplicate service type arrays '" + serviceType + "'.");
+				}
+			} while (consume(','));
+			expect('}');
+		}
+		if (skipWhitespace() != -1) {
+			throw syntaxError("Unexpected content after the end of the services");
+		}
+		return res;
+	}
+
+	/**
+	 * Scans the top-level object without building the services:
+	 * records the range of characters of each array of services and the names
+	 * of the services. The arrays are parsed on first access by {@link LazyServiceList}.
+	 * <p>
+	 * The scan checks everything the full parse would reject:
+	 * the syntax, the duplicate service types and the services without credentials.
+	 * </p>
+	 * @return The lazy lists of services indexed by their service type.
+	 * @throws JSONException when the string is not well-formed JSON.
+	 * @throws IllegalArgumentException when a service type is defined twice.
+	 */
+	LinkedHashMap<String, List<IVCapService>> scanServices() throws JSONException {
+		LinkedHashMap<String, List<IVCapService>> res = new LinkedHashMap<String, List<IVCapService>>();
+		ArrayList<String> names = new ArrayList<String>();
+		expect('{');
+		if (!consume('}')) {
+			do {
+				String serviceType = readString();
+				expect(':');
+				skipWhitespace();
+				int start = _pos;
+				names.clear();
+				scanServiceArray(names);
+				List<IVCapService> servicesArr = names.isEmpty() ? ServiceList.EMPTY
+						: new LazyServiceList(_src, start, _pos, serviceType,
+								names.toArray(new String[names.size()]), _resolveSysProperty);
+				if (res.put(serviceType, servicesArr) != null) {
+					throw new IllegalArgumentException("Duplicate service type arrays '" + serviceType + "'.");
+				}
+			} while (consume(','));
+			expect('}');
+		}
+		if (skipWhitespace() != -1) {
+			throw syntaxError("Unexpected content after the end of the services");
+		}
+		return res;
+	}
+
+	private void scanServiceArray(List<String> names) throws JSONException {
+		expect('[');
+		if (!consume(']')) {
+			do {
+				names.add(scanService());
+			} while (consume(','));
+			expect(']');
+		}
+	}
+
+	/**
+	 * @return The name of the service.
+	 */
+	private String scanService() throws JSONException {
+		String name = null;
+		boolean hasCredentials = false;
+		expect('{');
+		if (!consume('}')) {
+			do {
+				String key = readString();
+				expect(':');
+				if ("name".equals(key)) {
+					name = readAttribute();
+				} else if ("credentials".equals(key)) {
+					if (skipWhitespace() != '{') {
+						throw syntaxError("JSONObject[\"credentials\"] is not a JSONObject");
+					}
+					skipValue();
+					hasCredentials = true;
+				} else {
+					skipValue();
+				}
+			} while (consume(','));
+			expect('}');
+		}
+		if (!hasCredentials) {
+			throw new JSONException("JSONObject[\"credentials\"] not found.");
+		}
+		return name;
+	}
+
+	/**
+	 * Parses an array of services.
+	 * @param serviceType
+	 * @return The services.
+	 * @throws JSONException when the string is not well-formed JSON.
+	 */
+	ServiceList parseServiceArray(String serviceType) throws JSONException {
+		return readServiceArray(serviceType);
+	}
+
+	private ServiceList readServiceArray(String serviceType) throws JSONException {
+		ArrayList<IVCapService> servicesArr = new ArrayList<IVCapService>(2);
+		expect('[');
+		if (!consume(']')) {
+			do {
+				servicesArr.add(readService(serviceType));
+			} while (consume(','));
+			expect(']');
+		}
+		return ServiceList.copyOf(servicesArr);
+	}
+
+	private VCapService readService(String serviceType) throws JSONException {
+		String name = null;
+		String label = null;
+		String plan = null;
+		String[] tags = null;
+		VCapServiceCredentials cred = null;
+		expect('{');
+		if (!consume('}')) {
+			do {
+				String key = readString();
+				expect(':');
+				if ("name".equals(key)) {
+					name = readAttribute();
+				} else if ("label".equals(key)) {
+					label = readAttribute();
+				} else if ("plan".equals(key)) {
+					plan = readAttribute();
+				} else if ("tags".equals(key)) {
+					tags = readTags();
+				} else if ("credentials".equals(key)) {
+					cred = readCredentials();
+				} else {
+					skipValue();
+				}
+			} while (consume(','));
+			expect('}');
+		}
+		if (cred == null) {
+			throw new JSONException("JSONObject[\"credentials\"] not found.");
+		}
+		return new VCapService(serviceType, name, label, plan, tags, cred, _resolveSysProperty);
+	}
+
+	private VCapServiceCredentials readCredentials() throws JSONException {
+		if (skipWhitespace() != '{') {
+			throw syntaxError("JSONObject[\"credentials\"] is not a JSONObject");
+		}
+		_pos++;
+		String[] keys = new String[8];
+		Object[] values = new Object[8];
+		int size = 0;
+		if (!consume('}')) {
+			do {
+				String key = readString();
+				expect(':');
+				Object value = readCredentialValue();
+				if (size == keys.length) {
+					String[] k = new String[size * 2];
+					System.arraycopy(keys, 0, k, 0, size);
+					keys = k;
+					Object[] v = new Object[size * 2];
+					System.arraycopy(values, 0, v, 0, size);
+					values = v;
+				}
+				keys[size] = key;
+				values[size] = value;
+				size++;
+			} while (consume(','));
+			expect('}');
+		}
+		String[] k = new String[size];
+		System.arraycopy(keys, 0, k, 0, size);
+		Object[] v = new Object[size];
+		System.arraycopy(values, 0, v, 0, size);
+		return new VCapServiceCredentials(k, v, _resolveSysProperty);
+	}
+
+	/**
+	 * @return A String, Long, Double, Boolean, null or the JSON text of a nested object or array.
+	 */
+	private Object readCredentialValue() throws JSONException {
+		int c = skipWhitespace();
+		if (c == '{' || c == '[') {
+			int start = _pos;
+			skipValue();
+			return _src.substring(start, _pos);
+		}
+		return readScalar();
+	}
+
+	private String readScalarAsString() throws JSONException {
+		Object value = readScalar();
+		return value == null ? null : value.toString();
+	}
+
+	/**
+	 * Reads the name, label or plan of a service.
+	 * @return The scalar value as a string; null for null, an object or an array
+	 * as the JSONObject based parsing did.
+	 */
+	private String readAttribute() throws JSONException {
+		int c = skipWhitespace();
+		if (c == '{' || c == '[') {
+			skipValue();
+			return null;
+		}
+		return readScalarAsString();
+	}
+
+	/**
+	 * @return The tags; null when the value is null or not an array.
+	 * A tag that is an object or an array is kept as its JSON text.
+	 */
+	private String[] readTags() throws JSONException {
+		if (skipWhitespace() != '[') {
+			skipValue();
+			return null;
+		}
+		_pos++;
+		if (consume(']')) {
+			return EMPTY_STRINGS;
+		}
+		ArrayList<String> res = new ArrayList<String>();
+		do {
+			Object tag = readCredentialValue();
+			res.add(tag == null ? null : tag.toString());
+		} while (consume(','));
+		expect(']');
+		return res.toArray(new String[res.size()]);
+	}
+
+	private Object readScalar() throws JSONException {
+		int c = skipWhitespace();
+		switch (c) {
+		case '"':
+			return readString();
+		case 't':
+			readLiteral("true");
+			return Boolean.TRUE;
+		case 'f':
+			readLiteral("false");
+			return Boolean.FALSE;
+		case 'n':
+			readLiteral("null");
+			return null;
+		case -1:
+			throw syntaxError("Unexpected end of the services");
+		default:
+			if (c == '-' || (c >= '0' && c <= '9')) {
+				return readNumber();
+			}
+			throw syntaxError("Unexpected character '" + (char)c + "'");
+		}
+	}
+
+	private Number readNumber() throws JSONException {
+		int start = _pos;
+		boolean integral = true;
+		while (_pos < _len) {
+			char c = _src.charAt(_pos);
+			if (c >= '0' && c <= '9' || c == '-' || c == '+') {
+				_pos++;
+			} else if (c == '.' || c == 'e' || c == 'E') {
+				integral = false;
+				_pos++;
+			} else {
+				break;
+			}
+		}
+		String num = _src.substring(start, _pos);
+		try {
+			if (integral && _pos - start < 19) {
+				return Long.valueOf(num);
+			}
+			return Double.valueOf(num);
+		} catch (NumberFormatException e) {
+			throw syntaxError("Invalid number '" + num + "'");
+		}
+	}
+
+	private void readLiteral(String literal) throws JSONException {
+		if (!_src.startsWith(literal, _pos)) {
+			throw syntaxError("Expected '" + literal + "'");
+		}
+		_pos += literal.length();
+	}
+
+	/**
+	 * Reads a string. When it does not contain any escape sequence
+	 * it is a plain substring of the source.
+	 */
+	private String readString() throws JSONException {
+		if (skipWhitespace() != '"') {
+			throw syntaxError("A JSONObject text must begin with '\"'");
+		}
+		int start = ++_pos;
+		while (_pos < _len) {
+			char c = _src.charAt(_pos);
+			if (c == '"') {
+				return _src.substring(start, _pos++);
+			}
+			if (c == '\\') {
+				return readEscapedString(start);
+			}
+			_pos++;
+		}
+		throw syntaxError("Unterminated string");
+	}
+
+	private String readEscapedString(int start) throws JSONException {
+		if (_buf == null) {
+			_buf = new StringBuilder(64);
+		}
+		StringBuilder sb = _buf;
+		sb.setLength(0);
+		sb.append(_src, start, _pos);
+		while (_pos < _len) {
+			char c = _src.charAt(_pos++);
+			if (c == '"') {
+				return sb.toString();
+			}
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			if (_pos >= _len) {
+				break;
+			}
+			c = _src.charAt(_pos++);
+			switch (c) {
+			case 'b': sb.append('\b'); break;
+			case 't': sb.append('\t'); break;
+			case 'n': sb.append('\n'); break;
+			case 'f': sb.append('\f'); break;
+			case 'r': sb.append('\r'); break;
+			case 'u':
+				if (_pos + 4 > _len) {
+					throw syntaxError("Illegal escape.");
+				}
+				try {
+					sb.append((char)Integer.parseInt(_src.substring(_pos, _pos + 4), 16));
+				} catch (NumberFormatException e) {
+					throw syntaxError("Illegal escape.");
+				}
+				_pos += 4;
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+		throw syntaxError("Unterminated string");
+	}
+
+	/**
+	 * Skips a value of any kind. The strings, objects and arrays are not materialized;
+	 * the numbers are parsed to be checked.
+	 */
+	private void skipValue() throws JSONException {
+		int c = skipWhitespace();
+		if (c == '"') {
+			skipString();
+		} else if (c == '{') {
+			_pos++;
+			if (!consume('}')) {
+				do {
+					if (skipWhitespace() != '"') {
+						throw syntaxError("A JSONObject text must begin with '\"'");
+					}
+					skipString();
+					expect(':');
+					skipValue();
+				} while (consume(','));
+				expect('}');
+			}
+		} else if (c == '[') {
+			_pos++;
+			if (!consume(']')) {
+				do {
+					skipValue();
+				} while (consume(','));
+				expect(']');
+			}
+		} else {
+			readScalar();
+		}
+	}
+
+	private void skipString() throws JSONException {
+		_pos++;
+		while (_pos < _len) {
+			char c = _src.charAt(_pos++);
+			if (c == '"') {
+				return;
+			}
+			if (c == '\\') {
+				_pos++;
+			}
+		}
+		throw syntaxError("Unterminated string");
+	}
+
+	/**
+	 * @return The next non-whitespace character without consuming it or -1 at the end of the input.
+	 */
+	private int skipWhitespace() {
+		while (_pos < _len) {
+			char c = _src.charAt(_pos);
+			if (c > ' ') {
+				return c;
+			}
+			_pos++;
+		}
+		return -1;
+	}
+
+	private boolean consume(char expected) {
+		if (skipWhitespace() == expected) {
+			_pos++;
+			return true;
+		}
+		return false;
+	}
+
+	private void expect(char expected) throws JSONException {
+		if (!consume(expected)) {
+			throw syntaxError("Expected a '" + expected + "'");
+		}
+	}
+
+	private JSONException syntaxError(String message) {
+		return new JSONException(message + " at character " + _pos);
+	}
+
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.IVCapServiceCredentials;
+import org.intalio.cloudfoundry.vcapservices.IVCapServices;
+import org.intalio.cloudfoundry.vcapservices.NegatablePattern;
+import org.intalio.cloudfoundry.vcapservices.ServiceVersion;
+import org.intalio.cloudfoundry.vcapservices.TagSelector;
+import org.intalio.cloudfoundry.vcapservices.VCapServicesChange;
+
+/**
+ * The services, their indexes and the cached connection URIs at a given time.
+ * <p>
+ * A snapshot is never modified once it is built: {@link VCapServices} publishes
+ * a new snapshot when the services change and the readers never block.
+ * </p>
+ * @author hmalphettes
+ */
+final class VCapServicesSnapshot implements IVCapServices {
+
+	static final VCapServicesSnapshot EMPTY =
+			new VCapServicesSnapshot(new LinkedHashMap<String, List<IVCapService>>());
+
+	/** Unmodifiable view of the services indexed by type. */
+	private final Map<String, List<IVCapService>> _services;
+	private final ServicesIndex _index;
+
+	/** The cached connection URIs are cleared when there are more than this number of them. */
+	private static final int MAX_CACHED_CONNECTIONS = 1024;
+
+	/**
+	 * The URIs computed by getConnectionAsURI indexed by its arguments.
+	 * Add them with {@link #cacheConnection(ConnectionKey, URI)}.
+	 */
+	final ConcurrentHashMap<ConnectionKey, URI> _connections = new ConcurrentHashMap<ConnectionKey, URI>();
+
+	/**
+	 * @param services The services indexed by type.
+	 * @throws IllegalArgumentException when two services have the same name.
+	 */
+	VCapServicesSnapshot(LinkedHashMap<String, List<IVCapService>> services) {
+		for (Entry<String, List<IVCapService>> e : services.entrySet()) {
+			if (!(e.getValue() instanceof ServiceList || e.getValue() instanceof LazyServiceList)) {
+				e.setValue(ServiceList.copyOf(e.getValue()));
+			}
+		}
+		_services = Collections.unmodifiableMap(services);
+		_index = new ServicesIndex(services);
+	}
+
+	/**
+	 * The callers that build their selectors dynamically can't grow the cache without bound.
+	 * @param key The arguments of getConnectionAsURI.
+	 * @param uri
+	 */
+	void cacheConnection(ConnectionKey key, URI uri) {
+		if (_connections.size() >= MAX_CACHED_CONNECTIONS) {
+			_connections.clear();
+		}
+		_connections.put(key, uri);
+	}
+
+	/**
+	 * @param added More services.
+	 * @return A new snapshot with the services of this one followed by the added ones.
+	 * @throws IllegalArgumentException when a service type or a service name is duplicated.
+	 */
+	VCapServicesSnapshot with(LinkedHashMap<String, List<IVCapService>> added) {
+		LinkedHashMap<String, List<IVCapService>> services =
+				new LinkedHashMap<String, List<IVCapService>>(_services);
+		for (Entry<String, List<IVCapService>> e : added.entrySet()) {
+			if (services.put(e.getKey(), e.getValue()) != null) {
+				throw new IllegalArgumentException("Duplicate service type arrays '" + e.getKey() + "'.");
+			}
+		}
+		return new VCapServicesSnapshot(services);
+	}
+
+	/**
+	 * Resolves the credentials of all the services. See {@link VCapServiceCredentials#resolve()}.
+	 * @param refresh true to resolve again the credentials already resolved.
+	 */
+	void resolveCredentials(boolean refresh) {
+		for (List<IVCapService> servs : _services.values()) {
+			for (IVCapService serv : servs) {
+				IVCapServiceCredentials cred = serv.getCredentials();
+				if (cred instanceof VCapServiceCredentials) {
+					if (refresh) {
+						((VCapServiceCredentials)cred).refresh();
+					} else {
+						((VCapServiceCredentials)cred).resolve();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The distinct hostnames of the credentials of the services.
+	 */
+	Set<String> getHostnames() {
+		LinkedHashSet<String> res = new LinkedHashSet<String>();
+		for (List<IVCapService> servs : _services.values()) {
+			for (IVCapService serv : servs) {
+				String hostname = serv.getCredentials().getHostname();
+				if (hostname != null && hostname.length() != 0) {
+					res.add(hostname);
+				}
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @param previous
+	 * @return The services added, removed and changed since the previous snapshot.
+	 * The services are identified by their type and name. The service types scanned
+	 * from the same characters are not parsed to be compared.
+	 */
+	VCapServicesChange diff(VCapServicesSnapshot previous) {
+		ArrayList<IVCapService> added = new ArrayList<IVCapService>();
+		ArrayList<IVCapService> changed = new ArrayList<IVCapService>();
+		// the services of the previous types that are not matched yet: the removed ones.
+		HashMap<String, LinkedHashMap<String, Integer>> unmatched = new HashMap<String, LinkedHashMap<String, Integer>>();
+		for (Entry<String, List<IVCapService>> e : _services.entrySet()) {
+			List<IVCapService> before = previous._services.get(e.getKey());
+			List<IVCapService> after = e.getValue();
+			if (before == null) {
+				added.addAll(after);
+				continue;
+			}
+			if (before == after || before instanceof LazyServiceList && after instanceof LazyServiceList
+					&& ((LazyServiceList)before).hasSamePayload((LazyServiceList)after)) {
+				// unchanged: the services are not parsed.
+				unmatched.put(e.getKey(), new LinkedHashMap<String, Integer>());
+				continue;
+			}
+			LinkedHashMap<String, Integer> beforeKeys = byKey(before);
+			String[] names = ServicesIndex.names(after);
+			for (int i = 0; i < names.length; i++) {
+				Integer old = beforeKeys.remove(key(names[i], i));
+				if (old == null) {
+					added.add(after.get(i));
+				} else if (!before.get(old).equals(after.get(i))) {
+					changed.add(after.get(i));
+				}
+			}
+			unmatched.put(e.getKey(), beforeKeys);
+		}
+		ArrayList<IVCapService> removed = new ArrayList<IVCapService>();
+		for (Entry<String, List<IVCapService>> e : previous._services.entrySet()) {
+			LinkedHashMap<String, Integer> beforeKeys = unmatched.get(e.getKey());
+			if (beforeKeys == null) {
+				removed.addAll(e.getValue());
+			} else {
+				for (Integer i : beforeKeys.values()) {
+					removed.add(e.getValue().get(i));
+				}
+			}
+		}
+		return new VCapServicesChange(added, removed, changed);
+	}
+
+	/**
+	 * @return The index of each service of a type by its name. Does not parse the services.
+	 */
+	private static LinkedHashMap<String, Integer> byKey(List<IVCapService> servs) {
+		LinkedHashMap<String, Integer> res = new LinkedHashMap<String, Integer>();
+		String[] names = ServicesIndex.names(servs);
+		for (int i = 0; i < names.length; i++) {
+			res.put(key(names[i], i), i);
+		}
+		return res;
+	}
+
+	private static String key(String name, int index) {
+		return name != null ? name : "#" + index;
+	}
+
+	public Map<String, List<IVCapService>> getVCapServices() {
+		return _services;
+	}
+
+	public List<IVCapService> getVCapServicesByType(String serviceType) {
+		return _services.get(serviceType);
+	}
+
+	public IVCapService getVCapServiceByName(String name) {
+		return _index.getByName(name);
+	}
+
+	public IVCapService getVCapService(String serviceType, int index) {
+		List<IVCapService> servs = getVCapServicesByType(serviceType);
+		if (servs == null || index >= servs.size()) {
+			return null;
+		}
+		return servs.get(index);
+	}
+
+	public IVCapService getVCapService(Pattern serviceType, int index) {
+		return _index.getService(serviceType, index);
+	}
+
+	public List<IVCapService> getVCapServicesByLabel(String label) {
+		return _index.getByLabel(label);
+	}
+
+	public List<IVCapService> getVCapServicesByPlan(String plan) {
+		return _index.getByPlan(plan);
+	}
+
+	public List<IVCapService> getVCapServicesByTag(String tag) {
+		return _index.getByTag(tag);
+	}
+
+	public List<IVCapService> getVCapServicesByProduct(String product) {
+		return _index.getByProduct(product);
+	}
+
+	public IVCapService getNewestVCapService(String product, String minVersion) {
+		return _index.getNewest(product, minVersion != null ? ServiceVersion.parse(minVersion) : null);
+	}
+
+	public List<IVCapService> getVCapServicesByVersion(String product, String version) {
+		return _index.getByVersion(product, ServiceVersion.parse(version));
+	}
+
+	public List<IVCapService> getVCapServices(NegatablePattern serviceTypeFilter, NegatablePattern serviceNameFilter) {
+		return _index.getServices(serviceTypeFilter, serviceNameFilter);
+	}
+
+	/**
+	 * See {@link ServicesIndex#selectFirst(NegatablePattern[], NegatablePattern[])}.
+	 */
+	IVCapService[] selectFirst(NegatablePattern[] serviceTypeFilters, NegatablePattern[] serviceNameFilters) {
+		return _index.selectFirst(serviceTypeFilters, serviceNameFilters);
+	}
+
+	public List<IVCapService> getVCapServices(TagSelector selector) {
+		return _index.getServices(selector);
+	}
+
+	public String toString() {
+		return _services.toString();
+	}
+}
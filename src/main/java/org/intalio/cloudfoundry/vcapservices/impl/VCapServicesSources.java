@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapServicesSource;
+
+/**
+ * The usual layers of services.
+ * <p>
+ * For example the services of the platform with local overrides on top:
+ * <pre>
+ * new VCapServices(Arrays.asList(VCapServicesSources.environment(),
+ *     VCapServicesSources.systemProperty(),
+ *     VCapServicesSources.serviceBindings(),
+ *     VCapServicesSources.file(new File("vcap-services-local.json"), true)));
+ * </pre>
+ * </p>
+ * @author hmalphettes
+ */
+public final class VCapServicesSources {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private VCapServicesSources() {
+	}
+
+	/**
+	 * @return The environment variable VCAP_SERVICES. The values are not substituted.
+	 */
+	public static IVCapServicesSource environment() {
+		return new Source("env:VCAP_SERVICES", false) {
+			public String getServices() {
+				return System.getenv("VCAP_SERVICES");
+			}
+		};
+	}
+
+	/**
+	 * @return The system property VCAP_SERVICES. The values are not substituted.
+	 */
+	public static IVCapServicesSource systemProperty() {
+		return new Source("sys:VCAP_SERVICES", false) {
+			public String getServices() {
+				return System.getProperty("VCAP_SERVICES");
+			}
+		};
+	}
+
+	/**
+	 * @param file Read each time the services are reloaded. Ignored when it does not exist.
+	 * @param resolveSysProperty
+	 * @return The services of a file.
+	 */
+	public static IVCapServicesSource file(final File file, boolean resolveSysProperty) {
+		return new Source(file.getPath(), resolveSysProperty) {
+			public String getServices() throws IOException {
+				if (!file.isFile()) {
+					return null;
+				}
+				return new String(Files.readAllBytes(file.toPath()), UTF8);
+			}
+		};
+	}
+
+	/**
+	 * @param root The directory of the Kubernetes service bindings. Ignored when it does not exist.
+	 * @return The bindings: one directory per service and one file per credentials key.
+	 * See {@link ServiceBindingDirectory}.
+	 */
+	public static IVCapServicesSource serviceBindings(File root) {
+		return new ServiceBindingDirectory(root.toPath());
+	}
+
+	/**
+	 * @return The bindings under the directory of the environment variable or system property
+	 * SERVICE_BINDING_ROOT. No services when it is not defined.
+	 */
+	public static IVCapServicesSource serviceBindings() {
+		String root = System.getenv(ServiceBindingDirectory.SERVICE_BINDING_ROOT);
+		if (root == null) {
+			root = System.getProperty(ServiceBindingDirectory.SERVICE_BINDING_ROOT);
+		}
+		return new ServiceBindingDirectory(root != null ? Paths.get(root) : null);
+	}
+
+	/**
+	 * @param services
+	 * @param resolveSysProperty
+	 * @return Services built by the application.
+	 */
+	public static IVCapServicesSource string(final String services, boolean resolveSysProperty) {
+		return new Source("string", resolveSysProperty) {
+			public String getServices() {
+				return services;
+			}
+		};
+	}
+
+	private static abstract class Source implements IVCapServicesSource {
+
+		private final String _name;
+		private final boolean _resolveSysProperty;
+
+		Source(String name, boolean resolveSysProperty) {
+			_name = name;
+			_resolveSysProperty = resolveSysProperty;
+		}
+
+		public boolean isResolveSysProperty() {
+			return _resolveSysProperty;
+		}
+
+		public String toString() {
+			return _name;
+		}
+	}
+}
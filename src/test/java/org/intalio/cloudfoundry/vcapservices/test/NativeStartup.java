@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.test;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+
+import org.intalio.cloudfoundry.vcapservices.NegatablePattern;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServices;
+
+/**
+ * Small application built as a native image by the native profile.
+ * Prints the time from the start of the process to the first connection URI.
+ * @author hmalphettes
+ */
+public class NativeStartup {
+
+	/** Prefix of the line printed with the time to the first URI in milliseconds. */
+	public static final String FIRST_URI = "first-uri-ms=";
+
+	static final String SERVICES = "{\"postgresql-9.1\":[{\"name\":\"orders\",\"label\":\"postgresql-9.1\","
+			+ "\"plan\":\"free\",\"tags\":[\"relational\"],\"credentials\":{\"name\":\"d6a1\","
+			+ "\"hostname\":\"10.0.0.12\",\"port\":5432,\"user\":\"u\",\"password\":\"p\"}}],"
+			+ "\"rabbitmq-2.4\":[{\"name\":\"mq\",\"credentials\":{\"hostname\":\"10.0.0.13\",\"port\":5672,"
+			+ "\"user\":\"u\",\"password\":\"p\"}}]}";
+
+	public static void main(String[] args) throws Exception {
+		long start = System.nanoTime();
+		if (System.getenv("VCAP_SERVICES") == null) {
+			System.setProperty("VCAP_SERVICES", SERVICES);
+		}
+		VCapServices services = new VCapServices();
+		URI uri = services.getConnectionAsURI("DATABASE_URL", "postgresql", "${DB_TYPE,/^postgresql.*/}", "orders");
+		long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+		long main = (System.nanoTime() - start) / 1000000;
+		if (!uri.getHost().equals("10.0.0.12") || services.getVCapServices(NegatablePattern.compile("!/^postgres/"),
+				NegatablePattern.compile("mq")).size() != 1) {
+			throw new IllegalStateException("Unexpected services: " + uri);
+		}
+		System.out.println(FIRST_URI + uptime);
+		System.out.println("main-ms=" + main);
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compares the time to the first connection URI of {@link NativeStartup}
+ * on the JVM and as a native image. Run by the native profile:
+ * <pre>
+ * mvn -Pnative verify
+ * </pre>
+ * The times are measured from the launch of the process: the median of several runs.
+ * @author hmalphettes
+ */
+public class NativeStartupComparison {
+
+	private static final int RUNS = 7;
+
+	/**
+	 * @param args The native executable and the classpath of the JVM run.
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			throw new IllegalArgumentException("Usage: NativeStartupComparison <native-executable> <classpath>");
+		}
+		File executable = new File(args[0]);
+		if (!executable.canExecute()) {
+			throw new IllegalArgumentException("Native executable not found: " + executable);
+		}
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		List<String> jvm = Arrays.asList(java, "-cp", args[1], NativeStartup.class.getName());
+		List<String> image = Collections.singletonList(executable.getAbsolutePath());
+		// warm the file system caches.
+		run(jvm);
+		run(image);
+		long[] jvmTimes = median(jvm);
+		long[] imageTimes = median(image);
+		System.out.println("time to the first getConnectionAsURI (median of " + RUNS + " runs)");
+		System.out.println(String.format("  %-8s %10s %14s", "", "wall-ms", "in-process-ms"));
+		System.out.println(String.format("  %-8s %10d %14d", "jvm", jvmTimes[0], jvmTimes[1]));
+		System.out.println(String.format("  %-8s %10d %14d", "native", imageTimes[0], imageTimes[1]));
+	}
+
+	/**
+	 * @return The medians of the wall-clock time from the launch to the first URI
+	 * and of the time reported by the process.
+	 */
+	private static long[] median(List<String> command) throws IOException, InterruptedException {
+		long[] wall = new long[RUNS];
+		long[] reported = new long[RUNS];
+		for (int i = 0; i < RUNS; i++) {
+			long[] times = run(command);
+			wall[i] = times[0];
+			reported[i] = times[1];
+		}
+		Arrays.sort(wall);
+		Arrays.sort(reported);
+		return new long[] { wall[RUNS / 2], reported[RUNS / 2] };
+	}
+
+	private static long[] run(List<String> command) throws IOException, InterruptedException {
+		long start = System.nanoTime();
+		Process process = new ProcessBuilder(new ArrayList<String>(command)).redirectErrorStream(true).start();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+		long wall = -1;
+		long reported = -1;
+		StringBuilder output = new StringBuilder();
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				output.append(line).append('\n');
+				if (line.startsWith(NativeStartup.FIRST_URI)) {
+					wall = (System.nanoTime() - start) / 1000000;
+					reported = Long.parseLong(line.substring(NativeStartup.FIRST_URI.length()).trim());
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		if (process.waitFor() != 0 || wall == -1) {
+			throw new IllegalStateException(command + " failed:\n" + output);
+		}
+		return new long[] { wall, reported };
+	}
+
+}
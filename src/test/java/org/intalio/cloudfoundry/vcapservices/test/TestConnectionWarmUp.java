@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.intalio.cloudfoundry.vcapservices.ConnectionWarmUpResult;
+import org.intalio.cloudfoundry.vcapservices.ConnectionWarmUpResult.ServiceResult;
+import org.intalio.cloudfoundry.vcapservices.IConnectionOpener;
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.NegatablePattern;
+import org.intalio.cloudfoundry.vcapservices.TagSelector;
+import org.intalio.cloudfoundry.vcapservices.impl.ConnectionWarmUp;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServices;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Warming up the connections against fake servers.
+ * @author hmalphettes
+ */
+public class TestConnectionWarmUp {
+
+	private ServerSocket _server;
+	private final AtomicInteger _accepted = new AtomicInteger();
+	private int _closedPort;
+
+	@Before
+	public void setUp() throws IOException {
+		_server = new ServerSocket(0);
+		Thread acceptor = new Thread("fake-db") {
+			public void run() {
+				try {
+					while (true) {
+						Socket socket = _server.accept();
+						_accepted.incrementAndGet();
+						socket.close();
+					}
+				} catch (IOException e) {
+					// closed
+				}
+			}
+		};
+		acceptor.setDaemon(true);
+		acceptor.start();
+		ServerSocket closed = new ServerSocket(0);
+		_closedPort = closed.getLocalPort();
+		closed.close();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		_server.close();
+	}
+
+	private VCapServices services() throws Exception {
+		return new VCapServices("{\"postgresql-9.1\":["
+				+ "{\"name\":\"up\",\"tags\":[\"relational\"],\"credentials\":{\"hostname\":\"127.0.0.1\",\"port\":"
+				+ _server.getLocalPort() + "}},"
+				+ "{\"name\":\"down\",\"tags\":[\"relational\"],\"credentials\":{\"hostname\":\"127.0.0.1\",\"port\":"
+				+ _closedPort + "}}],"
+				+ "\"redis-2.2\":[{\"name\":\"cache\",\"credentials\":{\"hostname\":\"127.0.0.1\",\"port\":"
+				+ _server.getLocalPort() + "}}]}", false);
+	}
+
+	@Test
+	public void testSocketWarmUp() throws Exception {
+		ConnectionWarmUp warmUp = new ConnectionWarmUp(services());
+		warmUp.addSelector("/^postgres.*/", null);
+		warmUp.addSelector(new TagSelector("relational"));
+		warmUp.setConnectionsPerService(3);
+		List<IVCapService> selected = warmUp.getSelectedServices();
+		Assert.assertEquals(2, selected.size());
+
+		ConnectionWarmUpResult result = warmUp.warmUp(10, TimeUnit.SECONDS);
+		Assert.assertFalse(result.isSuccessful());
+		ServiceResult up = result.getServices().get(0);
+		Assert.assertEquals("up", up.getService().getName());
+		Assert.assertTrue(up.isSuccessful());
+		Assert.assertEquals(3, up.getOpened());
+		ServiceResult down = result.getServices().get(1);
+		Assert.assertEquals(3, down.getFailed());
+		Assert.assertNotNull(down.getError());
+		Assert.assertTrue(result.toString(), result.toString().contains("3 failed"));
+	}
+
+	@Test
+	public void testServicesWithoutName() throws Exception {
+		VCapServices services = new VCapServices("{\"mysql-5.1\":["
+				+ "{\"credentials\":{\"hostname\":\"127.0.0.1\",\"port\":" + _server.getLocalPort() + "}},"
+				+ "{\"name\":\"named\",\"credentials\":{\"hostname\":\"127.0.0.1\",\"port\":"
+				+ _server.getLocalPort() + "}}]}", false);
+		ConnectionWarmUp warmUp = new ConnectionWarmUp(services);
+		warmUp.addSelector("mysql-5.1", null);
+		Assert.assertEquals(2, warmUp.getSelectedServices().size());
+		Assert.assertEquals(2, services.getVCapServices(NegatablePattern.compile("mysql-5.1"), NegatablePattern.compile("/.*/")).size());
+		Assert.assertEquals(2, services.getVCapServices(NegatablePattern.compile("mysql-5.1"), NegatablePattern.compile("/^.*/")).size());
+		Assert.assertEquals(1, services.getVCapServices(NegatablePattern.compile("mysql-5.1"), NegatablePattern.compile("/^n.*/")).size());
+	}
+
+	@Test
+	public void testDeadlineAndSlowServices() throws Exception {
+		final AtomicInteger closed = new AtomicInteger();
+		ConnectionWarmUp warmUp = new ConnectionWarmUp(services(), new IConnectionOpener() {
+			public Closeable open(IVCapService service, int timeoutMillis) throws InterruptedException {
+				if ("cache".equals(service.getName())) {
+					Thread.sleep(150);
+				} else if ("down".equals(service.getName())) {
+					Thread.sleep(10000);
+				}
+				return new Closeable() {
+					public void close() {
+						closed.incrementAndGet();
+					}
+				};
+			}
+		});
+		warmUp.setSelectors("/^postgres.*/, redis-2.2");
+		warmUp.setConnectionsPerService(2);
+		warmUp.setVirtualThreads(true);
+		long start = System.nanoTime();
+		ConnectionWarmUpResult result = warmUp.warmUp(500, TimeUnit.MILLISECONDS);
+		Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+		Assert.assertEquals(3, result.getServices().size());
+		Assert.assertTrue(result.getServices().get(0).isSuccessful());
+		Assert.assertEquals(2, result.getServices().get(1).getTimedOut());
+		Assert.assertTrue(result.getServices().get(2).isSuccessful());
+		Assert.assertEquals(4, closed.get());
+
+		List<ServiceResult> slow = result.getSlowServices(100, TimeUnit.MILLISECONDS);
+		Assert.assertEquals(2, slow.size());
+		Assert.assertEquals("down", slow.get(0).getService().getName());
+		Assert.assertEquals("cache", slow.get(1).getService().getName());
+	}
+
+}
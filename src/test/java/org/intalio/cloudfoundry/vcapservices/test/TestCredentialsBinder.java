@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.test;
+
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.util.Arrays;
+
+import org.intalio.cloudfoundry.vcapservices.CredentialsKey;
+import org.intalio.cloudfoundry.vcapservices.IVCapServiceCredentials;
+import org.intalio.cloudfoundry.vcapservices.impl.CredentialsBinder;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServiceCredentials;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServices;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Binding the credentials onto POJOs.
+ * @author hmalphettes
+ */
+public class TestCredentialsBinder {
+
+	private static final String SERVICES = "{\"rabbitmq\":[{\"name\":\"mq\",\"credentials\":{"
+			+ "\"uri\":\"amqp://u:p@mq.local:5672/vh\",\"vhost\":\"${test.binder.vhost,vh}\","
+			+ "\"port\":5672,\"ssl\":true,\"api-key\":\"k3y\",\"jdbc_url\":\"jdbc:x\","
+			+ "\"mode\":\"cluster\",\"ratio\":0.5,\"nested\":{\"a\":[1,2]}}}]}";
+
+	public enum Mode { SINGLE, CLUSTER }
+
+	public static class RabbitCredentials {
+		private URI _uri;
+		private String _vhost;
+		private int _port;
+		private boolean _ssl;
+		private char[] _apiKey;
+		private Mode _mode;
+		public String jdbcUrl;
+		public Double ratio;
+		public String nested;
+		public long missing = 7;
+
+		public void setUri(URI uri) { _uri = uri; }
+		public void setVhost(String vhost) { _vhost = vhost; }
+		public void setPort(int port) { _port = port; }
+		public void setSsl(boolean ssl) { _ssl = ssl; }
+		@CredentialsKey("api-key")
+		public void setApiKey(char[] apiKey) { _apiKey = apiKey; }
+		public void setMode(Mode mode) { _mode = mode; }
+	}
+
+	static class Hidden {
+		String _password;
+		Hidden() {
+		}
+		void setPassword(String password) { _password = password; }
+		public void setUser(String user) { }
+	}
+
+	public static class Unsupported {
+		public Object value;
+	}
+
+	@Test
+	public void testBindPojo() throws Exception {
+		VCapServices services = new VCapServices(SERVICES, false);
+		RabbitCredentials cred = services.bindCredentials("mq", RabbitCredentials.class);
+		Assert.assertEquals(new URI("amqp://u:p@mq.local:5672/vh"), cred._uri);
+		Assert.assertEquals("vh", cred._vhost);
+		Assert.assertEquals(5672, cred._port);
+		Assert.assertTrue(cred._ssl);
+		Assert.assertTrue(Arrays.equals("k3y".toCharArray(), cred._apiKey));
+		Assert.assertEquals(Mode.CLUSTER, cred._mode);
+		Assert.assertEquals("jdbc:x", cred.jdbcUrl);
+		Assert.assertEquals(Double.valueOf(0.5), cred.ratio);
+		Assert.assertEquals("{\"a\":[1,2]}", cred.nested);
+		Assert.assertEquals(7, cred.missing);
+		Assert.assertNull(services.bindCredentials("nosuchservice", RabbitCredentials.class));
+		Assert.assertSame(CredentialsBinder.of(RabbitCredentials.class),
+				CredentialsBinder.of(RabbitCredentials.class));
+	}
+
+	@Test
+	public void testSubstitutedAtBindTime() throws Exception {
+		VCapServices services = new VCapServices(SERVICES, false);
+		System.setProperty("test.binder.vhost", "fromsysprop");
+		try {
+			Assert.assertEquals("fromsysprop", services.bindCredentials("mq", RabbitCredentials.class)._vhost);
+			IVCapServiceCredentials resolved = ((VCapServiceCredentials)services
+					.getVCapServiceCredentialsByName("mq")).resolve();
+			Assert.assertEquals("fromsysprop", CredentialsBinder.of(RabbitCredentials.class).bind(resolved)._vhost);
+			Assert.assertEquals("k3y", resolved.getString("api-key"));
+		} finally {
+			System.clearProperty("test.binder.vhost");
+		}
+	}
+
+	@Test
+	public void testKeys() throws Exception {
+		IVCapServiceCredentials cred = new VCapServices(SERVICES, false).getVCapServiceCredentialsByName("mq");
+		Assert.assertEquals(Arrays.asList("uri", "vhost", "port", "ssl", "api-key", "jdbc_url", "mode", "ratio", "nested"),
+				cred.getKeys());
+		Assert.assertEquals("5672", cred.getString("port"));
+		Assert.assertNull(cred.getString("nosuchkey"));
+	}
+
+	@Test
+	public void testLookup() throws Exception {
+		IVCapServiceCredentials cred = new VCapServiceCredentials(new String[] { "password" },
+				new Object[] { "secret" }, false);
+		try {
+			CredentialsBinder.of(Hidden.class);
+			Assert.fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException expected) {
+		}
+		CredentialsBinder<Hidden> binder = CredentialsBinder.of(Hidden.class, MethodHandles.lookup());
+		Assert.assertEquals("secret", binder.bind(cred)._password);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsupportedType() {
+		CredentialsBinder.of(Unsupported.class);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testConversionError() {
+		CredentialsBinder.of(RabbitCredentials.class).bind(new VCapServiceCredentials(
+				new String[] { "port" }, new Object[] { "not a number" }, false));
+	}
+
+}
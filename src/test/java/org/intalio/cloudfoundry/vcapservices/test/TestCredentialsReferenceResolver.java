@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapServiceCredentials;
+import org.intalio.cloudfoundry.vcapservices.impl.CredHubSecretStore;
+import org.intalio.cloudfoundry.vcapservices.impl.CredentialsReferenceResolver;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServices;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Fetching the credentials held by a secret store from a local stub of CredHub.
+ * @author hmalphettes
+ */
+public class TestCredentialsReferenceResolver {
+
+	private static final String SERVICES = "{\"postgresql-9.1\":["
+			+ "{\"name\":\"a\",\"credentials\":{\"credhub-ref\":\"/c/a\"}},"
+			+ "{\"name\":\"b\",\"credentials\":{\"credhub-ref\":\"/c/b\"}}],"
+			+ "\"redis\":[{\"name\":\"c\",\"credentials\":{\"credhub-ref\":\"/c/c\"}},"
+			+ "{\"name\":\"d\",\"credentials\":{\"hostname\":\"inline\",\"port\":6379}}]}";
+
+	private final Map<String, String> _secrets = new HashMap<String, String>();
+	/** The references of each request. */
+	private final List<List<String>> _requests = new CopyOnWriteArrayList<List<String>>();
+	private HttpServer _server;
+	private CredentialsReferenceResolver _resolver;
+
+	@Before
+	public void setUp() throws IOException {
+		for (String name : new String[] { "a", "b", "c", "e", "f" }) {
+			_secrets.put("/c/" + name, "{\"hostname\":\"" + name + ".db\",\"port\":5432,"
+					+ "\"name\":\"" + name + "db\",\"user\":\"u" + name + "\",\"password\":\"p" + name + "\"}");
+		}
+		_server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		_server.createContext("/api/v1/interpolate", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				interpolate(exchange);
+			}
+		});
+		_server.start();
+		_resolver = new CredentialsReferenceResolver(new CredHubSecretStore(
+				"http://127.0.0.1:" + _server.getAddress().getPort()), 60000);
+	}
+
+	@After
+	public void tearDown() {
+		_resolver.close();
+		_server.stop(0);
+	}
+
+	private void interpolate(HttpExchange exchange) throws IOException {
+		try {
+			JSONArray refs = new JSONObject(read(exchange.getRequestBody())).getJSONArray("refs");
+			StringBuilder sb = new StringBuilder("{\"refs\":[");
+			List<String> requested = new ArrayList<String>();
+			for (int i = 0; i < refs.length(); i++) {
+				JSONObject service = refs.getJSONObject(i);
+				String ref = service.getJSONObject("credentials").getString("credhub-ref");
+				requested.add(ref);
+				String secret = _secrets.get(ref);
+				if (secret != null) {
+					if (sb.charAt(sb.length() - 1) != '[') {
+						sb.append(',');
+					}
+					sb.append("{\"name\":\"").append(service.getString("name"))
+							.append("\",\"credentials\":").append(secret).append('}');
+				}
+			}
+			_requests.add(requested);
+			byte[] response = sb.append("]}").toString().getBytes("UTF-8");
+			exchange.sendResponseHeaders(200, response.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(response);
+			out.close();
+		} catch (Exception e) {
+			exchange.sendResponseHeaders(500, -1);
+			exchange.close();
+		}
+	}
+
+	@Test
+	public void testPrefetchInOneRequest() throws Exception {
+		String previous = System.getProperty("VCAP_SERVICES");
+		System.setProperty("VCAP_SERVICES", SERVICES);
+		try {
+			VCapServices services = new VCapServices(SERVICES, false);
+			Map<String, IVCapServiceCredentials> fetched =
+					services.setCredentialsResolver(_resolver).get(5, TimeUnit.SECONDS);
+			Assert.assertEquals(3, fetched.size());
+			Assert.assertEquals(1, _requests.size());
+			Assert.assertEquals(Arrays.asList("/c/a", "/c/b", "/c/c"), _requests.get(0));
+
+			IVCapServiceCredentials a = services.getVCapServiceCredentialsAsync("a").get(5, TimeUnit.SECONDS);
+			Assert.assertEquals("pa", a.getPassword());
+			Assert.assertEquals("a.db", a.getHostname());
+			IVCapServiceCredentials d = services.getVCapServiceCredentialsAsync("d").get(5, TimeUnit.SECONDS);
+			Assert.assertEquals("inline", d.getHostname());
+			Assert.assertNull(services.getVCapServiceCredentialsAsync("nosuchservice").get());
+
+			URI uri = services.getConnectionAsURIAsync("DATABASE_URL", "postgresql",
+					"/^postgres.*/", "b").get(5, TimeUnit.SECONDS);
+			Assert.assertEquals(new URI("postgresql://ub:pb@b.db:5432/bdb"), uri);
+			Assert.assertEquals(1, _requests.size());
+		} finally {
+			if (previous != null) {
+				System.setProperty("VCAP_SERVICES", previous);
+			} else {
+				System.clearProperty("VCAP_SERVICES");
+			}
+		}
+	}
+
+	@Test
+	public void testBatchSize() throws Exception {
+		_resolver.setBatchSize(2);
+		Map<String, IVCapServiceCredentials> fetched = _resolver.resolveAll(
+				Arrays.asList("/c/a", "/c/b", "/c/c", "/c/e", "/c/f")).get(5, TimeUnit.SECONDS);
+		Assert.assertEquals(5, fetched.size());
+		Assert.assertEquals("pf", fetched.get("/c/f").getPassword());
+		Assert.assertEquals(3, _requests.size());
+		Assert.assertEquals(3, _resolver.getFetchCount());
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		CredentialsReferenceResolver resolver = new CredentialsReferenceResolver(
+				_resolver.getStore(), 0);
+		try {
+			Assert.assertEquals("pa", resolver.resolve("/c/a").get(5, TimeUnit.SECONDS).getPassword());
+			Assert.assertEquals("pa", resolver.resolve("/c/a").get(5, TimeUnit.SECONDS).getPassword());
+			Assert.assertEquals(2, _requests.size());
+		} finally {
+			resolver.close();
+		}
+		Assert.assertEquals("pa", _resolver.resolve("/c/a").get(5, TimeUnit.SECONDS).getPassword());
+		Assert.assertEquals("pa", _resolver.resolve("/c/a").get(5, TimeUnit.SECONDS).getPassword());
+		Assert.assertEquals(3, _requests.size());
+	}
+
+	@Test
+	public void testUnknownReference() throws Exception {
+		try {
+			_resolver.resolve("/c/unknown").get(5, TimeUnit.SECONDS);
+			Assert.fail("Expected an ExecutionException");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+	@Test
+	public void testStoreDown() throws Exception {
+		_server.stop(0);
+		try {
+			_resolver.resolve("/c/a").get(10, TimeUnit.SECONDS);
+			Assert.fail("Expected an ExecutionException");
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int n;
+		while ((n = in.read(buf)) != -1) {
+			out.write(buf, 0, n);
+		}
+		return new String(out.toByteArray(), "UTF-8");
+	}
+
+}
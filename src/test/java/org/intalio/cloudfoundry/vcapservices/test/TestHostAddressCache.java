@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.test;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.intalio.cloudfoundry.vcapservices.IHostResolver;
+import org.intalio.cloudfoundry.vcapservices.IVCapServices;
+import org.intalio.cloudfoundry.vcapservices.IVCapServicesListener;
+import org.intalio.cloudfoundry.vcapservices.VCapServicesChange;
+import org.intalio.cloudfoundry.vcapservices.impl.HostAddressCache;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServices;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Resolving the hostnames of the credentials ahead of time.
+ * @author hmalphettes
+ */
+public class TestHostAddressCache {
+
+	/**
+	 * In-memory name service.
+	 */
+	private static final class MapResolver implements IHostResolver {
+		final Map<String, InetAddress> _hosts = new ConcurrentHashMap<String, InetAddress>();
+		final AtomicInteger _calls = new AtomicInteger();
+
+		public InetAddress[] resolve(String hostname) throws UnknownHostException {
+			_calls.incrementAndGet();
+			InetAddress address = _hosts.get(hostname);
+			if (address == null) {
+				throw new UnknownHostException(hostname);
+			}
+			return new InetAddress[] { address };
+		}
+
+		void put(String hostname, String ip) throws UnknownHostException {
+			_hosts.put(hostname, InetAddress.getByAddress(hostname, InetAddress.getByName(ip).getAddress()));
+		}
+	}
+
+	private static final String SERVICES = "{\"postgresql-9.1\":["
+			+ "{\"name\":\"a\",\"credentials\":{\"hostname\":\"db.internal\",\"port\":5432,"
+			+ "\"user\":\"u\",\"password\":\"p\",\"name\":\"d\"}},"
+			+ "{\"name\":\"b\",\"credentials\":{\"hostname\":\"db.internal\",\"port\":5433}},"
+			+ "{\"name\":\"c\",\"credentials\":{\"hostname\":\"unknown.internal\",\"port\":5434}}]}";
+
+	@Test
+	public void testResolveHostnames() throws Exception {
+		MapResolver resolver = new MapResolver();
+		resolver.put("db.internal", "10.0.0.1");
+		HostAddressCache cache = new HostAddressCache(resolver, 60000, 4);
+		try {
+			VCapServices services = new VCapServices(SERVICES, false);
+			Assert.assertNull(services.getVCapServiceAddresses("a"));
+			Assert.assertTrue(services.resolveHostnames(cache, 5000));
+			// the distinct hostnames are resolved once.
+			Assert.assertEquals(2, resolver._calls.get());
+			Assert.assertEquals(2, cache.size());
+			Assert.assertEquals("10.0.0.1", services.getVCapServiceAddresses("a")[0].getHostAddress());
+			Assert.assertEquals("10.0.0.1", services.getVCapServiceAddresses("b")[0].getHostAddress());
+			try {
+				services.getVCapServiceAddresses("c");
+				Assert.fail("Expected an unknown host");
+			} catch (UnknownHostException expected) {
+			}
+			Assert.assertEquals(2, resolver._calls.get());
+
+			String previous = System.getProperty("VCAP_SERVICES");
+			System.setProperty("VCAP_SERVICES", SERVICES);
+			try {
+				URI uri = services.getConnectionAsURI("DATABASE_URL", "postgresql", "postgresql-9.1", "a", true);
+				Assert.assertEquals("postgresql://u:p@10.0.0.1:5432/d", uri.toString());
+				uri = services.getConnectionAsURI("DATABASE_URL", "postgresql", "postgresql-9.1", "a", false);
+				Assert.assertEquals("postgresql://u:p@db.internal:5432/d", uri.toString());
+				uri = services.getConnectionAsURI("DATABASE_URL", "postgresql", "postgresql-9.1", "c", true);
+				Assert.assertEquals("unknown.internal", uri.getHost());
+			} finally {
+				if (previous == null) {
+					System.clearProperty("VCAP_SERVICES");
+				} else {
+					System.setProperty("VCAP_SERVICES", previous);
+				}
+			}
+		} finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testStaleAddressesRefreshedInBackground() throws Exception {
+		MapResolver resolver = new MapResolver();
+		resolver.put("db.internal", "10.0.0.1");
+		HostAddressCache cache = new HostAddressCache(resolver, 50, 2);
+		try {
+			cache.prefetch(Arrays.asList("db.internal")).await();
+			Assert.assertEquals("10.0.0.1", cache.get("db.internal")[0].getHostAddress());
+			resolver.put("db.internal", "10.0.0.2");
+			Thread.sleep(100);
+			// stale: answered right away and refreshed in the background.
+			Assert.assertEquals("10.0.0.1", cache.get("db.internal")[0].getHostAddress());
+			long deadline = System.currentTimeMillis() + 5000;
+			while (!"10.0.0.2".equals(cache.get("db.internal")[0].getHostAddress())) {
+				Assert.assertTrue(System.currentTimeMillis() < deadline);
+				Thread.sleep(10);
+			}
+		} finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testFailedRefreshKeepsStaleAddresses() throws Exception {
+		MapResolver resolver = new MapResolver();
+		resolver.put("db.internal", "10.0.0.1");
+		HostAddressCache cache = new HostAddressCache(resolver, 300, 2);
+		try {
+			cache.prefetch(Arrays.asList("db.internal")).await();
+			resolver._hosts.clear();
+			Thread.sleep(350);
+			Assert.assertEquals("10.0.0.1", cache.get("db.internal")[0].getHostAddress());
+			long deadline = System.currentTimeMillis() + 5000;
+			while (resolver._calls.get() < 2) {
+				Assert.assertTrue(System.currentTimeMillis() < deadline);
+				Thread.sleep(5);
+			}
+			// the refresh failed within the grace period.
+			Assert.assertEquals("10.0.0.1", cache.getCachedAddress("db.internal").getHostAddress());
+			Thread.sleep(300);
+			while (true) {
+				Assert.assertTrue(System.currentTimeMillis() < deadline);
+				try {
+					cache.get("db.internal");
+				} catch (UnknownHostException expected) {
+					break;
+				}
+				Thread.sleep(10);
+			}
+			Assert.assertNull(cache.getCachedAddress("db.internal"));
+		} finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testNoAddress() throws Exception {
+		HostAddressCache cache = new HostAddressCache(new IHostResolver() {
+			public InetAddress[] resolve(String hostname) {
+				return new InetAddress[0];
+			}
+		}, 60000, 1);
+		try {
+			cache.prefetch(Arrays.asList("db.internal")).await();
+			Assert.assertEquals(1, cache.size());
+			Assert.assertNull(cache.getCachedAddress("db.internal"));
+		} finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testClosed() throws Exception {
+		MapResolver resolver = new MapResolver();
+		resolver.put("db.internal", "10.0.0.1");
+		HostAddressCache cache = new HostAddressCache(resolver, 60000, 2);
+		VCapServices services = new VCapServices(SERVICES, false);
+		Assert.assertTrue(services.resolveHostnames(cache, 5000));
+		cache.close();
+		Assert.assertEquals(0, cache.prefetch(Arrays.asList("other.internal")).getCount());
+		final AtomicInteger notified = new AtomicInteger();
+		services.addListener(new IVCapServicesListener() {
+			public void servicesChanged(IVCapServices source, VCapServicesChange change) {
+				notified.incrementAndGet();
+			}
+		});
+		services.replaceServices(SERVICES.replace("5434", "5435"), false);
+		Assert.assertEquals(1, notified.get());
+		Assert.assertEquals(5435, services.getVCapServiceCredentialsByName("c").getPort());
+	}
+
+	@Test
+	public void testPeriodicRefresh() throws Exception {
+		MapResolver resolver = new MapResolver();
+		resolver.put("db.internal", "10.0.0.1");
+		HostAddressCache cache = new HostAddressCache(resolver, 20, 2);
+		try {
+			cache.prefetch(Arrays.asList("db.internal")).await();
+			cache.start();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (resolver._calls.get() < 3) {
+				Assert.assertTrue(System.currentTimeMillis() < deadline);
+				Thread.sleep(10);
+			}
+		} finally {
+			cache.close();
+		}
+	}
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The native-image metadata shipped in the jar matches the classes.
+ * @author hmalphettes
+ */
+public class TestNativeImageMetadata {
+
+	private static final String METADATA = "/META-INF/native-image/org.intalio.cloudfoundry/vcapservices/";
+	private static final Pattern BUILD_TIME = Pattern.compile("--initialize-at-build-time=([\\w.$,]+)");
+	private static final Pattern CLASS_NAME = Pattern.compile("org\\.intalio\\.cloudfoundry\\.vcapservices\\.[\\w.$]+");
+
+	@Test
+	public void testReflectConfig() throws Exception {
+		InputStream in = getClass().getResourceAsStream(METADATA + "reflect-config.json");
+		Assert.assertNotNull(in);
+		JSONArray config;
+		try {
+			config = new JSONArray(new JSONTokener(new InputStreamReader(in, "UTF-8")));
+		} finally {
+			in.close();
+		}
+		Assert.assertTrue(config.length() > 0);
+		for (int i = 0; i < config.length(); i++) {
+			JSONObject entry = config.getJSONObject(i);
+			String name = entry.getString("name");
+			boolean jdk = name.startsWith("java.") || name.startsWith("jdk.");
+			Class<?> type;
+			try {
+				type = Class.forName(name);
+			} catch (ClassNotFoundException e) {
+				Assert.assertTrue("Unknown class " + name, jdk);
+				continue;
+			}
+			JSONArray methods = entry.optJSONArray("methods");
+			for (int j = 0; methods != null && j < methods.length(); j++) {
+				JSONObject method = methods.getJSONObject(j);
+				JSONArray parameters = method.getJSONArray("parameterTypes");
+				Class<?>[] types = new Class<?>[parameters.length()];
+				for (int k = 0; k < types.length; k++) {
+					types[k] = Class.forName(parameters.getString(k));
+				}
+				try {
+					Method m = type.getMethod(method.getString("name"), types);
+					Assert.assertNotNull(m);
+				} catch (NoSuchMethodException e) {
+					// newer JDK methods are looked up reflectively precisely because they may be missing.
+					Assert.assertTrue("Unknown method " + name + "." + method.getString("name"), jdk);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testInitializationClasses() throws Exception {
+		InputStream in = getClass().getResourceAsStream(METADATA + "native-image.properties");
+		Assert.assertNotNull(in);
+		StringBuilder text = new StringBuilder();
+		Properties properties = new Properties();
+		try {
+			byte[] bytes = new byte[8192];
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			int read;
+			while ((read = in.read(bytes)) != -1) {
+				out.write(bytes, 0, read);
+			}
+			text.append(out.toString("ISO-8859-1"));
+			properties.load(new java.io.ByteArrayInputStream(out.toByteArray()));
+		} finally {
+			in.close();
+		}
+		Assert.assertNotNull(properties.getProperty("Args"));
+		// the classes of the default arguments and of the documented build-time opt-in.
+		Matcher matcher = CLASS_NAME.matcher(text);
+		int count = 0;
+		while (matcher.find()) {
+			Class.forName(matcher.group(), false, getClass().getClassLoader());
+			count++;
+		}
+		Assert.assertTrue(count > 1);
+	}
+
+	/**
+	 * The classes initialized at build time must not hold state filled at run time:
+	 * it would be frozen in the image.
+	 */
+	@Test
+	public void testBuildTimeClassesHaveNoMutableState() throws Exception {
+		Matcher matcher = BUILD_TIME.matcher(read(METADATA + "native-image.properties"));
+		Assert.assertTrue(matcher.find());
+		String classes = matcher.group(1);
+		File pom = new File("pom.xml");
+		if (pom.isFile()) {
+			String text = new String(Files.readAllBytes(pom.toPath()), "UTF-8");
+			Assert.assertTrue("The native profile initializes other classes at build time",
+					text.contains("--initialize-at-build-time=" + classes + "<"));
+		}
+		for (String name : classes.split(",")) {
+			for (Field field : Class.forName(name, false, getClass().getClassLoader()).getDeclaredFields()) {
+				if (!Modifier.isStatic(field.getModifiers()) || field.isEnumConstant() || field.isSynthetic()) {
+					continue;
+				}
+				Assert.assertTrue(name + "." + field.getName() + " is not final",
+						Modifier.isFinal(field.getModifiers()));
+				Assert.assertFalse(name + "." + field.getName() + " is a cache",
+						Map.class.isAssignableFrom(field.getType()));
+			}
+		}
+	}
+
+	private String read(String resource) throws IOException {
+		InputStream in = getClass().getResourceAsStream(resource);
+		Assert.assertNotNull(resource, in);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] bytes = new byte[8192];
+			int read;
+			while ((read = in.read(bytes)) != -1) {
+				out.write(bytes, 0, read);
+			}
+			return out.toString("ISO-8859-1");
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void testNativeStartupOnTheJVM() throws Exception {
+		String previous = System.getProperty("VCAP_SERVICES");
+		PrintStream out = System.out;
+		ByteArrayOutputStream captured = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(captured, true, "UTF-8"));
+		try {
+			NativeStartup.main(new String[0]);
+		} finally {
+			System.setOut(out);
+			if (previous == null) {
+				System.clearProperty("VCAP_SERVICES");
+			} else {
+				System.setProperty("VCAP_SERVICES", previous);
+			}
+		}
+		Assert.assertTrue(captured.toString("UTF-8").startsWith(NativeStartup.FIRST_URI));
+	}
+
+}
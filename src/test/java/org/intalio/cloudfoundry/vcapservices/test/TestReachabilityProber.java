@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.intalio.cloudfoundry.vcapservices.IHostResolver;
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.LatencyHistogram;
+import org.intalio.cloudfoundry.vcapservices.ReachabilityStatus;
+import org.intalio.cloudfoundry.vcapservices.impl.HostAddressCache;
+import org.intalio.cloudfoundry.vcapservices.impl.ReachabilityProber;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServices;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Probing local stand-ins of the services.
+ * @author hmalphettes
+ */
+public class TestReachabilityProber {
+
+	@Test
+	public void testProbe() throws Exception {
+		ServerSocketChannel up1 = ServerSocketChannel.open();
+		up1.socket().bind(new InetSocketAddress("127.0.0.1", 0), 50);
+		ServerSocketChannel up2 = ServerSocketChannel.open();
+		up2.socket().bind(new InetSocketAddress("127.0.0.1", 0), 50);
+		ServerSocketChannel down = ServerSocketChannel.open();
+		down.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+		int downPort = down.socket().getLocalPort();
+		down.close();
+		VCapServices services = new VCapServices("{\"postgresql-9.1\":["
+				+ "{\"name\":\"a\",\"credentials\":{\"hostname\":\"127.0.0.1\",\"port\":"
+				+ up1.socket().getLocalPort() + "}},"
+				+ "{\"name\":\"b\",\"credentials\":{\"hostname\":\"127.0.0.1\",\"port\":" + downPort + "}}],"
+				+ "\"redis-2.2\":[{\"name\":\"c\",\"credentials\":{\"hostname\":\"127.0.0.1\",\"port\":"
+				+ up2.socket().getLocalPort() + "}},"
+				+ "{\"name\":\"d\",\"credentials\":{}}]}", false);
+		ReachabilityProber prober = new ReachabilityProber(services, 1000, 2000);
+		try {
+			Assert.assertNull(prober.getStatus(services.getVCapServiceByName("a")));
+			prober.probe();
+			prober.probe();
+			ReachabilityStatus a = prober.getStatus(services.getVCapServiceByName("a"));
+			Assert.assertTrue(a.toString(), a.isUp());
+			Assert.assertEquals(2, a.getLatencies().getCount());
+			Assert.assertTrue(prober.getStatus(services.getVCapServiceByName("c")).isUp());
+			ReachabilityStatus b = prober.getStatus(services.getVCapServiceByName("b"));
+			Assert.assertFalse(b.isUp());
+			Assert.assertEquals(2, b.getConsecutiveFailures());
+			Assert.assertNotNull(b.getError());
+			Assert.assertEquals(0, b.getLatencies().getCount());
+			ReachabilityStatus d = prober.getStatus(services.getVCapServiceByName("d"));
+			Assert.assertFalse(d.isUp());
+			Assert.assertEquals(4, prober.getStatuses().size());
+
+			up1.close();
+			prober.probe();
+			a = prober.getStatus(services.getVCapServiceByName("a"));
+			Assert.assertFalse(a.isUp());
+			Assert.assertEquals(1, a.getConsecutiveFailures());
+
+			// a reload forgets the services that are gone.
+			services.replaceServices("{\"redis-2.2\":[{\"name\":\"c\",\"credentials\":{\"hostname\":\"127.0.0.1\",\"port\":"
+					+ up2.socket().getLocalPort() + "}}]}", false);
+			prober.probe();
+			Assert.assertEquals(1, prober.getStatuses().size());
+			Assert.assertEquals(4, prober.getStatus(services.getVCapServiceByName("c")).getLatencies().getCount());
+		} finally {
+			prober.close();
+			up2.close();
+		}
+	}
+
+	@Test
+	public void testScheduledProbes() throws Exception {
+		ServerSocketChannel up = ServerSocketChannel.open();
+		up.socket().bind(new InetSocketAddress("127.0.0.1", 0), 50);
+		VCapServices services = new VCapServices("{\"pg\":[{\"name\":\"a\",\"credentials\":"
+				+ "{\"hostname\":\"127.0.0.1\",\"port\":" + up.socket().getLocalPort() + "}}]}", false);
+		ReachabilityProber prober = new ReachabilityProber(services, 10, 1000);
+		try {
+			prober.start();
+			long deadline = System.currentTimeMillis() + 5000;
+			ReachabilityStatus status;
+			while ((status = prober.getStatus(services.getVCapServiceByName("a"))) == null
+					|| status.getLatencies().getCount() < 3) {
+				Assert.assertTrue(System.currentTimeMillis() < deadline);
+				Thread.sleep(10);
+			}
+		} finally {
+			prober.close();
+			up.close();
+		}
+	}
+
+	@Test
+	public void testSlowNameService() throws Exception {
+		ServerSocketChannel up = ServerSocketChannel.open();
+		up.socket().bind(new InetSocketAddress("127.0.0.1", 0), 50);
+		final CountDownLatch release = new CountDownLatch(1);
+		HostAddressCache cache = new HostAddressCache(new IHostResolver() {
+			public InetAddress[] resolve(String hostname) throws UnknownHostException {
+				if (hostname.equals("slow.internal")) {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						// closed
+					}
+					throw new UnknownHostException(hostname);
+				}
+				return InetAddress.getAllByName(hostname);
+			}
+		}, 60000, 2);
+		VCapServices services = new VCapServices("{\"pg\":["
+				+ "{\"name\":\"a\",\"credentials\":{\"hostname\":\"127.0.0.1\",\"port\":" + up.socket().getLocalPort() + "}},"
+				+ "{\"name\":\"b\",\"credentials\":{\"hostname\":\"slow.internal\",\"port\":5432}}]}", false);
+		ReachabilityProber prober = new ReachabilityProber(services, 1000, 300);
+		prober.setHostAddressCache(cache);
+		try {
+			long start = System.nanoTime();
+			prober.probe();
+			// the round waited for the name service until its timeout only.
+			Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 3000);
+			Assert.assertTrue(prober.getStatus(services.getVCapServiceByName("a")).isUp());
+			ReachabilityStatus b = prober.getStatus(services.getVCapServiceByName("b"));
+			Assert.assertFalse(b.isUp());
+			Assert.assertEquals("Unknown host slow.internal", b.getError());
+		} finally {
+			release.countDown();
+			prober.close();
+			cache.close();
+			up.close();
+		}
+	}
+
+	@Test
+	public void testRuntimeFailure() throws Exception {
+		ServerSocketChannel up = ServerSocketChannel.open();
+		up.socket().bind(new InetSocketAddress("127.0.0.1", 0), 50);
+		final AtomicInteger rounds = new AtomicInteger();
+		VCapServices services = new VCapServices("{\"pg\":[{\"name\":\"a\",\"credentials\":"
+				+ "{\"hostname\":\"127.0.0.1\",\"port\":" + up.socket().getLocalPort() + "}}]}", false) {
+			public Map<String, List<IVCapService>> getVCapServices() {
+				if (rounds.incrementAndGet() == 1) {
+					throw new IllegalStateException("first round");
+				}
+				return super.getVCapServices();
+			}
+		};
+		ReachabilityProber prober = new ReachabilityProber(services, 10, 1000);
+		try {
+			prober.start();
+			long deadline = System.currentTimeMillis() + 5000;
+			// the thread survived the failure of the first round.
+			while (prober.getStatus(services.getVCapServiceByName("a")) == null) {
+				Assert.assertTrue(System.currentTimeMillis() < deadline);
+				Thread.sleep(10);
+			}
+			Assert.assertTrue(rounds.get() >= 2);
+		} finally {
+			prober.close();
+			up.close();
+		}
+	}
+
+	@Test
+	public void testCloseDuringRound() throws Exception {
+		// a connect that stays pending: the backlog of the server is full.
+		ServerSocketChannel full = ServerSocketChannel.open();
+		full.socket().bind(new InetSocketAddress("127.0.0.1", 0), 1);
+		int port = full.socket().getLocalPort();
+		List<SocketChannel> fillers = new ArrayList<SocketChannel>();
+		StringBuilder json = new StringBuilder("{\"pg\":[");
+		for (int i = 0; i < 8; i++) {
+			SocketChannel filler = SocketChannel.open();
+			filler.configureBlocking(false);
+			filler.connect(new InetSocketAddress("127.0.0.1", port));
+			fillers.add(filler);
+			json.append(i == 0 ? "" : ",").append("{\"name\":\"s").append(i)
+					.append("\",\"credentials\":{\"hostname\":\"127.0.0.1\",\"port\":").append(port).append("}}");
+		}
+		VCapServices services = new VCapServices(json.append("]}").toString(), false);
+		ReachabilityProber prober = new ReachabilityProber(services, 10, 30000);
+		try {
+			prober.start();
+			Thread.sleep(200);
+		} finally {
+			long start = System.nanoTime();
+			prober.close();
+			Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+			for (SocketChannel filler : fillers) {
+				filler.close();
+			}
+			full.close();
+		}
+	}
+
+	@Test
+	public void testHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		Assert.assertEquals(0, histogram.getPercentile(50, TimeUnit.NANOSECONDS));
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i, TimeUnit.MICROSECONDS);
+		}
+		Assert.assertEquals(1000, histogram.getCount());
+		Assert.assertEquals(1000, histogram.getMax(TimeUnit.MICROSECONDS));
+		Assert.assertEquals(500, histogram.getMean(TimeUnit.MICROSECONDS));
+		long p50 = histogram.getPercentile(50, TimeUnit.MICROSECONDS);
+		Assert.assertTrue(String.valueOf(p50), p50 >= 500 && p50 <= 625);
+		long p99 = histogram.getPercentile(99, TimeUnit.MICROSECONDS);
+		Assert.assertTrue(String.valueOf(p99), p99 >= 990 && p99 <= 1000);
+		Assert.assertEquals(1000, histogram.getPercentile(100, TimeUnit.MICROSECONDS));
+		histogram.reset();
+		Assert.assertEquals(0, histogram.getCount());
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.test;
+
+import java.util.List;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.ServiceVersion;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServices;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Selecting the services by product and version.
+ * @author hmalphettes
+ */
+public class TestServiceVersions {
+
+	private static final String SERVICES = "{"
+			+ "\"postgresql-8.4\":[{\"name\":\"old-pg\",\"credentials\":{}}],"
+			+ "\"postgresql-9.10\":[{\"name\":\"pg-910\",\"credentials\":{}}],"
+			+ "\"postgresql-9.1\":[{\"name\":\"pg-91a\",\"credentials\":{}},{\"name\":\"pg-91b\",\"credentials\":{}}],"
+			+ "\"mysql-5.1\":[{\"name\":\"my-51\",\"credentials\":{}}],"
+			+ "\"mysql-6.0\":[{\"name\":\"my-60\",\"credentials\":{}}],"
+			+ "\"mysql-5.5.31\":[{\"name\":\"my-5531\",\"credentials\":{}}],"
+			+ "\"user-provided\":[{\"name\":\"cache\",\"label\":\"redis-2.8\",\"credentials\":{}},"
+			+ "{\"name\":\"ups\",\"credentials\":{}}],"
+			+ "\"p-mysql\":[{\"name\":\"pmy\",\"label\":\"p-mysql\",\"credentials\":{}}]}";
+
+	@Test
+	public void testParse() {
+		ServiceVersion pg = ServiceVersion.fromServiceType("postgresql-9.1");
+		Assert.assertEquals("postgresql", pg.getProduct());
+		Assert.assertEquals(2, pg.getComponentCount());
+		Assert.assertEquals(1, pg.getComponent(1));
+		Assert.assertEquals("my-sql", ServiceVersion.fromServiceType("my-sql-5.5.31").getProduct());
+		Assert.assertNull(ServiceVersion.fromServiceType("p-mysql"));
+		Assert.assertNull(ServiceVersion.fromServiceType("user-provided"));
+		Assert.assertNull(ServiceVersion.fromServiceType("mysql-5."));
+		Assert.assertNull(ServiceVersion.fromServiceType("9.1"));
+
+		Assert.assertTrue(ServiceVersion.parse("9.10").compareTo(ServiceVersion.parse("9.9")) > 0);
+		Assert.assertEquals(0, ServiceVersion.parse("9").compareTo(ServiceVersion.parse("9.0")));
+		Assert.assertEquals(ServiceVersion.parse("9"), ServiceVersion.parse("9.0"));
+		Assert.assertEquals(ServiceVersion.parse("9").hashCode(), ServiceVersion.parse("9.0").hashCode());
+		Assert.assertEquals(1, ServiceVersion.parse("5.x").getComponentCount());
+		Assert.assertEquals(0, ServiceVersion.parse("*").getComponentCount());
+		Assert.assertTrue(ServiceVersion.parse("5.5.31").startsWith(ServiceVersion.parse("5.x")));
+		Assert.assertFalse(ServiceVersion.parse("6.0").startsWith(ServiceVersion.parse("5")));
+		try {
+			ServiceVersion.parse("five");
+			Assert.fail("Expected an IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testQueries() throws Exception {
+		assertQueries(new VCapServices(SERVICES, false, false));
+	}
+
+	@Test
+	public void testLazyQueries() throws Exception {
+		assertQueries(new VCapServices(SERVICES, false, true));
+	}
+
+	private static void assertQueries(VCapServices services) {
+		Assert.assertEquals("[pg-910, pg-91a, pg-91b, old-pg]", names(services.getVCapServicesByProduct("postgresql")));
+		Assert.assertEquals("pg-910", services.getNewestVCapService("postgresql", "9.0").getName());
+		Assert.assertEquals("pg-910", services.getNewestVCapService("postgresql", null).getName());
+		Assert.assertNull(services.getNewestVCapService("postgresql", "10"));
+		Assert.assertNull(services.getNewestVCapService("oracle", null));
+
+		Assert.assertEquals("[my-5531, my-51]", names(services.getVCapServicesByVersion("mysql", "5.x")));
+		Assert.assertEquals("[my-51]", names(services.getVCapServicesByVersion("mysql", "5.1")));
+		Assert.assertEquals("[my-60]", names(services.getVCapServicesByVersion("mysql", "6")));
+		Assert.assertEquals("[]", names(services.getVCapServicesByVersion("mysql", "7.x")));
+		Assert.assertEquals("[my-60, my-5531, my-51]", names(services.getVCapServicesByVersion("mysql", "x")));
+		Assert.assertEquals("[pg-91a, pg-91b]", names(services.getVCapServicesByVersion("postgresql", "9.1")));
+
+		// the label of the services whose type has no version.
+		Assert.assertEquals("cache", services.getNewestVCapService("redis", "2.6").getName());
+		Assert.assertTrue(services.getVCapServicesByProduct("p-mysql").isEmpty());
+	}
+
+	private static String names(List<IVCapService> services) {
+		StringBuilder sb = new StringBuilder("[");
+		for (IVCapService service : services) {
+			if (sb.length() > 1) {
+				sb.append(", ");
+			}
+			sb.append(service.getName());
+		}
+		return sb.append(']').toString();
+	}
+}
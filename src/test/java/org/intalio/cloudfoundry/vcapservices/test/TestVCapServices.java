@@ -26,11 +26,19 @@ package org.intalio.cloudfoundry.vcapservices.test;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.net.URI;
+import java.util.List;
+import java.util.regex.Pattern;
 
 import org.junit.*;
+import org.intalio.cloudfoundry.vcapservices.IPropertySource;
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
 import org.intalio.cloudfoundry.vcapservices.IVCapServiceCredentials;
+import org.intalio.cloudfoundry.vcapservices.NegatablePattern;
+import org.intalio.cloudfoundry.vcapservices.TagSelector;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapService;
 import org.intalio.cloudfoundry.vcapservices.impl.VCapServiceCredentials;
 import org.intalio.cloudfoundry.vcapservices.impl.VCapServices;
+import org.json.JSONException;
 
 import com.sun.org.apache.xalan.internal.xsltc.compiler.sym;
 
@@ -157,6 +165,235 @@ public class TestVCapServices {
 	}
 	
 
+	@Test
+	public void testParsedModel() throws Exception {
+		VCapServices vservices = new VCapServices(
+				readAsString("example2.json"), false);
+		Assert.assertEquals(3, vservices.getVCapServices().size());
+		IVCapService redis = vservices.getVCapServiceByName("redis-resque");
+		Assert.assertEquals("redis-2.2", redis.getServiceType());
+		Assert.assertEquals("redis-2.2", redis.getLabel());
+		Assert.assertEquals("free", redis.getPlan());
+		Assert.assertArrayEquals(new String[] {"redis", "redis-2.2", "key-value", "nosql"},
+				redis.getTags());
+		Assert.assertEquals(5138, redis.getCredentials().getPort());
+		Assert.assertNull(redis.getCredentials().getUser());
+		Assert.assertEquals("eb27e4e3-6dc6-4afe-9378-c975b25bb3ce",
+				vservices.getVCapServiceByName("ivanmongo").getCredentials().getUser());
+	}
+
+	@Test
+	public void testParseEscapesAndNestedCredentials() throws Exception {
+		VCapServices vservices = new VCapServices("{\"s-1\":[{\"name\":\"a\\\"b\\u0041\","
+				+ "\"extra\":{\"x\":[1,true,null]},\"credentials\":{\"port\":\"${no.such.port,42}\","
+				+ "\"ca\":{\"pem\":\"...\"},\"password\":\"p\\/w\"}}]}", false);
+		IVCapService serv = vservices.getVCapServiceByName("a\"bA");
+		Assert.assertNotNull(serv);
+		Assert.assertNull(serv.getTags());
+		Assert.assertEquals("p/w", serv.getCredentials().getPassword());
+		Assert.assertEquals(42, serv.getCredentials().getPort());
+	}
+
+	@Test
+	public void testResolvedCredentials() throws Exception {
+		VCapServices vservices = new VCapServices(
+				readAsString("example4.json"), false);
+		VCapServiceCredentials cred = (VCapServiceCredentials)vservices
+				.getVCapServiceCredentialsByName("intalio-prodrdb2");
+		Assert.assertFalse(cred.isResolved());
+		System.setProperty("intalio.prodrdb2.port", "6543");
+		try {
+			vservices.resolveCredentials();
+			Assert.assertTrue(cred.isResolved());
+			Assert.assertEquals(6543, cred.getPort());
+			Assert.assertEquals("intalio", cred.getUser());
+			Assert.assertEquals("intalio", cred.getUsername());
+			System.setProperty("intalio.prodrdb2.port", "7654");
+			Assert.assertEquals(6543, cred.getPort());
+			Assert.assertEquals(7654, cred.refresh().getPort());
+			Assert.assertEquals(7654, cred.getPort());
+		} finally {
+			System.clearProperty("intalio.prodrdb2.port");
+		}
+	}
+
+	@Test
+	public void testResolvePropertyValue() throws Exception {
+		IPropertySource props = new IPropertySource() {
+			public String getProperty(String key) {
+				return "a".equals(key) ? "A" : null;
+			}
+		};
+		Assert.assertEquals("xAy", VCapService.resolvePropertyValue("x${a}y", props));
+		Assert.assertEquals("x${b}y", VCapService.resolvePropertyValue("x${b}y", props));
+		Assert.assertEquals("1-A-2", VCapService.resolvePropertyValue("${b,1}-${a,2}-${c,2}", props));
+		Assert.assertEquals("${c!", VCapService.resolvePropertyValue("${b,${c}!", props));
+		Assert.assertEquals("x${a", VCapService.resolvePropertyValue("x${a", props));
+		Assert.assertEquals("${a,}", VCapService.resolvePropertyValue("${a,}", props));
+		Assert.assertEquals("", VCapService.resolvePropertyValue("", props));
+	}
+
+	@Test
+	public void testConnectionCache() throws Exception {
+		VCapServices services = new VCapServices(readAsString("example2.json"), false);
+		URI first = services.getConnectionAsURI(EXAMPLE_POSTGRES_JDBC_URI_STR, "postgresql", "/^postgres.*/");
+		Assert.assertEquals(0, services.getConnectionCacheHits());
+		Assert.assertEquals(1, services.getConnectionCacheMisses());
+		Assert.assertSame(first, services.getConnectionAsURI(EXAMPLE_POSTGRES_JDBC_URI_STR,
+				"postgresql", "/^postgres.*/", null));
+		Assert.assertEquals(1, services.getConnectionCacheHits());
+		services.getConnectionAsURI(EXAMPLE_POSTGRES_JDBC_URI_STR, "mysql", "/^postgres.*/");
+		Assert.assertEquals(2, services.getConnectionCacheMisses());
+	}
+
+	@Test
+	public void testConnectionCacheIsBounded() throws Exception {
+		VCapServices services = new VCapServices(readAsString("example2.json"), false);
+		// selectors built dynamically: the cache is cleared instead of growing until the next reload.
+		for (int i = 0; i < 2048; i++) {
+			services.getConnectionAsURI(EXAMPLE_POSTGRES_JDBC_URI_STR, "postgresql" + i, "/^postgres.*/");
+		}
+		Assert.assertEquals(2048, services.getConnectionCacheMisses());
+		services.getConnectionAsURI(EXAMPLE_POSTGRES_JDBC_URI_STR, "postgresql2047", "/^postgres.*/");
+		Assert.assertEquals(1, services.getConnectionCacheHits());
+		services.getConnectionAsURI(EXAMPLE_POSTGRES_JDBC_URI_STR, "postgresql0", "/^postgres.*/");
+		Assert.assertEquals(2049, services.getConnectionCacheMisses());
+	}
+
+	@Test
+	public void testIndexedQueries() throws Exception {
+		VCapServices vservices = new VCapServices(
+				readAsString("example4.json"), false);
+		Assert.assertEquals("intalio-prodrdb", vservices.getVCapService(
+				Pattern.compile("^postgres.*"), 0).getName());
+		Assert.assertEquals("intalio-prodrdb2", vservices.getVCapService(
+				Pattern.compile("postgres-9\\.1"), 1).getName());
+		Assert.assertNull(vservices.getVCapService(Pattern.compile("^postgres.*"), 2));
+		Assert.assertEquals("mongodb-intalio", vservices.getVCapService("mongodb-1.8", 0).getName());
+		Assert.assertEquals(2, vservices.getVCapServices(new NegatablePattern("/^postgres.*/"),
+				new NegatablePattern("/intalio-.*/")).size());
+		Assert.assertEquals(1, vservices.getVCapServices(new NegatablePattern("/.*/"),
+				new NegatablePattern("/^intalio-prodrdb2$/")).size());
+		Assert.assertEquals(0, vservices.getVCapServices(new NegatablePattern("/^mongo.*/"),
+				new NegatablePattern("intalio-prodrdb2")).size());
+		Assert.assertEquals(3, vservices.getVCapServices(new NegatablePattern("!nothing"),
+				new NegatablePattern("/.*/")).size());
+		List<IVCapService> res = vservices.getVCapServices(new NegatablePattern("/.*/"),
+				new NegatablePattern("/.*(db|go).*/"));
+		Assert.assertEquals(3, res.size());
+		Assert.assertEquals("mongodb-intalio", res.get(2).getName());
+		Assert.assertEquals(2, vservices.getVCapServicesByTag("relational").size());
+		Assert.assertEquals(3, vservices.getVCapServicesByPlan("free").size());
+		Assert.assertEquals(1, vservices.getVCapServicesByLabel("mongodb-1.8").size());
+		Assert.assertEquals(0, vservices.getVCapServicesByTag("nope").size());
+	}
+
+	@Test
+	public void testTagSelectors() throws Exception {
+		VCapServices vservices = new VCapServices(
+				readAsString("example2.json"), false);
+		List<IVCapService> res = vservices.getVCapServices(new TagSelector("nosql,!document"));
+		Assert.assertEquals(1, res.size());
+		Assert.assertEquals("redis-resque", res.get(0).getName());
+		res = vservices.getVCapServices(TagSelector.anyOf("relational", "document").and("plan:free"));
+		Assert.assertEquals(2, res.size());
+		Assert.assertEquals("postgresql-8654", res.get(0).getName());
+		Assert.assertEquals("ivanmongo", res.get(1).getName());
+		Assert.assertEquals(3, vservices.getVCapServices(new TagSelector("!unknown")).size());
+		Assert.assertEquals(0, vservices.getVCapServices(new TagSelector("unknown|plan:paid")).size());
+		Assert.assertEquals(new TagSelector("a,b|c,!d"), TagSelector.allOf("a").or("b", "c").noneOf("d"));
+
+		StringBuilder sb = new StringBuilder("{\"many\":[");
+		for (int i = 0; i < 130; i++) {
+			sb.append(i == 0 ? "" : ",").append("{\"name\":\"s").append(i)
+					.append("\",\"tags\":[\"").append(i % 2 == 0 ? "even" : "odd")
+					.append("\"").append(i % 3 == 0 ? ",\"three\"" : "")
+					.append("],\"credentials\":{}}");
+		}
+		vservices = new VCapServices(sb.append("]}").toString(), false);
+		res = vservices.getVCapServices(TagSelector.allOf("even", "three"));
+		Assert.assertEquals(22, res.size());
+		Assert.assertEquals("s126", res.get(21).getName());
+		Assert.assertEquals(43, vservices.getVCapServices(TagSelector.allOf("odd").noneOf("three")).size());
+	}
+
+	@Test
+	public void testNegatablePatternKinds() throws Exception {
+		NegatablePattern p = NegatablePattern.compile("/^postgres.*/");
+		Assert.assertSame(p, NegatablePattern.compile("/^postgres.*/"));
+		Assert.assertEquals(NegatablePattern.MatchKind.PREFIX, p.getMatchKind());
+		Assert.assertEquals("postgres", p.getLiteral());
+		Assert.assertTrue(p.matches("postgres-9.1"));
+		Assert.assertFalse(p.matches("postgres\n9.1"));
+		Assert.assertFalse(p.matches("mysql"));
+		p = NegatablePattern.compile("!/.*prodrdb2$/");
+		Assert.assertEquals(NegatablePattern.MatchKind.SUFFIX, p.getMatchKind());
+		Assert.assertFalse(p.matches("intalio-prodrdb2"));
+		Assert.assertTrue(p.matches("intalio-prodrdb"));
+		p = NegatablePattern.compile("a.b");
+		Assert.assertEquals(NegatablePattern.MatchKind.EQUALS, p.getMatchKind());
+		Assert.assertTrue(p.matches("a.b"));
+		Assert.assertFalse(p.matches("axb"));
+		Assert.assertEquals(p, new NegatablePattern(Pattern.compile(Pattern.quote("a.b")), false));
+		p = NegatablePattern.compile("/(a|b)c/");
+		Assert.assertEquals(NegatablePattern.MatchKind.REGEX, p.getMatchKind());
+		Assert.assertTrue(p.matches("bc"));
+		System.setProperty("PATTERN_TEST_SELECTOR", "x");
+		try {
+			Assert.assertSame(NegatablePattern.compile("x"),
+					NegatablePattern.compile("${PATTERN_TEST_SELECTOR}"));
+		} finally {
+			System.clearProperty("PATTERN_TEST_SELECTOR");
+		}
+		// resolved once: a value that contains ${} is kept as is.
+		System.setProperty("PATTERN_TEST_OUTER", "${PATTERN_TEST_INNER,y}");
+		System.setProperty("PATTERN_TEST_INNER", "z");
+		try {
+			p = NegatablePattern.compile("${PATTERN_TEST_OUTER}");
+			Assert.assertEquals("${PATTERN_TEST_INNER,y}", p.getLiteral());
+			Assert.assertEquals(new NegatablePattern("${PATTERN_TEST_OUTER}").getLiteral(), p.getLiteral());
+		} finally {
+			System.clearProperty("PATTERN_TEST_OUTER");
+			System.clearProperty("PATTERN_TEST_INNER");
+		}
+	}
+
+	@Test
+	public void testNonScalarAttributes() throws Exception {
+		String services = "{\"s-1\":[{\"name\":\"a\",\"tags\":null,\"label\":{\"x\":1},\"plan\":[\"p\"],"
+				+ "\"credentials\":{}},"
+				+ "{\"name\":\"b\",\"tags\":\"mysql\",\"credentials\":{}},"
+				+ "{\"name\":{\"first\":\"c\"},\"tags\":{\"t\":[]},\"credentials\":{}},"
+				+ "{\"name\":\"d\",\"tags\":[\"x\",{\"y\":1}],\"credentials\":{}}]}";
+		for (boolean lazy : new boolean[] { false, true }) {
+			List<IVCapService> servs = new VCapServices(services, false, lazy).getVCapServicesByType("s-1");
+			Assert.assertEquals(4, servs.size());
+			Assert.assertNull(servs.get(0).getTags());
+			Assert.assertNull(servs.get(0).getLabel());
+			Assert.assertNull(servs.get(0).getPlan());
+			Assert.assertNull(servs.get(1).getTags());
+			Assert.assertNull(servs.get(2).getName());
+			Assert.assertNull(servs.get(2).getTags());
+			Assert.assertArrayEquals(new String[] {"x", "{\"y\":1}"}, servs.get(3).getTags());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDuplicateServiceName() throws Exception {
+		new VCapServices("{\"a\":[{\"name\":\"x\",\"credentials\":{}}],"
+				+ "\"b\":[{\"name\":\"x\",\"credentials\":{}}]}", false);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDuplicateServiceType() throws Exception {
+		new VCapServices("{\"a\":[],\"a\":[]}", false);
+	}
+
+	@Test(expected = JSONException.class)
+	public void testMalformed() throws Exception {
+		new VCapServices("{\"a\":[{\"name\":\"x\",\"credentials\":{}}", false);
+	}
+
 	private static String readAsString(String filename)
 			throws java.io.IOException {
 		StringBuffer fileData = new StringBuffer(1000);
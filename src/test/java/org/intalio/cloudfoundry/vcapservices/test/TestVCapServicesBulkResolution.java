@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.test;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.PatternSyntaxException;
+
+import org.intalio.cloudfoundry.vcapservices.ConnectionRequest;
+import org.intalio.cloudfoundry.vcapservices.ConnectionResolution;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServices;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Resolving many connection requests in a single pass.
+ * @author hmalphettes
+ */
+public class TestVCapServicesBulkResolution {
+
+	private static final String SERVICES = "{\"postgresql-9.1\":[{\"name\":\"orders\",\"credentials\":{"
+			+ "\"name\":\"ordersdb\",\"hostname\":\"10.0.0.1\",\"port\":5432,\"user\":\"u1\",\"password\":\"p1\"}},"
+			+ "{\"name\":\"definition\",\"credentials\":{\"name\":\"defdb\",\"hostname\":\"10.0.0.2\","
+			+ "\"port\":5432,\"user\":\"u2\",\"password\":\"p2\"}}],"
+			+ "\"mysql-5.1\":[{\"name\":\"legacy\",\"credentials\":{\"name\":\"legacydb\",\"hostname\":\"10.0.0.3\","
+			+ "\"port\":3306,\"user\":\"u3\",\"password\":\"p3\"}}],"
+			+ "\"redis-2.2\":[{\"name\":\"cache\",\"credentials\":{\"hostname\":\"10.0.0.4\",\"port\":6379,"
+			+ "\"password\":\"p4\"}}]}";
+
+	private String _previous;
+
+	@Before
+	public void setUp() {
+		_previous = System.getProperty("VCAP_SERVICES");
+	}
+
+	@After
+	public void tearDown() {
+		if (_previous == null) {
+			System.clearProperty("VCAP_SERVICES");
+		} else {
+			System.setProperty("VCAP_SERVICES", _previous);
+		}
+	}
+
+	@Test
+	public void testSamePicksAsGetConnectionAsURI() throws Exception {
+		System.setProperty("VCAP_SERVICES", SERVICES);
+		VCapServices services = new VCapServices(SERVICES, false);
+		List<ConnectionRequest> requests = Arrays.asList(
+				new ConnectionRequest("DATABASE_URL", "postgresql", "/^postgres.*/", null),
+				new ConnectionRequest("DATABASE_URL", "postgresql", "/^postgres.*/", "!/.*definition.*/"),
+				new ConnectionRequest("DATABASE_URL", "postgresql", "/^postgres.*/", "/.*definition.*/"),
+				new ConnectionRequest("MYSQL_URL", "mysql", "mysql-5.1", null),
+				new ConnectionRequest("ANY_URL", "db", "!/^redis.*/", "legacy"),
+				ConnectionRequest.credentials("/^redis.*/", "cache"));
+		ConnectionResolution resolution = services.resolveConnections(requests);
+		Assert.assertTrue(resolution.toString(), resolution.isComplete());
+		Assert.assertTrue(resolution.getUnmatched().isEmpty());
+		for (int i = 0; i < 5; i++) {
+			ConnectionRequest request = requests.get(i);
+			URI expected = new VCapServices(SERVICES, false).getConnectionAsURI(
+					request.getDefaultURIOrSysPropertyForIt(), request.getScheme(),
+					request.getServiceTypeRegexpOrString(), request.getNameOfServiceSelector());
+			Assert.assertEquals(expected, resolution.getURI(i));
+		}
+		Assert.assertEquals("orders", resolution.getService(0).getName());
+		Assert.assertEquals("orders", resolution.getService(1).getName());
+		Assert.assertEquals("definition", resolution.getService(2).getName());
+		Assert.assertEquals(new URI("db://u3:p3@10.0.0.3:3306/legacydb"), resolution.getURI(4));
+		Assert.assertNull(resolution.getURI(5));
+		Assert.assertEquals("p4", resolution.getCredentials(5).getPassword());
+
+		// the URIs are shared with getConnectionAsURI.
+		long hits = services.getConnectionCacheHits();
+		services.getConnectionAsURI("DATABASE_URL", "postgresql", "/^postgres.*/", "/.*definition.*/");
+		Assert.assertEquals(hits + 1, services.getConnectionCacheHits());
+		Assert.assertSame(resolution.getURI(0), services.resolveConnections(requests).getURI(0));
+	}
+
+	@Test
+	public void testSameSelectorSemanticsAsGetConnectionAsURI() throws Exception {
+		System.setProperty("VCAP_SERVICES", SERVICES);
+		System.setProperty("BULK_TEST_TYPE", "mysql-5.1");
+		try {
+			VCapServices services = new VCapServices(SERVICES, false);
+			List<ConnectionRequest> requests = Arrays.asList(
+					// without a name the type is a literal or a regexp: neither substituted nor negated.
+					new ConnectionRequest("DATABASE_URL", "mysql", "${BULK_TEST_TYPE}", null),
+					new ConnectionRequest("DATABASE_URL", "db", "!/^redis.*/", null),
+					// with a name it is a negatable pattern.
+					new ConnectionRequest("DATABASE_URL", "mysql", "${BULK_TEST_TYPE}", "legacy"),
+					new ConnectionRequest("DATABASE_URL", "db", "!/^redis.*/", "legacy"));
+			ConnectionResolution resolution = services.resolveConnections(requests);
+			for (int i = 0; i < requests.size(); i++) {
+				ConnectionRequest request = requests.get(i);
+				URI expected = null;
+				try {
+					expected = new VCapServices(SERVICES, false).getConnectionAsURI(
+							request.getDefaultURIOrSysPropertyForIt(), request.getScheme(),
+							request.getServiceTypeRegexpOrString(), request.getNameOfServiceSelector());
+				} catch (RuntimeException e) {
+					Assert.assertNotNull(request.toString(), resolution.getError(i));
+				}
+				Assert.assertEquals(request.toString(), expected, resolution.getURI(i));
+			}
+			Assert.assertNull(resolution.getService(0));
+			Assert.assertNull(resolution.getService(1));
+			Assert.assertEquals(new URI("db://u3:p3@10.0.0.3:3306/legacydb"), resolution.getURI(3));
+		} finally {
+			System.clearProperty("BULK_TEST_TYPE");
+		}
+	}
+
+	@Test
+	public void testUnmatchedReport() throws Exception {
+		System.setProperty("VCAP_SERVICES", SERVICES);
+		VCapServices services = new VCapServices(SERVICES, false);
+		ConnectionResolution resolution = services.resolveConnections(Arrays.asList(
+				new ConnectionRequest("DATABASE_URL", "postgresql", "/^postgres.*/", "orders"),
+				new ConnectionRequest("MONGO_URL", "mongodb", "/^mongo.*/", null),
+				new ConnectionRequest("DATABASE_URL", "postgresql", "/^postgres.*/", "nosuchdb"),
+				ConnectionRequest.credentials("/^mysql(-5/", null)));
+		Assert.assertFalse(resolution.isComplete());
+		Assert.assertEquals(Arrays.asList(resolution.getRequests().get(1), resolution.getRequests().get(2),
+				resolution.getRequests().get(3)), resolution.getUnmatched());
+		Assert.assertNotNull(resolution.getURI(0));
+		Assert.assertTrue(resolution.getError(1) instanceof IllegalArgumentException);
+		Assert.assertTrue(resolution.getError(3) instanceof PatternSyntaxException);
+		String report = resolution.toString();
+		Assert.assertTrue(report, report.startsWith("1/4 resolved"));
+		Assert.assertTrue(report, report.contains("service-name=nosuchdb"));
+	}
+
+	@Test
+	public void testDefaultsWithoutVCapServices() throws Exception {
+		System.clearProperty("VCAP_SERVICES");
+		VCapServices services = new VCapServices(SERVICES, false);
+		ConnectionResolution resolution = services.resolveConnections(Arrays.asList(
+				new ConnectionRequest("postgresql://u:p@localhost/db", "postgresql", "/^postgres.*/", null),
+				new ConnectionRequest("NO_SUCH_DEFAULT_FOR_THE_BULK_TEST", "mysql", "mysql-5.1", null)));
+		Assert.assertEquals(new URI("postgresql://u:p@localhost/db"), resolution.getURI(0));
+		Assert.assertNull(resolution.getService(0));
+		Assert.assertEquals(1, resolution.getUnmatched().size());
+		Assert.assertNull(resolution.getURI(1));
+	}
+}
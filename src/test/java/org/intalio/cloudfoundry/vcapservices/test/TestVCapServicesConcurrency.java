@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.NegatablePattern;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServices;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Reading the services from many threads while they are replaced.
+ * @author hmalphettes
+ */
+public class TestVCapServicesConcurrency {
+
+	private static String version(int port) {
+		return "{\"pg\":[{\"name\":\"a\",\"label\":\"pg-9\",\"tags\":[\"sql\"],"
+				+ "\"credentials\":{\"hostname\":\"h" + port + "\",\"port\":" + port + "}},"
+				+ "{\"name\":\"b\",\"label\":\"pg-9\",\"tags\":[\"sql\"],"
+				+ "\"credentials\":{\"hostname\":\"h" + port + "\",\"port\":" + port + "}}]}";
+	}
+
+	@Test
+	public void testUnmodifiable() throws Exception {
+		VCapServices services = new VCapServices(version(1), false);
+		Map<String, List<IVCapService>> all = services.getVCapServices();
+		try {
+			all.remove("pg");
+			Assert.fail("The services must not be modifiable");
+		} catch (UnsupportedOperationException expected) {
+		}
+		try {
+			all.get("pg").clear();
+			Assert.fail("The services must not be modifiable");
+		} catch (UnsupportedOperationException expected) {
+		}
+		try {
+			services.getVCapServicesByTag("sql").add(null);
+			Assert.fail("The services must not be modifiable");
+		} catch (UnsupportedOperationException expected) {
+		}
+	}
+
+	@Test
+	public void testConcurrentReads() throws Exception {
+		final VCapServices services = new VCapServices(version(1), false);
+		final AtomicBoolean done = new AtomicBoolean();
+		final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+		final CountDownLatch started = new CountDownLatch(4);
+		Thread[] readers = new Thread[4];
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread("reader-" + i) {
+				public void run() {
+					started.countDown();
+					NegatablePattern type = NegatablePattern.compile("pg");
+					NegatablePattern name = NegatablePattern.compile("/.*/");
+					try {
+						while (!done.get()) {
+							// a list of services comes from a single snapshot:
+							// all its services agree on the port.
+							List<IVCapService> servs = services.getVCapServices(type, name);
+							Assert.assertEquals(2, servs.size());
+							int port = servs.get(0).getCredentials().getPort();
+							Assert.assertEquals(port, servs.get(1).getCredentials().getPort());
+							Assert.assertEquals(2, services.getVCapServicesByTag("sql").size());
+							IVCapService a = services.getVCapServiceByName("a");
+							Assert.assertNotNull(a);
+							Assert.assertEquals("h" + a.getCredentials().getPort(),
+									a.getCredentials().getHostname());
+						}
+					} catch (Throwable t) {
+						failures.add(t);
+					}
+				}
+			};
+			readers[i].start();
+		}
+		started.await();
+		for (int i = 0; i < 2000; i++) {
+			services.replaceServices(version(1 + i % 7), false);
+		}
+		done.set(true);
+		for (Thread reader : readers) {
+			reader.join();
+		}
+		if (!failures.isEmpty()) {
+			throw new AssertionError(failures.peek());
+		}
+	}
+
+}
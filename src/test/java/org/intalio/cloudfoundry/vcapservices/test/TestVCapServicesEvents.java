@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.test;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.intalio.cloudfoundry.vcapservices.NegatablePattern;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServices;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The Java Flight Recorder events of the parsing, the selectors and the connection URIs.
+ * @author hmalphettes
+ */
+public class TestVCapServicesEvents {
+
+	private static final String PREFIX = "org.intalio.cloudfoundry.vcapservices.";
+
+	private static final String SERVICES = "{\"pg\":[{\"name\":\"a\",\"credentials\":{\"port\":1}},"
+			+ "{\"name\":\"b\",\"credentials\":{\"port\":2}}],"
+			+ "\"redis\":[{\"name\":\"c\",\"credentials\":{}}]}";
+
+	@Test
+	public void testEvents() throws Exception {
+		String previous = System.getProperty("VCAP_SERVICES");
+		System.clearProperty("VCAP_SERVICES");
+		File file = File.createTempFile("vcapservices", ".jfr");
+		Recording recording = new Recording();
+		try {
+			for (String event : new String[] { "Parse", "Selector", "ConnectionURI" }) {
+				recording.enable(PREFIX + event).withThreshold(Duration.ZERO);
+			}
+			recording.start();
+			VCapServices services = new VCapServices(SERVICES, false);
+			NegatablePattern pg = NegatablePattern.compile("pg");
+			NegatablePattern all = NegatablePattern.compile("/.*/");
+			Assert.assertEquals(2, services.getVCapServices(pg, all).size());
+			services.getConnectionAsURI("postgresql://u:p@localhost/db", "postgresql", "pg");
+			services.getConnectionAsURI("postgresql://u:p@localhost/db", "postgresql", "pg");
+			recording.stop();
+			recording.dump(file.toPath());
+
+			Map<String, RecordedEvent> last = new HashMap<String, RecordedEvent>();
+			int uris = 0;
+			List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+			for (RecordedEvent event : events) {
+				String name = event.getEventType().getName();
+				last.put(name, event);
+				if (name.equals(PREFIX + "ConnectionURI")) {
+					uris++;
+				}
+			}
+			RecordedEvent parse = last.get(PREFIX + "Parse");
+			Assert.assertNotNull(parse);
+			Assert.assertEquals(SERVICES.length(), parse.getInt("payloadLength"));
+			Assert.assertEquals(2, parse.getInt("serviceTypes"));
+			Assert.assertEquals(3, parse.getInt("services"));
+			Assert.assertTrue(parse.getBoolean("success"));
+
+			RecordedEvent selector = last.get(PREFIX + "Selector");
+			Assert.assertNotNull(selector);
+			Assert.assertEquals(2, selector.getInt("resultCount"));
+
+			Assert.assertEquals(2, uris);
+			RecordedEvent uri = last.get(PREFIX + "ConnectionURI");
+			Assert.assertEquals("postgresql", uri.getString("scheme"));
+			Assert.assertTrue(uri.getBoolean("cacheHit"));
+		} finally {
+			recording.close();
+			file.delete();
+			if (previous != null) {
+				System.setProperty("VCAP_SERVICES", previous);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.IVCapServiceCredentials;
+import org.intalio.cloudfoundry.vcapservices.IVCapServicesSource;
+import org.intalio.cloudfoundry.vcapservices.VCapServicesChange;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServices;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServicesSources;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Merging layers of services.
+ * @author hmalphettes
+ */
+public class TestVCapServicesLayers {
+
+	private static final String BASE = "{\"pg\":[{\"name\":\"a\",\"label\":\"postgresql\",\"plan\":\"free\","
+			+ "\"credentials\":{\"hostname\":\"db\",\"port\":5432,\"password\":\"secret\"}},"
+			+ "{\"name\":\"b\",\"credentials\":{\"port\":2}}],"
+			+ "\"redis\":[{\"name\":\"c\",\"credentials\":{\"port\":6379}}]}";
+	private static final String OVERRIDE = "{\"pg\":[{\"name\":\"a\",\"plan\":\"large\","
+			+ "\"credentials\":{\"password\":\"local\",\"name\":\"localdb\"}}],"
+			+ "\"mongo\":[{\"name\":\"d\",\"credentials\":{\"port\":27017}}]}";
+
+	@Test
+	public void testLayers() throws Exception {
+		VCapServices services = new VCapServices(Arrays.asList(
+				VCapServicesSources.string(BASE, false),
+				VCapServicesSources.file(new File("no-such-file-for-the-layers.json"), false),
+				VCapServicesSources.string(OVERRIDE, false)));
+		Assert.assertEquals(Arrays.asList("pg", "redis", "mongo"),
+				Arrays.asList(services.getVCapServices().keySet().toArray()));
+		assertOverridden(services.getVCapServiceByName("a"));
+		Assert.assertEquals(2, services.getVCapServiceCredentialsByName("b").getPort());
+		Assert.assertEquals(27017, services.getVCapServiceCredentialsByName("d").getPort());
+		Assert.assertEquals(3, services.getLayers().size());
+	}
+
+	@Test
+	public void testApplyOverlaySharesTheUntouchedServices() throws Exception {
+		VCapServices services = new VCapServices(BASE, false);
+		List<IVCapService> redis = services.getVCapServicesByType("redis");
+		IVCapService b = services.getVCapServiceByName("b");
+
+		VCapServicesChange change = services.applyOverlay(OVERRIDE, false);
+		Assert.assertEquals(1, change.getAdded().size());
+		Assert.assertEquals("d", change.getAdded().get(0).getName());
+		Assert.assertEquals(1, change.getChanged().size());
+		Assert.assertTrue(change.getRemoved().isEmpty());
+
+		assertOverridden(services.getVCapServiceByName("a"));
+		Assert.assertSame(redis, services.getVCapServicesByType("redis"));
+		Assert.assertSame(b, services.getVCapServiceByName("b"));
+
+		Assert.assertTrue(services.applyOverlay(OVERRIDE, false).isEmpty());
+	}
+
+	@Test
+	public void testReloadTheLayers() throws Exception {
+		File file = File.createTempFile("vcapservices", ".json");
+		try {
+			write(file, OVERRIDE);
+			IVCapServicesSource local = VCapServicesSources.file(file, false);
+			VCapServices services = new VCapServices(Arrays.asList(
+					VCapServicesSources.string(BASE, false), local));
+			assertOverridden(services.getVCapServiceByName("a"));
+
+			write(file, "{}");
+			VCapServicesChange change = services.reload();
+			Assert.assertEquals(1, change.getRemoved().size());
+			Assert.assertEquals(1, change.getChanged().size());
+			IVCapServiceCredentials cred = services.getVCapServiceCredentialsByName("a");
+			Assert.assertEquals("secret", cred.getPassword());
+			Assert.assertEquals("free", services.getVCapServiceByName("a").getPlan());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testResolveSysPropertyPerLayer() throws Exception {
+		System.setProperty("LAYERS_TEST_PASSWORD", "resolved");
+		try {
+			String literal = "{\"pg\":[{\"name\":\"a\",\"credentials\":"
+					+ "{\"hostname\":\"${LAYERS_TEST_PASSWORD}\",\"password\":\"${LAYERS_TEST_PASSWORD}\"}}]}";
+			String substituted = "{\"pg\":[{\"name\":\"a\",\"credentials\":"
+					+ "{\"password\":\"${LAYERS_TEST_PASSWORD}\",\"port\":\"${LAYERS_TEST_PORT,5433}\"}}]}";
+			// the base values are not substituted by an overlay that substitutes its own.
+			VCapServices services = new VCapServices("{}", false);
+			services.replaceServices(literal, false);
+			services.applyOverlay(substituted, true);
+			IVCapServiceCredentials cred = services.getVCapServiceCredentialsByName("a");
+			Assert.assertEquals("${LAYERS_TEST_PASSWORD}", cred.getHostname());
+			Assert.assertEquals("resolved", cred.getPassword());
+			Assert.assertEquals(5433, cred.getPort());
+
+			// and the other way around.
+			services = new VCapServices(substituted, false);
+			services.applyOverlay(literal, false);
+			cred = services.getVCapServiceCredentialsByName("a");
+			Assert.assertEquals("${LAYERS_TEST_PASSWORD}", cred.getHostname());
+			Assert.assertEquals("${LAYERS_TEST_PASSWORD}", cred.getPassword());
+			Assert.assertEquals(5433, cred.getPort());
+		} finally {
+			System.clearProperty("LAYERS_TEST_PASSWORD");
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDuplicateNameAcrossTypes() throws Exception {
+		VCapServices services = new VCapServices(BASE, false);
+		services.applyOverlay("{\"mongo\":[{\"name\":\"a\",\"credentials\":{}}]}", false);
+	}
+
+	private static void assertOverridden(IVCapService a) {
+		Assert.assertEquals("postgresql", a.getLabel());
+		Assert.assertEquals("large", a.getPlan());
+		IVCapServiceCredentials cred = a.getCredentials();
+		Assert.assertEquals("db", cred.getHostname());
+		Assert.assertEquals(5432, cred.getPort());
+		Assert.assertEquals("local", cred.getPassword());
+		Assert.assertEquals("localdb", cred.getName());
+	}
+
+	private static void write(File file, String content) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+}
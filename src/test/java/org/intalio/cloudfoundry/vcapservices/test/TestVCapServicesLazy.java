@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapService;
+import org.intalio.cloudfoundry.vcapservices.NegatablePattern;
+import org.intalio.cloudfoundry.vcapservices.TagSelector;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServices;
+import org.json.JSONException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The lazy mode returns the same services as the eager one.
+ * @author hmalphettes
+ */
+public class TestVCapServicesLazy {
+
+	@Test
+	public void testSameAsEager() throws Exception {
+		for (String fixture : new String[] { "example.json", "example2.json", "example3.json", "example4.json" }) {
+			String json = read(fixture);
+			VCapServices eager = new VCapServices(json, false, false);
+			VCapServices lazy = new VCapServices(json, false, true);
+			Assert.assertTrue(lazy.isLazy());
+			for (String type : eager.getVCapServices().keySet()) {
+				Assert.assertEquals(eager.getVCapServicesByType(type).size(),
+						lazy.getVCapServicesByType(type).size());
+			}
+			Assert.assertEquals(fixture, eager.getVCapService(Pattern.compile("^postgres.*"), 0),
+					lazy.getVCapService(Pattern.compile("^postgres.*"), 0));
+			NegatablePattern all = NegatablePattern.compile("/.*/");
+			Assert.assertEquals(fixture, eager.getVCapServices(all, all), lazy.getVCapServices(all, all));
+			Assert.assertEquals(fixture, eager.getVCapServices(), lazy.getVCapServices());
+			for (List<IVCapService> servs : eager.getVCapServices().values()) {
+				for (IVCapService serv : servs) {
+					Assert.assertEquals(serv, lazy.getVCapServiceByName(serv.getName()));
+					if (serv.getLabel() != null) {
+						Assert.assertEquals(eager.getVCapServicesByLabel(serv.getLabel()),
+								lazy.getVCapServicesByLabel(serv.getLabel()));
+					}
+				}
+			}
+			TagSelector selector = new TagSelector("postgres");
+			Assert.assertEquals(eager.getVCapServices(selector), lazy.getVCapServices(selector));
+		}
+	}
+
+	@Test
+	public void testScanChecks() throws Exception {
+		try {
+			new VCapServices("{\"a\":[{\"name\":\"x\",\"credentials\":{}}],"
+					+ "\"b\":[{\"name\":\"x\",\"credentials\":{}}]}", false, true);
+			Assert.fail("Expected a duplicate name");
+		} catch (IllegalArgumentException expected) {
+		}
+		try {
+			new VCapServices("{\"a\":[{\"name\":\"x\"}]}", false, true);
+			Assert.fail("Expected missing credentials");
+		} catch (JSONException expected) {
+		}
+		try {
+			new VCapServices("{\"a\":[{\"name\":\"x\",\"credentials\":{\"port\":}}]}", false, true);
+			Assert.fail("Expected a syntax error");
+		} catch (JSONException expected) {
+		}
+	}
+
+	@Test
+	public void testConcurrentFirstAccess() throws Exception {
+		StringBuilder sb = new StringBuilder("{");
+		for (int t = 0; t < 20; t++) {
+			sb.append(t == 0 ? "" : ",").append("\"type-").append(t).append("\":[");
+			for (int i = 0; i < 5; i++) {
+				sb.append(i == 0 ? "" : ",").append("{\"name\":\"s-").append(t).append('-').append(i)
+					.append("\",\"credentials\":{\"port\":").append(i).append("}}");
+			}
+			sb.append(']');
+		}
+		final VCapServices services = new VCapServices(sb.append('}').toString(), false, true);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			Future<?>[] results = new Future<?>[8];
+			for (int r = 0; r < results.length; r++) {
+				results[r] = executor.submit(new Callable<IVCapService[]>() {
+					public IVCapService[] call() {
+						IVCapService[] res = new IVCapService[20];
+						for (int t = 0; t < 20; t++) {
+							res[t] = services.getVCapServiceByName("s-" + t + "-3");
+						}
+						return res;
+					}
+				});
+			}
+			IVCapService[] first = (IVCapService[])results[0].get();
+			for (Future<?> result : results) {
+				IVCapService[] res = (IVCapService[])result.get();
+				for (int t = 0; t < 20; t++) {
+					Assert.assertSame(first[t], res[t]);
+					Assert.assertEquals(3, res[t].getCredentials().getPort());
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private static String read(String name) throws IOException {
+		InputStream in = TestVCapServicesLazy.class.getResourceAsStream(name);
+		try {
+			return new Scanner(in, "UTF-8").useDelimiter("\\A").next();
+		} finally {
+			in.close();
+		}
+	}
+
+}
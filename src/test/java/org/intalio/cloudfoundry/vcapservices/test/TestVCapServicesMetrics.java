@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.test;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.management.ObjectName;
+
+import org.intalio.cloudfoundry.vcapservices.NegatablePattern;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapService;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServices;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServicesMetrics;
+import org.json.JSONException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Counting and timing the parsing, the lookups and the connection URIs.
+ * @author hmalphettes
+ */
+public class TestVCapServicesMetrics {
+
+	private static final String SERVICES = "{\"pg\":[{\"name\":\"a\",\"credentials\":{\"port\":1}},"
+			+ "{\"name\":\"b\",\"credentials\":{\"port\":2}}],"
+			+ "\"redis\":[{\"name\":\"c\",\"credentials\":{}}]}";
+
+	@Test
+	public void testDisabledByDefault() throws Exception {
+		VCapServices services = new VCapServices(SERVICES, false);
+		Assert.assertNull(services.getMetrics());
+		services.getVCapServiceByName("a");
+		VCapServicesMetrics metrics = services.enableMetrics();
+		Assert.assertSame(metrics, services.enableMetrics());
+		Assert.assertEquals(0, metrics.getLookupCount());
+		services.disableMetrics();
+		Assert.assertNull(services.getMetrics());
+		services.getVCapServiceByName("a");
+		Assert.assertEquals(0, metrics.getLookupCount());
+	}
+
+	@Test
+	public void testCounts() throws Exception {
+		VCapServices services = new VCapServices(SERVICES, false);
+		VCapServicesMetrics metrics = services.enableMetrics();
+		try {
+			Assert.assertEquals(2, metrics.getServiceTypes());
+			Assert.assertEquals(3, metrics.getServices());
+
+			services.replaceServices(SERVICES, false);
+			try {
+				services.replaceServices("{\"pg\":[", false);
+				Assert.fail("Expected a JSONException");
+			} catch (JSONException expected) {
+			}
+			Assert.assertEquals(2, metrics.getParseCount());
+			Assert.assertEquals(1, metrics.getParseFailures());
+			Assert.assertEquals(2, metrics.getParseLatency().getCount());
+
+			Assert.assertNotNull(services.getVCapServiceByName("c"));
+			Assert.assertEquals(2, services.getVCapServicesByType("pg").size());
+			Assert.assertEquals(2, metrics.getLookupCount());
+
+			NegatablePattern all = NegatablePattern.compile("/.*/");
+			Assert.assertEquals(3, services.getVCapServices(all, all).size());
+			Assert.assertNotNull(services.getVCapService(Pattern.compile("^re.*"), 0));
+			Assert.assertEquals(2, metrics.getPatternLookupCount());
+			Assert.assertEquals(2, metrics.getPatternLookupLatency().getCount());
+
+			long resolved = metrics.getPropertyResolutionCount();
+			Assert.assertEquals("x", VCapService.resolvePropertyValue("${no.such.key.for.metrics,x}"));
+			Assert.assertEquals("plain", VCapService.resolvePropertyValue("plain"));
+			Assert.assertEquals(resolved + 1, metrics.getPropertyResolutionCount());
+
+			Map<String, Long> snapshot = metrics.snapshot();
+			Assert.assertEquals(Long.valueOf(1), snapshot.get("ParseFailures"));
+			Assert.assertEquals(Long.valueOf(2), snapshot.get("PatternLookupCount"));
+			Assert.assertEquals(Long.valueOf(3), snapshot.get("Services"));
+
+			metrics.reset();
+			Assert.assertEquals(0, metrics.getParseCount());
+			Assert.assertEquals(0, metrics.getPatternLookupLatency().getCount());
+		} finally {
+			services.disableMetrics();
+		}
+	}
+
+	@Test
+	public void testConnectionURI() throws Exception {
+		String previous = System.getProperty("VCAP_SERVICES");
+		System.clearProperty("VCAP_SERVICES");
+		try {
+			VCapServices services = new VCapServices(SERVICES, false);
+			VCapServicesMetrics metrics = services.enableMetrics();
+			URI uri = new URI("postgresql://u:p@localhost/db");
+			for (int i = 0; i < 3; i++) {
+				Assert.assertEquals(uri, services.getConnectionAsURI(uri.toString(), "postgresql", "pg"));
+			}
+			Assert.assertEquals(3, metrics.getConnectionURICount());
+			Assert.assertEquals(2, metrics.getConnectionCacheHits());
+			Assert.assertEquals(1, metrics.getConnectionCacheMisses());
+			services.disableMetrics();
+		} finally {
+			if (previous != null) {
+				System.setProperty("VCAP_SERVICES", previous);
+			}
+		}
+	}
+
+	@Test
+	public void testMBean() throws Exception {
+		VCapServices services = new VCapServices(SERVICES, false);
+		VCapServicesMetrics metrics = services.enableMetrics();
+		ObjectName name = metrics.register("test-mbean");
+		try {
+			Assert.assertEquals(name, metrics.getObjectName());
+			Assert.assertEquals(VCapServicesMetrics.JMX_DOMAIN, name.getDomain());
+			services.getVCapServiceByName("a");
+			Assert.assertEquals(Long.valueOf(1),
+					ManagementFactory.getPlatformMBeanServer().getAttribute(name, "LookupCount"));
+			Assert.assertEquals(Integer.valueOf(3),
+					ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Services"));
+		} finally {
+			services.disableMetrics();
+		}
+		Assert.assertNull(metrics.getObjectName());
+		Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+	}
+
+}
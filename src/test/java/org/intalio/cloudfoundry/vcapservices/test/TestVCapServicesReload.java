@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2011 Intalio Inc
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ *
+ */
+package org.intalio.cloudfoundry.vcapservices.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.intalio.cloudfoundry.vcapservices.IVCapServices;
+import org.intalio.cloudfoundry.vcapservices.IVCapServicesListener;
+import org.intalio.cloudfoundry.vcapservices.VCapServicesChange;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServices;
+import org.intalio.cloudfoundry.vcapservices.impl.VCapServicesFileWatcher;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Reloading the services from a file.
+ * @author hmalphettes
+ */
+public class TestVCapServicesReload {
+
+	private static final String V1 = "{\"pg\":[{\"name\":\"a\",\"credentials\":{\"port\":1}},"
+			+ "{\"name\":\"b\",\"credentials\":{\"port\":2}}]}";
+	private static final String V2 = "{\"pg\":[{\"name\":\"a\",\"credentials\":{\"port\":1}},"
+			+ "{\"name\":\"b\",\"credentials\":{\"port\":3}}],"
+			+ "\"redis\":[{\"name\":\"c\",\"credentials\":{}}]}";
+	private static final String V3 = "{\"redis\":[{\"name\":\"c\",\"credentials\":{}}]}";
+
+	private File _file;
+
+	@Before
+	public void setUp() throws IOException {
+		_file = File.createTempFile("vcapservices", ".json");
+		write(V1);
+	}
+
+	@After
+	public void tearDown() {
+		_file.delete();
+	}
+
+	@Test
+	public void testReload() throws Exception {
+		VCapServices services = new VCapServices(_file, false);
+		Assert.assertEquals(2, services.getVCapServiceByName("b").getCredentials().getPort());
+		final LinkedBlockingQueue<VCapServicesChange> changes = new LinkedBlockingQueue<VCapServicesChange>();
+		services.addListener(new IVCapServicesListener() {
+			public void servicesChanged(IVCapServices services, VCapServicesChange change) {
+				changes.add(change);
+			}
+		});
+		Assert.assertTrue(services.reload().isEmpty());
+		Assert.assertTrue(changes.isEmpty());
+
+		write(V2);
+		VCapServicesChange change = services.reload();
+		Assert.assertSame(change, changes.poll());
+		Assert.assertEquals(1, change.getAdded().size());
+		Assert.assertEquals("c", change.getAdded().get(0).getName());
+		Assert.assertEquals(1, change.getChanged().size());
+		Assert.assertEquals(3, change.getChanged().get(0).getCredentials().getPort());
+		Assert.assertEquals(0, change.getRemoved().size());
+		Assert.assertEquals(3, services.getVCapServiceByName("b").getCredentials().getPort());
+
+		write(V3);
+		change = services.reload();
+		Assert.assertEquals(2, change.getRemoved().size());
+		Assert.assertNull(services.getVCapServiceByName("a"));
+	}
+
+	@Test
+	public void testLazyReplace() throws Exception {
+		VCapServices services = new VCapServices(V1, false, true);
+		// the same characters: the services are not parsed to be compared.
+		Assert.assertTrue(services.replaceServices(new String(V1), true).isEmpty());
+		VCapServicesChange change = services.replaceServices(V2, true);
+		Assert.assertEquals("c", change.getAdded().get(0).getName());
+		Assert.assertEquals("b", change.getChanged().get(0).getName());
+		Assert.assertEquals(0, change.getRemoved().size());
+		change = services.replaceServices(V3, true);
+		Assert.assertTrue(change.getAdded().isEmpty() && change.getChanged().isEmpty());
+		Assert.assertEquals("a", change.getRemoved().get(0).getName());
+		Assert.assertEquals("b", change.getRemoved().get(1).getName());
+	}
+
+	@Test
+	public void testFailingListener() throws Exception {
+		VCapServices services = new VCapServices(_file, false);
+		final LinkedBlockingQueue<VCapServicesChange> changes = new LinkedBlockingQueue<VCapServicesChange>();
+		services.addListener(new IVCapServicesListener() {
+			public void servicesChanged(IVCapServices services, VCapServicesChange change) {
+				throw new IllegalStateException("failing listener");
+			}
+		});
+		services.addListener(new IVCapServicesListener() {
+			public void servicesChanged(IVCapServices services, VCapServicesChange change) {
+				changes.add(change);
+			}
+		});
+		Logger log = Logger.getLogger(VCapServices.class.getName());
+		Level level = log.getLevel();
+		log.setLevel(Level.OFF);
+		try {
+			write(V2);
+			VCapServicesChange change = services.reload();
+			Assert.assertSame(change, changes.poll());
+			Assert.assertNotNull(services.getVCapServiceByName("c"));
+		} finally {
+			log.setLevel(level);
+		}
+	}
+
+	@Test
+	public void testWatcher() throws Exception {
+		VCapServices services = new VCapServices(_file, false);
+		final LinkedBlockingQueue<VCapServicesChange> changes = new LinkedBlockingQueue<VCapServicesChange>();
+		services.addListener(new IVCapServicesListener() {
+			public void servicesChanged(IVCapServices services, VCapServicesChange change) {
+				changes.add(change);
+			}
+		});
+		VCapServicesFileWatcher watcher = new VCapServicesFileWatcher(services);
+		watcher.start();
+		try {
+			write(V3);
+			VCapServicesChange change = changes.poll(30, TimeUnit.SECONDS);
+			Assert.assertNotNull("No change detected: " + watcher.getLastError(), change);
+			while (services.getVCapServiceByName("a") != null) {
+				change = changes.poll(30, TimeUnit.SECONDS);
+				Assert.assertNotNull("No change detected: " + watcher.getLastError(), change);
+			}
+			Assert.assertNotNull(services.getVCapServiceByName("c"));
+		} finally {
+			watcher.close();
+		}
+	}
+
+	private void write(String content) throws IOException {
+		FileOutputStream out = new FileOutputStream(_file);
+		try {
+			out.write(content.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+}